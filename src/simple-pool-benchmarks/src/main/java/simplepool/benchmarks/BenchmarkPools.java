@@ -0,0 +1,44 @@
+package simplepool.benchmarks;
+
+import simplepool.base.BasePoolConfig;
+import simplepool.base.GenericObjPool;
+import simplepool.base.StripedObjPool;
+import simplepool.base.abstracts.IObjFactory;
+import simplepool.base.abstracts.IObjPool;
+
+/**
+ * Pool implementations compared by benchmarks, selected by name:
+ * <br>
+ *      generic:        GenericObjPool
+ * <br>
+ *      threadLocal:    GenericObjPool with thread local cache
+ * <br>
+ *      striped:        StripedObjPool
+ */
+public final class BenchmarkPools {
+
+    private BenchmarkPools() {
+    }
+
+    public static BasePoolConfig makeConfig(int maxTotal) {
+        BasePoolConfig poolConfig = new BasePoolConfig();
+        poolConfig.setMaxTotal(maxTotal);
+        poolConfig.setMaxIdle(maxTotal);
+        poolConfig.setMinIdle(maxTotal);
+        poolConfig.setTestWhileIdle(false);
+        return poolConfig;
+    }
+
+    public static IObjPool<Object> makePool(String poolType, BasePoolConfig poolConfig, IObjFactory<Object> objFactory) {
+        if("generic".equals(poolType)) {
+            return new GenericObjPool<Object>(poolConfig, objFactory);
+        } else if("threadLocal".equals(poolType)) {
+            poolConfig.setThreadLocalCacheSize(4);
+            return new GenericObjPool<Object>(poolConfig, objFactory);
+        } else if("striped".equals(poolType)) {
+            return new StripedObjPool<Object>(poolConfig, objFactory);
+        } else {
+            throw new IllegalArgumentException("Unknown poolType:" + poolType);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package simplepool.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import simplepool.base.abstracts.IObjLease;
+import simplepool.base.abstracts.IObjPool;
+
+/**
+ * Borrow and return immediately, the pool is never exhausted (maxTotal >= threads).
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BorrowReturnBenchmark {
+
+    @Param({"generic", "threadLocal", "striped"})
+    public String poolType;
+
+    @Param({"64"})
+    public int maxTotal;
+
+    @Param({"0"})
+    public long makeCostMicros;
+
+    private IObjPool<Object> _pool;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        _pool = BenchmarkPools.makePool(
+                poolType,
+                BenchmarkPools.makeConfig(maxTotal),
+                new SimulatedObjFactory(makeCostMicros, 0, 0)
+        );
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        _pool.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object uncontended() {
+        return borrowAndReturn();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object contended4() {
+        return borrowAndReturn();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Object contended16() {
+        return borrowAndReturn();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Object contended64() {
+        return borrowAndReturn();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Object leaseContended16() {
+        IObjLease<Object> lease = _pool.borrowLease();
+        if(lease == null) {
+            return null;
+        }
+
+        Object obj = lease.getObject();
+        lease.close();
+        return obj;
+    }
+
+    private Object borrowAndReturn() {
+        Object obj = _pool.borrowObject();
+        if(obj != null) {
+            _pool.returnObject(obj);
+        }
+        return obj;
+    }
+}
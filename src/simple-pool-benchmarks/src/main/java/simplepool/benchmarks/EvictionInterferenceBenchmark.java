@@ -0,0 +1,77 @@
+package simplepool.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import simplepool.base.BasePoolConfig;
+import simplepool.base.abstracts.IObjPool;
+
+/**
+ * Borrow and return while eviction test runs frequently (evictionRunMillis = 0 means testWhileIdle is off).
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EvictionInterferenceBenchmark {
+
+    @Param({"generic"})
+    public String poolType;
+
+    @Param({"64"})
+    public int maxTotal;
+
+    @Param({"0", "10"})
+    public long evictionRunMillis;
+
+    @Param({"0", "100"})
+    public long validateCostMicros;
+
+    private IObjPool<Object> _pool;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BasePoolConfig poolConfig = BenchmarkPools.makeConfig(maxTotal);
+        if(evictionRunMillis > 0) {
+            poolConfig.setTestWhileIdle(true);
+            poolConfig.setTimeBetweenEvictionRunsMillis(evictionRunMillis);
+        }
+
+        _pool = BenchmarkPools.makePool(
+                poolType,
+                poolConfig,
+                new SimulatedObjFactory(0, validateCostMicros, 0)
+        );
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        _pool.close();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object borrowReturn() {
+        Object obj = _pool.borrowObject();
+        if(obj != null) {
+            _pool.returnObject(obj);
+        }
+        return obj;
+    }
+}
@@ -0,0 +1,88 @@
+package simplepool.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import simplepool.base.abstracts.IObjPool;
+
+/**
+ * More threads than objects, each borrower holds the object for a while (holdTokens of Blackhole.consumeCPU).
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExhaustionBenchmark {
+
+    @Param({"generic", "threadLocal", "striped"})
+    public String poolType;
+
+    @Param({"4"})
+    public int maxTotal;
+
+    @Param({"100"})
+    public long holdTokens;
+
+    private IObjPool<Object> _pool;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        _pool = BenchmarkPools.makePool(
+                poolType,
+                BenchmarkPools.makeConfig(maxTotal),
+                new SimulatedObjFactory(0, 0, 0)
+        );
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        _pool.close();
+    }
+
+    /**
+     * Waits for returned objects
+     */
+    @Benchmark
+    @Threads(16)
+    public Object timedBorrow() throws InterruptedException {
+        Object obj = _pool.borrowObject(1, TimeUnit.SECONDS);
+        if(obj != null) {
+            Blackhole.consumeCPU(holdTokens);
+            _pool.returnObject(obj);
+        }
+        return obj;
+    }
+
+    /**
+     * Retries until borrowObject() returns non-null
+     */
+    @Benchmark
+    @Threads(16)
+    public Object spinBorrow() {
+        Object obj;
+        while((obj = _pool.borrowObject()) == null) {
+            Thread.yield();
+        }
+
+        Blackhole.consumeCPU(holdTokens);
+        _pool.returnObject(obj);
+        return obj;
+    }
+}
@@ -0,0 +1,52 @@
+package simplepool.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import simplepool.base.abstracts.IObjFactory;
+
+/**
+ * Factory whose operations cost configurable time, simulating I/O (e.g. connecting) by parking current thread.
+ */
+public class SimulatedObjFactory implements IObjFactory<Object> {
+    private final long _makeCostNanos;
+    private final long _validateCostNanos;
+    private final long _destroyCostNanos;
+
+    public SimulatedObjFactory(long makeCostMicros, long validateCostMicros, long destroyCostMicros) {
+        _makeCostNanos = TimeUnit.MICROSECONDS.toNanos(makeCostMicros);
+        _validateCostNanos = TimeUnit.MICROSECONDS.toNanos(validateCostMicros);
+        _destroyCostNanos = TimeUnit.MICROSECONDS.toNanos(destroyCostMicros);
+    }
+
+    @Override
+    public Object makeObject() {
+        cost(_makeCostNanos);
+        return new Object();
+    }
+
+    @Override
+    public void destroyObject(Object obj) {
+        cost(_destroyCostNanos);
+    }
+
+    @Override
+    public boolean validateObject(Object obj) {
+        cost(_validateCostNanos);
+        return true;
+    }
+
+    @Override
+    public void activateObject(Object obj) {
+    }
+
+    @Override
+    public void passivateObject(Object obj) {
+    }
+
+    private static void cost(long nanos) {
+        if(nanos > 0) {
+            LockSupport.parkNanos(nanos);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package simplepool.benchmarks;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import simplepool.base.abstracts.IObjPool;
+
+/**
+ * 10k virtual threads borrow and return concurrently, far more callers than objects, so most of them wait.
+ * Each borrower holds the object for holdMicros (parked, like waiting for I/O).
+ * <br>
+ * Needs JDK 21 or later, the benchmark jar itself is built for Java 8 so virtual threads are made through reflection.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VirtualThreadBenchmark {
+
+    private final static int CALLERS = 10000;
+    private final static int BORROWS_PER_CALLER = 10;
+
+    @Param({"generic", "threadLocal", "striped"})
+    public String poolType;
+
+    @Param({"64"})
+    public int maxTotal;
+
+    @Param({"0", "100"})
+    public long holdMicros;
+
+    private IObjPool<Object> _pool;
+    private ExecutorService _executor;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        try {
+            _executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new UnsupportedOperationException("Virtual threads need JDK 21 or later", e);
+        }
+
+        _pool = BenchmarkPools.makePool(
+                poolType,
+                BenchmarkPools.makeConfig(maxTotal),
+                new SimulatedObjFactory(0, 0, 0)
+        );
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        _executor.shutdownNow();
+        _pool.close();
+    }
+
+    /**
+     * Score is borrows (each followed by a return) per time unit
+     */
+    @Benchmark
+    @OperationsPerInvocation(CALLERS * BORROWS_PER_CALLER)
+    public long borrowReturn() throws InterruptedException {
+        final CountDownLatch doneLatch = new CountDownLatch(CALLERS);
+        final long[] nullCounts = new long[CALLERS];
+        for(int i = 0; i < CALLERS; i++) {
+            final int caller = i;
+            _executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Object obj;
+                        for(int n = 0; n < BORROWS_PER_CALLER; n++) {
+                            obj = _pool.borrowObject(10, TimeUnit.SECONDS);
+                            if(obj == null) {
+                                nullCounts[caller]++;
+                                continue;
+                            }
+
+                            if(holdMicros > 0) {
+                                LockSupport.parkNanos(holdMicros * 1000L);
+                            }
+                            _pool.returnObject(obj);
+                        }
+                    } catch (InterruptedException e) {
+                        //tearDown
+                    } finally {
+                        doneLatch.countDown();
+                    }
+                }
+            });
+        }
+        doneLatch.await();
+
+        long nullCount = 0;
+        for(long count : nullCounts) {
+            nullCount += count;
+        }
+        return nullCount;
+    }
+}
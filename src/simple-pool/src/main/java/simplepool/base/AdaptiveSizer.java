@@ -0,0 +1,97 @@
+package simplepool.base;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Computes the idle target of a pool by observed demand, always within [minIdle, maxIdle].
+ * <br>
+ * Demand is the peak number of active objects in each interval, smoothed by a fast and a slow EWMA.
+ * Rising demand is followed by the fast one, and falling demand by the slow one, so the pool grows quickly and
+ * shrinks gradually. When the borrow rate is rising (fast EWMA of rate above slow one), the demand is scaled up
+ * by the ratio, so that objects are made before the pool runs dry.
+ */
+final class AdaptiveSizer {
+
+    private final static double FAST_ALPHA = 0.5;
+    private final static double SLOW_ALPHA = 0.1;
+
+    /**
+     * Extra objects on top of the demand
+     */
+    private final static double HEADROOM_RATIO = 0.2;
+
+    /**
+     * Max scale of demand by rising borrow rate
+     */
+    private final static double MAX_GROWTH = 2.0;
+
+    private final int _minIdle;
+    private final int _maxIdle;
+
+    private final LongAdder _borrowCount = new LongAdder();
+    private final AtomicInteger _peakActive = new AtomicInteger(0);
+
+    /**
+     * Only accessed by update()
+     */
+    private double _fastDemand = 0;
+    private double _slowDemand = 0;
+    private double _fastRate = 0;
+    private double _slowRate = 0;
+
+    private volatile int _idleTarget;
+
+    public AdaptiveSizer(int minIdle, int maxIdle) {
+        _minIdle = minIdle;
+        _maxIdle = Math.max(minIdle, maxIdle);
+        _idleTarget = minIdle;
+    }
+
+    /**
+     * Called on each borrow
+     * @param count number of objects borrowed at once
+     * @param active number of active objects including the borrowed ones
+     */
+    public void recordBorrow(int count, int active) {
+        _borrowCount.add(count);
+
+        int peak;
+        while(active > (peak = _peakActive.get())) {
+            if(_peakActive.compareAndSet(peak, active)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Called once every interval by one thread
+     * @param active number of active objects now
+     * @return new idle target
+     */
+    public int update(int active) {
+        final int peak = Math.max(_peakActive.getAndSet(active), active);
+        final long borrows = _borrowCount.sumThenReset();
+
+        _fastDemand += FAST_ALPHA * (peak - _fastDemand);
+        _slowDemand += SLOW_ALPHA * (peak - _slowDemand);
+        _fastRate += FAST_ALPHA * (borrows - _fastRate);
+        _slowRate += SLOW_ALPHA * (borrows - _slowRate);
+
+        double growth = 1.0;
+        if(_slowRate > 0 && _fastRate > _slowRate) {
+            growth = Math.min(MAX_GROWTH, _fastRate / _slowRate);
+        }
+
+        final double demand = Math.max(_fastDemand, _slowDemand) * growth;
+        final int targetTotal = (int) Math.ceil(demand * (1 + HEADROOM_RATIO));
+
+        _idleTarget = Math.max(_minIdle, Math.min(_maxIdle, targetTotal - active));
+        return _idleTarget;
+    }
+
+    public int getIdleTarget() {
+        return _idleTarget;
+    }
+
+}
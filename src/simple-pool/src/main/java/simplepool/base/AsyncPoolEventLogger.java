@@ -0,0 +1,204 @@
+package simplepool.base;
+
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import simplepool.base.abstracts.IPoolEventListener;
+import simplepool.base.abstracts.PoolEventType;
+
+/**
+ * Default IPoolEventListener, which writes events to a PrintStream (System.err by default) on a background thread.
+ * <br>
+ * Events are offered to a bounded queue, so publishing never formats or blocks. When the queue is full the event is
+ * dropped and counted, and the number of dropped events is written with the next one. The writer thread blocks on
+ * the queue while there is no event, so an unused logger costs nothing but the thread.
+ */
+public class AsyncPoolEventLogger implements IPoolEventListener {
+
+    private final static AsyncPoolEventLogger DEFAULT = new AsyncPoolEventLogger(
+            1024, System.err, EnumSet.of(
+                    PoolEventType.FACTORY_EXCEPTION, PoolEventType.ABANDONED, PoolEventType.BREAKER_OPEN,
+                    PoolEventType.BREAKER_CLOSE, PoolEventType.ERROR
+            )
+    );
+
+    /**
+     * Put by close(), the writer stops when it takes this
+     */
+    private final Event _closingSignal = new Event(0, null, null, null, null, null);
+
+    private final BlockingQueue<Event> _eventQueue;
+
+    private final PrintStream _out;
+    private final boolean[] _enabledTypes = new boolean[PoolEventType.values().length];
+
+    private final LongAdder _droppedCount = new LongAdder();
+    private long _reportedDroppedCount = 0;
+
+    private final SimpleDateFormat _dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss,SSS");
+    private final Date _date = new Date();
+
+    private final Thread _writerThread;
+    private volatile boolean _closed = false;
+
+    /**
+     * Shared by all pools which have no eventListener configured, only errors are written (FACTORY_EXCEPTION,
+     * ABANDONED, BREAKER_OPEN, BREAKER_CLOSE and ERROR).
+     */
+    public static AsyncPoolEventLogger getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * @param capacity max number of events waiting to be written
+     * @param out
+     * @param enabledTypes events of other types are ignored without being published
+     */
+    public AsyncPoolEventLogger(int capacity, PrintStream out, Set<PoolEventType> enabledTypes) {
+        _eventQueue = new ArrayBlockingQueue<Event>(Math.max(1, capacity));
+
+        _out = out;
+        for(PoolEventType type : enabledTypes) {
+            _enabledTypes[type.ordinal()] = true;
+        }
+
+        _writerThread = new PoolScheduler.DaemonThreadFactory("simplepool-event-logger-").newThread(new Runnable() {
+            @Override
+            public void run() {
+                writeEvents();
+            }
+        });
+        _writerThread.start();
+    }
+
+    @Override
+    public void onEvent(PoolEventType type, String poolName, Object obj, String msg, Throwable cause) {
+        if(!_enabledTypes[type.ordinal()] || _closed) {
+            return;
+        }
+
+        if(!_eventQueue.offer(new Event(System.currentTimeMillis(), type, poolName, obj, msg, cause))) {
+            //full, the writer is too slow
+            _droppedCount.increment();
+        }
+    }
+
+    /**
+     * Number of events dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        return _droppedCount.sum();
+    }
+
+    /**
+     * Stop the writer thread after the events published so far are written. The default one should never be closed.
+     */
+    public synchronized void close() {
+        if(_closed) {
+            return;
+        }
+        _closed = true;
+        boolean interrupted = false;
+        while(true) {
+            try {
+                //after the events published so far, waits for the writer if the queue is full
+                _eventQueue.put(_closingSignal);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if(interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeEvents() {
+        Event event;
+        while(true) {
+            event = _eventQueue.poll();
+            if(event == null) {
+                //empty
+                _out.flush();
+                try {
+                    event = _eventQueue.take();
+                } catch (InterruptedException e) {
+                    //only stopped by close()
+                    continue;
+                }
+            }
+            if(event == _closingSignal) {
+                _out.flush();
+                return;
+            }
+
+            try {
+                write(event);
+            } catch (Throwable e) {
+                //the writer thread never dies of a bad toString() or stream
+            }
+        }
+    }
+
+    private void write(Event event) {
+        final long droppedCount = _droppedCount.sum();
+        if(droppedCount > _reportedDroppedCount) {
+            _out.println(formatTime(System.currentTimeMillis()) + " WARN simplepool "
+                    + (droppedCount - _reportedDroppedCount) + " events dropped, logger is too slow");
+            _reportedDroppedCount = droppedCount;
+        }
+
+        final StringBuilder line = new StringBuilder(128);
+        line.append(formatTime(event._time))
+                .append(isError(event._type)? " ERROR " : " DEBUG ")
+                .append("simplepool[").append(event._poolName).append("] ")
+                .append(event._type);
+        if(event._msg != null) {
+            line.append(' ').append(event._msg);
+        }
+        if(event._obj != null) {
+            line.append(" obj:").append(event._obj);
+        }
+        _out.println(line);
+
+        if(event._cause != null) {
+            event._cause.printStackTrace(_out);
+        }
+    }
+
+    private String formatTime(long time) {
+        _date.setTime(time);
+        return _dateFormat.format(_date);
+    }
+
+    private static boolean isError(PoolEventType type) {
+        return type == PoolEventType.FACTORY_EXCEPTION
+                || type == PoolEventType.ABANDONED
+                || type == PoolEventType.BREAKER_OPEN
+                || type == PoolEventType.ERROR;
+    }
+
+    private static final class Event {
+        private final long _time;
+        private final PoolEventType _type;
+        private final String _poolName;
+        private final Object _obj;
+        private final String _msg;
+        private final Throwable _cause;
+
+        public Event(long time, PoolEventType type, String poolName, Object obj, String msg, Throwable cause) {
+            _time = time;
+            _type = type;
+            _poolName = poolName;
+            _obj = obj;
+            _msg = msg;
+            _cause = cause;
+        }
+    }
+}
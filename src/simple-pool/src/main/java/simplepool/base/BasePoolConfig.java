@@ -1,5 +1,9 @@
 package simplepool.base;
 
+import java.util.concurrent.Executor;
+
+import simplepool.base.abstracts.IPoolEventListener;
+
 public class BasePoolConfig {
 
 	private String _poolName;
@@ -12,14 +16,157 @@ public class BasePoolConfig {
 	
 	/* deprecated for simplicity
     private boolean _testOnCreate = false;
-    private boolean _testOnBorrow = false;
     private boolean _testOnReturn = false;
     */
 
+    /**
+     * Whether or not to validate idle objects before handing them out, only the ones which have not been
+     * returned or tested within testOnBorrowIdleMillis. Objects failed are destroyed, and the borrower
+     * takes another idle one or makes new one.
+     */
+    private boolean _testOnBorrow = false;
+
+    private long _testOnBorrowIdleMillis = 5 * 1000L;
+
     private boolean _testWhileIdle = true;
     
     private long _timeBetweenEvictionRunsMillis = 60 * 1000L;
 
+    /**
+     * Max number of threads which are blocked in borrowObject(timeout, unit) at the same time.
+     * Once reached, borrowObject(timeout, unit) returns null immediately instead of waiting.
+     */
+    private int _maxWaiters = Integer.MAX_VALUE;
+
+    /**
+     * Max number of recently returned objects remembered by each thread, which are reclaimed by
+     * the same thread before touching the shared idle queue. 0 means this mode is disabled.
+     */
+    private int _threadLocalCacheSize = 0;
+
+    /**
+     * Max number of objects made in background at once (replenishing idle objects, replacing invalidated ones,
+     * and making objects for waiting borrowers). They run on the worker threads shared by all pools.
+     */
+    private int _maxCreateThreads = 2;
+
+    /**
+     * Whether or not to collect statistics and register PoolStatsMXBean (named by poolName) in platform MBeanServer.
+     */
+    private boolean _statsEnabled = false;
+
+    /**
+     * Max number of threads which validate idle objects in one eviction run.
+     */
+    private int _validationParallelism = 1;
+
+    /**
+     * Max number of objects passed to one call of IBatchObjFactory.validateObjects(),
+     * only used if the factory implements IBatchObjFactory.
+     */
+    private int _validationBatchSize = 16;
+
+    /**
+     * Max time of one eviction run. Objects not tested yet stay in idle queue until the next run.
+     * 0 means no limit.
+     */
+    private long _evictionRunBudgetMillis = 30 * 1000L;
+
+    /**
+     * Whether or not to borrow the most recently returned idle object first.
+     * In LIFO mode hot objects are reused, and the cold ones age out and are evicted when the pool is lightly loaded.
+     */
+    private boolean _lifo = false;
+
+    /**
+     * Whether or not to adjust the idle target within [minIdle, maxIdle] by observed demand (borrow rate and
+     * number of active objects). Objects are made in background before the pool runs dry,
+     * and idle ones are destroyed gradually when demand drops.
+     */
+    private boolean _adaptiveSizing = false;
+
+    private long _adaptiveSizingIntervalMillis = 1000L;
+
+    /**
+     * Objects borrowed longer than this are reported as abandoned (leaked by the borrower).
+     * 0 means no detection.
+     */
+    private long _abandonedTimeoutMillis = 0;
+
+    /**
+     * Ratio of borrows (0 to 1) whose stack trace is captured, so that abandoned objects can be traced to where they
+     * were borrowed. 0 means never capture, and borrowing costs nothing extra.
+     */
+    private double _borrowStackSampleRate = 0;
+
+    /**
+     * Whether or not to destroy abandoned objects and free their capacity, instead of only reporting them.
+     * Returning or invalidating a reclaimed object later is ignored.
+     */
+    private boolean _removeAbandoned = false;
+
+    /**
+     * Objects older than this are destroyed when they are returned or while they are idle, and replaced in background.
+     * 0 means no limit.
+     */
+    private long _maxLifetimeMillis = 0;
+
+    /**
+     * Lifetime of each object is random within [maxLifetime * (1 - jitter), maxLifetime], so that objects made together
+     * do not expire together.
+     */
+    private double _maxLifetimeJitter = 0.1;
+
+    /**
+     * Receives events of the pool (objects made, destroyed, failed validation, factory exceptions, etc.).
+     * AsyncPoolEventLogger.getDefault() is used if not set, which only writes errors.
+     */
+    private IPoolEventListener _eventListener = null;
+
+    /**
+     * Max number of threads which destroy objects in close(drainTimeout, unit).
+     */
+    private int _closeParallelism = 4;
+
+    /**
+     * Max number of threads which make the initial minIdle objects.
+     */
+    private int _warmUpParallelism = 1;
+
+    /**
+     * Whether or not the constructor returns before warm-up is finished. Borrowers are served as soon as the first
+     * objects are made, and the pool's readyFuture tells when all of them are.
+     */
+    private boolean _asyncWarmUp = false;
+
+    /**
+     * Runs the warm-up tasks (warmUpParallelism of them). Threads of the pool are used if not set.
+     */
+    private Executor _warmUpExecutor = null;
+
+    /**
+     * Number of consecutive failures of makeObject() which open the creation circuit breaker. While it is open,
+     * creation fails fast with CreationBreakerOpenException instead of calling the factory, and borrowers which would
+     * have to make one fail fast too (waiting ones only if no object is borrowed). 0 means no breaker.
+     */
+    private int _creationBreakerThreshold = 0;
+
+    /**
+     * Time the breaker stays open before one creation is tried as probe, doubled on each failed probe.
+     */
+    private long _creationBreakerOpenMillis = 1000L;
+
+    private long _creationBreakerMaxOpenMillis = 60 * 1000L;
+
+    /**
+     * Capacity reserved for each priority class of GenericObjPool.borrowObject(priority, ...), 0 is the highest one.
+     * A value >= 1 is a number of objects, and a value below 1 is a fraction of maxTotal.
+     * A borrower of class p only gets an object if the objects left (idle ones and free capacity) still cover
+     * the unused reservations of the classes above p. Waiting borrowers are served from the highest class.
+     * null means one class, and all borrowers compete on equal terms.
+     */
+    private double[] _priorityReservations = null;
+
     public String getPoolName() {
         return _poolName;
     }
@@ -28,6 +175,22 @@ public class BasePoolConfig {
         _poolName = poolName;
     }
 
+	public boolean isTestOnBorrow() {
+		return _testOnBorrow;
+	}
+
+	public void setTestOnBorrow(boolean testOnBorrow) {
+		_testOnBorrow = testOnBorrow;
+	}
+
+	public long getTestOnBorrowIdleMillis() {
+		return _testOnBorrowIdleMillis;
+	}
+
+	public void setTestOnBorrowIdleMillis(long testOnBorrowIdleMillis) {
+		_testOnBorrowIdleMillis = testOnBorrowIdleMillis;
+	}
+
     public int getMaxTotal() {
 		return _maxTotal;
 	}
@@ -61,14 +224,6 @@ public class BasePoolConfig {
 		_testOnCreate = testOnCreate;
 	}
 
-	public boolean isTestOnBorrow() {
-		return _testOnBorrow;
-	}
-
-	public void setTestOnBorrow(boolean testOnBorrow) {
-		_testOnBorrow = testOnBorrow;
-	}
-
 	public boolean isTestOnReturn() {
 		return _testOnReturn;
 	}
@@ -93,5 +248,238 @@ public class BasePoolConfig {
 	public void setTimeBetweenEvictionRunsMillis(long timeBetweenEvictionRunsMillis) {
 		_timeBetweenEvictionRunsMillis = timeBetweenEvictionRunsMillis;
 	}
+
+	public int getMaxWaiters() {
+		return _maxWaiters;
+	}
+
+	public void setMaxWaiters(int maxWaiters) {
+		_maxWaiters = maxWaiters;
+	}
+
+	public int getThreadLocalCacheSize() {
+		return _threadLocalCacheSize;
+	}
+
+	public void setThreadLocalCacheSize(int threadLocalCacheSize) {
+		_threadLocalCacheSize = threadLocalCacheSize;
+	}
+
+	public int getMaxCreateThreads() {
+		return _maxCreateThreads;
+	}
+
+	public void setMaxCreateThreads(int maxCreateThreads) {
+		_maxCreateThreads = maxCreateThreads;
+	}
+
+	public boolean isStatsEnabled() {
+		return _statsEnabled;
+	}
+
+	public void setStatsEnabled(boolean statsEnabled) {
+		_statsEnabled = statsEnabled;
+	}
+
+	public int getValidationParallelism() {
+		return _validationParallelism;
+	}
+
+	public void setValidationParallelism(int validationParallelism) {
+		_validationParallelism = validationParallelism;
+	}
+
+	public int getValidationBatchSize() {
+		return _validationBatchSize;
+	}
+
+	public void setValidationBatchSize(int validationBatchSize) {
+		_validationBatchSize = validationBatchSize;
+	}
+
+	public long getEvictionRunBudgetMillis() {
+		return _evictionRunBudgetMillis;
+	}
+
+	public void setEvictionRunBudgetMillis(long evictionRunBudgetMillis) {
+		_evictionRunBudgetMillis = evictionRunBudgetMillis;
+	}
+
+	public boolean isLifo() {
+		return _lifo;
+	}
+
+	public void setLifo(boolean lifo) {
+		_lifo = lifo;
+	}
+
+	public boolean isAdaptiveSizing() {
+		return _adaptiveSizing;
+	}
+
+	public void setAdaptiveSizing(boolean adaptiveSizing) {
+		_adaptiveSizing = adaptiveSizing;
+	}
+
+	public long getAdaptiveSizingIntervalMillis() {
+		return _adaptiveSizingIntervalMillis;
+	}
+
+	public void setAdaptiveSizingIntervalMillis(long adaptiveSizingIntervalMillis) {
+		_adaptiveSizingIntervalMillis = adaptiveSizingIntervalMillis;
+	}
+
+	public long getAbandonedTimeoutMillis() {
+		return _abandonedTimeoutMillis;
+	}
+
+	public void setAbandonedTimeoutMillis(long abandonedTimeoutMillis) {
+		_abandonedTimeoutMillis = abandonedTimeoutMillis;
+	}
+
+	public double getBorrowStackSampleRate() {
+		return _borrowStackSampleRate;
+	}
+
+	public void setBorrowStackSampleRate(double borrowStackSampleRate) {
+		_borrowStackSampleRate = borrowStackSampleRate;
+	}
+
+	public boolean isRemoveAbandoned() {
+		return _removeAbandoned;
+	}
+
+	public void setRemoveAbandoned(boolean removeAbandoned) {
+		_removeAbandoned = removeAbandoned;
+	}
+
+	public long getMaxLifetimeMillis() {
+		return _maxLifetimeMillis;
+	}
+
+	public void setMaxLifetimeMillis(long maxLifetimeMillis) {
+		_maxLifetimeMillis = maxLifetimeMillis;
+	}
+
+	public double getMaxLifetimeJitter() {
+		return _maxLifetimeJitter;
+	}
+
+	public void setMaxLifetimeJitter(double maxLifetimeJitter) {
+		_maxLifetimeJitter = maxLifetimeJitter;
+	}
+
+	public IPoolEventListener getEventListener() {
+		return (_eventListener == null)? AsyncPoolEventLogger.getDefault() : _eventListener;
+	}
+
+	public void setEventListener(IPoolEventListener eventListener) {
+		_eventListener = eventListener;
+	}
+
+	public int getCloseParallelism() {
+		return _closeParallelism;
+	}
+
+	public void setCloseParallelism(int closeParallelism) {
+		_closeParallelism = closeParallelism;
+	}
+
+	public int getWarmUpParallelism() {
+		return _warmUpParallelism;
+	}
+
+	public void setWarmUpParallelism(int warmUpParallelism) {
+		_warmUpParallelism = warmUpParallelism;
+	}
+
+	public boolean isAsyncWarmUp() {
+		return _asyncWarmUp;
+	}
+
+	public void setAsyncWarmUp(boolean asyncWarmUp) {
+		_asyncWarmUp = asyncWarmUp;
+	}
+
+	public Executor getWarmUpExecutor() {
+		return _warmUpExecutor;
+	}
+
+	public void setWarmUpExecutor(Executor warmUpExecutor) {
+		_warmUpExecutor = warmUpExecutor;
+	}
+
+	public int getCreationBreakerThreshold() {
+		return _creationBreakerThreshold;
+	}
+
+	public void setCreationBreakerThreshold(int creationBreakerThreshold) {
+		_creationBreakerThreshold = creationBreakerThreshold;
+	}
+
+	public long getCreationBreakerOpenMillis() {
+		return _creationBreakerOpenMillis;
+	}
+
+	public void setCreationBreakerOpenMillis(long creationBreakerOpenMillis) {
+		_creationBreakerOpenMillis = creationBreakerOpenMillis;
+	}
+
+	public long getCreationBreakerMaxOpenMillis() {
+		return _creationBreakerMaxOpenMillis;
+	}
+
+	public void setCreationBreakerMaxOpenMillis(long creationBreakerMaxOpenMillis) {
+		_creationBreakerMaxOpenMillis = creationBreakerMaxOpenMillis;
+	}
+
+	public double[] getPriorityReservations() {
+		return _priorityReservations;
+	}
+
+	public void setPriorityReservations(double... priorityReservations) {
+		_priorityReservations = priorityReservations;
+	}
+
+	/**
+	 * Copy of all fields, used to make the configs of sub pools (stripes or keys).
+	 */
+	BasePoolConfig copy() {
+		BasePoolConfig config = new BasePoolConfig();
+		config.setPoolName(_poolName);
+		config.setMaxTotal(_maxTotal);
+		config.setMaxIdle(_maxIdle);
+		config.setMinIdle(_minIdle);
+		config.setTestOnBorrow(_testOnBorrow);
+		config.setTestOnBorrowIdleMillis(_testOnBorrowIdleMillis);
+		config.setTestWhileIdle(_testWhileIdle);
+		config.setTimeBetweenEvictionRunsMillis(_timeBetweenEvictionRunsMillis);
+		config.setMaxWaiters(_maxWaiters);
+		config.setThreadLocalCacheSize(_threadLocalCacheSize);
+		config.setMaxCreateThreads(_maxCreateThreads);
+		config.setStatsEnabled(_statsEnabled);
+		config.setValidationParallelism(_validationParallelism);
+		config.setValidationBatchSize(_validationBatchSize);
+		config.setEvictionRunBudgetMillis(_evictionRunBudgetMillis);
+		config.setLifo(_lifo);
+		config.setAdaptiveSizing(_adaptiveSizing);
+		config.setAdaptiveSizingIntervalMillis(_adaptiveSizingIntervalMillis);
+		config.setAbandonedTimeoutMillis(_abandonedTimeoutMillis);
+		config.setBorrowStackSampleRate(_borrowStackSampleRate);
+		config.setRemoveAbandoned(_removeAbandoned);
+		config.setMaxLifetimeMillis(_maxLifetimeMillis);
+		config.setMaxLifetimeJitter(_maxLifetimeJitter);
+		config.setEventListener(_eventListener);
+		config.setCloseParallelism(_closeParallelism);
+		config.setWarmUpParallelism(_warmUpParallelism);
+		config.setAsyncWarmUp(_asyncWarmUp);
+		config.setWarmUpExecutor(_warmUpExecutor);
+		config.setCreationBreakerThreshold(_creationBreakerThreshold);
+		config.setCreationBreakerOpenMillis(_creationBreakerOpenMillis);
+		config.setCreationBreakerMaxOpenMillis(_creationBreakerMaxOpenMillis);
+		config.setPriorityReservations(_priorityReservations);
+
+		return config;
+	}
     
 }
@@ -1,10 +1,15 @@
 package simplepool.base;
 
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 import simplepool.base.abstracts.IPooledObj;
+import simplepool.base.abstracts.PooledObjState;
 
 public class BasePooledObj<T> implements IPooledObj<T> {
+	@SuppressWarnings("rawtypes")
+	private static final AtomicIntegerFieldUpdater<BasePooledObj> STATE_UPDATER =
+			AtomicIntegerFieldUpdater.newUpdater(BasePooledObj.class, "_state");
+	private static final PooledObjState[] STATES = PooledObjState.values();
 
 	private volatile T _obj;
 	
@@ -12,8 +17,14 @@ public class BasePooledObj<T> implements IPooledObj<T> {
 	private volatile long _lastBorrowTime;
 	private volatile long _lastReturnTime;
 	private volatile long _lastEvictionTestTime;
+	private volatile long _expireTime = Long.MAX_VALUE;
+	private volatile Throwable _borrowStack;
+	private volatile int _borrowPriority = 0;
 
-	private final AtomicBoolean _returned = new AtomicBoolean(true);
+	/**
+	 * Ordinal of PooledObjState, made by current thread so it starts as ALLOCATED
+	 */
+	private volatile int _state = PooledObjState.ALLOCATED.ordinal();
 	
 	public BasePooledObj(T obj) {
 		_createTime = System.currentTimeMillis();
@@ -59,6 +70,36 @@ public class BasePooledObj<T> implements IPooledObj<T> {
 		_lastEvictionTestTime = time;
 	}
 
+	@Override
+	public long getExpireTime() {
+		return _expireTime;
+	}
+
+	@Override
+	public void setExpireTime(long time) {
+		_expireTime = time;
+	}
+
+	@Override
+	public Throwable getBorrowStack() {
+		return _borrowStack;
+	}
+
+	@Override
+	public void setBorrowStack(Throwable borrowStack) {
+		_borrowStack = borrowStack;
+	}
+
+	@Override
+	public int getBorrowPriority() {
+		return _borrowPriority;
+	}
+
+	@Override
+	public void setBorrowPriority(int priority) {
+		_borrowPriority = priority;
+	}
+
 	@Override
 	public T getObject() {
 		return _obj;
@@ -70,13 +111,13 @@ public class BasePooledObj<T> implements IPooledObj<T> {
 	}
 
 	@Override
-	public boolean isReturned() {
-		return _returned.get();
+	public PooledObjState getState() {
+		return STATES[_state];
 	}
 
 	@Override
-	public boolean setReturned(boolean newVal) {
-		return _returned.compareAndSet(!newVal, newVal);
+	public boolean compareAndSetState(PooledObjState expect, PooledObjState update) {
+		return STATE_UPDATER.compareAndSet(this, expect.ordinal(), update.ordinal());
 	}
 
 	@Override
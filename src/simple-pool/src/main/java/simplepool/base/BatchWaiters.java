@@ -0,0 +1,90 @@
+package simplepool.base;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Borrowers of batches (see IObjPool.borrowObjects()), which wait until n objects could be taken at once instead of
+ * taking single ones. They are woken up when idle objects are added or capacity is released.
+ * <br>
+ * Shared by the stripes of StripedObjPool, same as SharedWaiters.
+ */
+final class BatchWaiters {
+
+    private final ReentrantLock _lock = new ReentrantLock();
+    private final Condition _changed = _lock.newCondition();
+
+    /**
+     * Counted before the waiter checks availability for the first time, so that no change is missed meanwhile
+     */
+    private final AtomicInteger _waiterCount = new AtomicInteger(0);
+
+    private volatile boolean _closed = false;
+
+    /**
+     * @return number of waiters including this one
+     */
+    public int beginWait() {
+        return _waiterCount.incrementAndGet();
+    }
+
+    public void endWait() {
+        _waiterCount.decrementAndGet();
+    }
+
+    /**
+     * Called after idle objects are added or capacity is released
+     */
+    public void signal() {
+        if(_waiterCount.get() > 0) {
+            signalAll();
+        }
+    }
+
+    /**
+     * Block until available returns true. Caller must be counted by beginWait().
+     * @param available checked again on each signal
+     * @return false if it is not available after timeout
+     * @throws RuntimeException if closing
+     */
+    public boolean await(BooleanSupplier available, long timeout, TimeUnit unit) throws InterruptedException {
+        long remainingNanos = unit.toNanos(timeout);
+        _lock.lock();
+        try {
+            while(true) {
+                if(_closed) {
+                    throw new RuntimeException("Pool is closing!");
+                }
+                if(available.getAsBoolean()) {
+                    return true;
+                }
+                if(remainingNanos <= 0) {
+                    return false;
+                }
+                remainingNanos = _changed.awaitNanos(remainingNanos);
+            }
+        } finally {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Wake up all waiters, the current ones and the ones waiting later.
+     */
+    public void close() {
+        _closed = true;
+        signalAll();
+    }
+
+    private void signalAll() {
+        _lock.lock();
+        try {
+            _changed.signalAll();
+        } finally {
+            _lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package simplepool.base;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs tasks on the worker threads shared by all pools (see PoolScheduler), at most maxParallelism of them at once.
+ * So each pool keeps its own limit (e.g. maxCreateThreads) without having threads of its own.
+ */
+final class BoundedExecutor implements Executor {
+
+    private final Executor _sharedExecutor;
+    private final int _maxParallelism;
+
+    private final ConcurrentLinkedQueue<Runnable> _taskQueue = new ConcurrentLinkedQueue<Runnable>();
+    private final AtomicInteger _runningCount = new AtomicInteger(0);
+    private volatile boolean _shutdown = false;
+
+    /**
+     * Submitted to the shared executor once for each slot of parallelism, and runs queued tasks until none is left
+     */
+    private final Runnable _drainTask = new Runnable() {
+        @Override
+        public void run() {
+            do {
+                Runnable task;
+                while(!_shutdown && (task = _taskQueue.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (Throwable e) {
+                        //tasks report their own errors, the shared thread goes on
+                    }
+                }
+                _runningCount.decrementAndGet();
+                //the one added after the poll above, whose submitter saw this slot still taken
+            } while(!_shutdown && !_taskQueue.isEmpty() && tryAcquire());
+        }
+    };
+
+    public BoundedExecutor(Executor sharedExecutor, int maxParallelism) {
+        _sharedExecutor = sharedExecutor;
+        _maxParallelism = Math.max(1, maxParallelism);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if(_shutdown) {
+            throw new RejectedExecutionException("Executor is shut down");
+        }
+
+        _taskQueue.add(task);
+        if(tryAcquire()) {
+            try {
+                _sharedExecutor.execute(_drainTask);
+            } catch (RejectedExecutionException e) {
+                _runningCount.decrementAndGet();
+                _taskQueue.remove(task);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Tasks not started yet are dropped, and the futures among them are cancelled.
+     * Running ones are not interrupted, since their threads are shared.
+     * @return tasks dropped
+     */
+    public List<Runnable> shutdownNow() {
+        _shutdown = true;
+
+        final List<Runnable> dropped = new ArrayList<Runnable>();
+        Runnable task;
+        while((task = _taskQueue.poll()) != null) {
+            if(task instanceof Future) {
+                ((Future<?>) task).cancel(false);
+            }
+            dropped.add(task);
+        }
+        return dropped;
+    }
+
+    public boolean isShutdown() {
+        return _shutdown;
+    }
+
+    private boolean tryAcquire() {
+        int cur;
+        while((cur = _runningCount.get()) < _maxParallelism) {
+            if(_runningCount.compareAndSet(cur, cur + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
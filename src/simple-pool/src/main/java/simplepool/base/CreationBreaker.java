@@ -0,0 +1,134 @@
+package simplepool.base;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import simplepool.base.abstracts.CreationBreakerState;
+
+/**
+ * Circuit breaker around IObjFactory.makeObject(), see CreationBreakerState.
+ * <br>
+ * After failureThreshold consecutive failures, creation is rejected for openMillis, doubled on each failed probe up to
+ * maxOpenMillis. When the backoff elapses, the first caller of tryAcquire() makes one object as probe.
+ * Creations which started before the breaker opened still count, a success of any of them closes it.
+ */
+final class CreationBreaker {
+
+    private final int _failureThreshold;
+    private final long _openNanos;
+    private final long _maxOpenNanos;
+
+    private final AtomicInteger _consecutiveFailures = new AtomicInteger(0);
+    private final AtomicReference<CreationBreakerState> _state =
+            new AtomicReference<CreationBreakerState>(CreationBreakerState.CLOSED);
+
+    /**
+     * Written before _state is set to OPEN, so that it is visible to whom sees OPEN
+     */
+    private volatile long _openUntilNanos;
+
+    /**
+     * Number of opens since last closed, the exponent of backoff. Only written by the thread which opens the breaker.
+     */
+    private volatile int _openCount = 0;
+
+    /**
+     * @return null if creationBreakerThreshold is 0 (disabled)
+     */
+    static CreationBreaker newIfEnabled(BasePoolConfig poolConfig) {
+        if(poolConfig.getCreationBreakerThreshold() <= 0) {
+            return null;
+        }
+
+        return new CreationBreaker(
+                poolConfig.getCreationBreakerThreshold(),
+                poolConfig.getCreationBreakerOpenMillis(),
+                poolConfig.getCreationBreakerMaxOpenMillis()
+        );
+    }
+
+    public CreationBreaker(int failureThreshold, long openMillis, long maxOpenMillis) {
+        _failureThreshold = failureThreshold;
+        _openNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, openMillis));
+        _maxOpenNanos = Math.max(_openNanos, TimeUnit.MILLISECONDS.toNanos(maxOpenMillis));
+    }
+
+    /**
+     * Called before each creation
+     * @return false if the creation should fail fast
+     */
+    public boolean tryAcquire() {
+        final CreationBreakerState state = _state.get();
+        if(state == CreationBreakerState.CLOSED) {
+            return true;
+        }
+
+        //only one caller wins the probe
+        return state == CreationBreakerState.OPEN
+                && System.nanoTime() - _openUntilNanos >= 0
+                && _state.compareAndSet(CreationBreakerState.OPEN, CreationBreakerState.HALF_OPEN);
+    }
+
+    /**
+     * Same as tryAcquire() but never takes the probe, used to skip background creation while open
+     */
+    public boolean isRejecting() {
+        final CreationBreakerState state = _state.get();
+        return state == CreationBreakerState.HALF_OPEN
+                || (state == CreationBreakerState.OPEN && System.nanoTime() - _openUntilNanos < 0);
+    }
+
+    /**
+     * @return true if this success closed the breaker
+     */
+    public boolean recordSuccess() {
+        if(_consecutiveFailures.get() != 0) {
+            _consecutiveFailures.set(0);
+        }
+
+        final CreationBreakerState state = _state.get();
+        if(state != CreationBreakerState.CLOSED && _state.compareAndSet(state, CreationBreakerState.CLOSED)) {
+            _openCount = 0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return backoff in millis if this failure opened the breaker, otherwise 0
+     */
+    public long recordFailure() {
+        final CreationBreakerState state = _state.get();
+        if(state == CreationBreakerState.HALF_OPEN) {
+            //probe failed
+            return open(CreationBreakerState.HALF_OPEN);
+        }
+
+        if(_consecutiveFailures.incrementAndGet() >= _failureThreshold && state == CreationBreakerState.CLOSED) {
+            return open(CreationBreakerState.CLOSED);
+        }
+        return 0;
+    }
+
+    public CreationBreakerState getState() {
+        return _state.get();
+    }
+
+    private long open(CreationBreakerState expectedState) {
+        final int openCount = _openCount;
+        long backoffNanos = _openNanos;
+        for(int i = 0; i < openCount && backoffNanos < _maxOpenNanos; i++) {
+            backoffNanos = (backoffNanos < _maxOpenNanos / 2)? backoffNanos << 1 : _maxOpenNanos;
+        }
+
+        _openUntilNanos = System.nanoTime() + backoffNanos;
+        if(!_state.compareAndSet(expectedState, CreationBreakerState.OPEN)) {
+            //opened or closed by others meanwhile
+            return 0;
+        }
+        _openCount = openCount + 1;
+        return TimeUnit.NANOSECONDS.toMillis(backoffNanos);
+    }
+
+}
@@ -0,0 +1,15 @@
+package simplepool.base;
+
+/**
+ * Thrown instead of calling IObjFactory.makeObject() while the creation circuit breaker is open,
+ * see BasePoolConfig.creationBreakerThreshold.
+ */
+public class CreationBreakerOpenException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public CreationBreakerOpenException(String poolName) {
+        super("Creation circuit breaker is open, pool:" + poolName);
+    }
+
+}
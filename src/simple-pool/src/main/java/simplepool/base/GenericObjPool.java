@@ -1,19 +1,50 @@
 package simplepool.base;
 
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Date;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 
+import javax.management.ObjectName;
+
+import simplepool.base.abstracts.CreationBreakerState;
+import simplepool.base.abstracts.IBatchObjFactory;
 import simplepool.base.abstracts.IObjFactory;
+import simplepool.base.abstracts.IObjLease;
 import simplepool.base.abstracts.IObjPool;
+import simplepool.base.abstracts.IPoolEventListener;
 import simplepool.base.abstracts.IPooledObj;
+import simplepool.base.abstracts.PoolCloseReport;
+import simplepool.base.abstracts.PoolEventType;
+import simplepool.base.abstracts.PooledObjState;
 
 public class GenericObjPool<T> implements IObjPool<T> {
 	static {
@@ -24,15 +55,47 @@ public class GenericObjPool<T> implements IObjPool<T> {
 				);
 	}
 	
+    /**
+     * Idle ring of huge pools is capped by this, so that it does not allocate too much memory up front.
+     */
+    private final static int MAX_IDLE_RING_CAPACITY = 1 << 16;
+
+    /**
+     * Interval of checking returned objects while draining in close(drainTimeout, unit)
+     */
+    private final static long DRAIN_CHECK_MILLIS = 10;
+
 	private final int _maxTotal;
 	private final int _maxIdle;
 	private final int _minIdle;
+    private final boolean _testOnBorrow;
+    private final long _testOnBorrowIdleMillis;
     private final boolean _testWhileIdle;
     private final long _timeBetweenEvictionRunsMillis;
+    private final int _maxWaiters;
+    private final int _threadLocalCacheSize;
+    private final int _validationParallelism;
+    private final int _validationBatchSize;
+    private final long _evictionRunBudgetMillis;
     private final int _initialSize;
+    private final long _abandonedTimeoutMillis;
+    private final double _borrowStackSampleRate;
+    private final boolean _removeAbandoned;
+    private final long _maxLifetimeMillis;
+    private final double _maxLifetimeJitter;
     
     
-    private final String _logMsgPrefix;
+    private final String _poolName;
+    private final IPoolEventListener _eventListener;
+    private final int _closeParallelism;
+    private final int _warmUpParallelism;
+    private final boolean _asyncWarmUp;
+    private final Executor _warmUpExecutor;
+
+    /**
+     * Completed when warm-up is finished
+     */
+    private final CompletableFuture<Void> _readyFuture = new CompletableFuture<Void>();
 
     private final IObjFactory<T> _objFactory;
 
@@ -40,13 +103,153 @@ public class GenericObjPool<T> implements IObjPool<T> {
 	private final AtomicInteger _activeCount = new AtomicInteger(0);
     private final AtomicInteger _totalCount = new AtomicInteger(0);
 
+    /**
+     * Shared with other pools (e.g. per-key pools of KeyedObjPool), null if this pool is used alone.
+     */
+    private final SharedCapacity _sharedCapacity;
+
+    /**
+     * Shared with other pools (e.g. stripes of StripedObjPool) whose borrowers wait for any of them,
+     * null if this pool is used alone.
+     */
+    private final SharedWaiters<T> _sharedWaiters;
+
+    /**
+     * Circuit breaker around makeObject(), null if disabled
+     */
+    private final CreationBreaker _creationBreaker;
+
+    /**
+     * Capacity reserved for each priority class, null if priorities are not configured (all borrows are of class 0)
+     */
+    private final int[] _reservedCounts;
+    private final AtomicIntegerArray _priorityActiveCounts;
+
+    /**
+     * Waiting threads of each priority class, returned objects are handed over to the highest class first
+     */
+    private final List<LinkedTransferQueue<IPooledObj<T>>> _priorityWaitQueues;
+    /**
+     * Counted before the waiter checks idle objects for the last time, see publishIdleObj()
+     */
+    private final AtomicIntegerArray _priorityWaiterCounts;
+    /**
+     * Async waiters of each priority class, used instead of _asyncWaiters if priorities are configured
+     */
+    private final List<ConcurrentLinkedQueue<CompletableFuture<T>>> _priorityAsyncWaiters;
+    private final AtomicInteger _waiterCount = new AtomicInteger(0);
+    private final AtomicInteger _asyncWaiterCount;
+    private final BatchWaiters _batchWaiters;
+    private final AtomicInteger _pendingCreateCount = new AtomicInteger(0);
+
     private final AtomicBoolean _closingFlg = new AtomicBoolean(false);
+
+    /**
+     * True while close(drainTimeout, unit) waits for borrowed objects, returning is still allowed.
+     */
+    private volatile boolean _draining = false;
+    private long _closeBeginMillis;
     private final AtomicBoolean _initFlg = new AtomicBoolean(false);
 
-    private final Queue<IPooledObj<T>> _idleQueue = new LinkedTransferQueue<IPooledObj<T>>();
-	private final Map<T, IPooledObj<T>> _allObjMap = new ConcurrentHashMap<T, IPooledObj<T>>();
+    /**
+     * Carries objects handed over to waiters, and the ones which do not fit in _idleRing.
+     */
+    private final LinkedTransferQueue<IPooledObj<T>> _idleQueue = new LinkedTransferQueue<IPooledObj<T>>();
+
+    /**
+     * Idle objects in FIFO mode (null in LIFO mode). It is preallocated by maxTotal, so that returning needs
+     * no allocation. Only stale entries (see stealOfThreadLocalCaches()) could make it full.
+     */
+    private final IdleRingBuffer<IPooledObj<T>> _idleRing;
+
+    /**
+     * Idle objects in LIFO mode (null in FIFO mode).
+     * Head is the most recently returned object, and eviction takes the coldest ones from the tail.
+     */
+    private final ConcurrentLinkedDeque<IPooledObj<T>> _idleStack;
+    private final ConcurrentLinkedQueue<CompletableFuture<T>> _asyncWaiters;
+	private final ConcurrentHashMap<T, IPooledObj<T>> _allObjMap = new ConcurrentHashMap<T, IPooledObj<T>>();
+
+    /**
+     * Objects returned recently by current thread, and the ones borrowed of them (see ThreadLocalCache).
+     * Entries are only hints, they could have been claimed by other threads already.
+     */
+    private final ThreadLocal<ThreadLocalCache<T>> _threadLocalCache;
+
+    /**
+     * Changes of idle and active counts made while thread local cache is enabled. Striped, so that threads reusing
+     * their own objects share no counter. Read by getIdleCount() and getActiveCount(), null if the cache is disabled.
+     * <br>
+     * The idle delta is also the number of entries in all thread local caches, stealOfThreadLocalCaches() is skipped
+     * when it is 0.
+     */
+    private final LongAdder _threadLocalIdleDelta;
+    private final LongAdder _threadLocalActiveDelta;
+
+    /**
+     * All objects of the pool, scanned by stealOfThreadLocalCaches(). Null if thread local cache is disabled.
+     */
+    private final ObjSlots<IPooledObj<T>> _objSlots;
+
+    /**
+     * Handed over to waiting borrowers when pool is closing, so that they need not to wait until timeout.
+     */
+    private final IPooledObj<T> _closingSignal = new BasePooledObj<T>(null);
 	
-	private TestThread _testThread = null;
+    /**
+     * Eviction test of all pools runs on the threads of PoolScheduler
+     */
+	private volatile ScheduledFuture<?> _evictionTaskFuture = null;
+
+    /**
+     * null if BasePoolConfig.adaptiveSizing is false
+     */
+    private final AdaptiveSizer _adaptiveSizer;
+    private final long _adaptiveSizingIntervalMillis;
+	private volatile ScheduledFuture<?> _adaptiveSizingTaskFuture = null;
+
+    /**
+     * Abandoned objects reported by the last check and when they were borrowed, so that each borrow is reported once.
+     * Only accessed by the abandoned check task.
+     */
+    private Map<IPooledObj<T>, Long> _reportedAbandonedObjs = new IdentityHashMap<IPooledObj<T>, Long>();
+	private volatile ScheduledFuture<?> _abandonedCheckTaskFuture = null;
+	private volatile ScheduledFuture<?> _expiryCheckTaskFuture = null;
+
+    /**
+     * Runs eviction and validation (validationParallelism tasks at once), so that slow validation never blocks
+     * the threads of PoolScheduler. Worker threads are shared by all pools.
+     */
+    private final BoundedExecutor _validatorExecutor;
+
+    /**
+     * null if BasePoolConfig.statsEnabled is false
+     */
+    private final PoolStats _stats;
+    private final ObjectName _statsMBeanName;
+
+    /**
+     * Makes objects in background (maxCreateThreads tasks at once), capacity (_totalCount) is reserved before tasks
+     * are submitted. Worker threads are shared by all pools.
+     */
+    private final BoundedExecutor _creatorExecutor;
+    private final Runnable _createTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                IPooledObj<T> t = makeNewObjButNotAddToIdle();
+                if(t != null) {
+                    enqueueOfIdle(t);
+                }
+            } catch (CreationBreakerOpenException e) {
+                //failed fast
+            } catch (Throwable e) {
+                fireEvent(PoolEventType.FACTORY_EXCEPTION, null, "makeObject", e);
+            } finally {
+                _pendingCreateCount.decrementAndGet();
+            }
+        }
+    };
 
     /**
      *
@@ -58,355 +261,2627 @@ public class GenericObjPool<T> implements IObjPool<T> {
 			BasePoolConfig poolConfig,
 			IObjFactory<T> objFactory
 	) {
+		this(poolConfig, objFactory, null, null, CreationBreaker.newIfEnabled(poolConfig), null);
+	}
+
+	/**
+	 * @param sharedCapacity reserved together with maxTotal of this pool before making objects, null if not shared.
+	 * @param sharedWaiters idle objects are handed over to them if this pool has no waiter, null if not shared.
+	 * @param creationBreaker may be shared with other pools (e.g. stripes of StripedObjPool), null if disabled.
+	 * @param sharedStats registered by the owner of this pool (e.g. StripedObjPool), null if not shared.
+	 */
+	GenericObjPool(
+			BasePoolConfig poolConfig,
+			IObjFactory<T> objFactory,
+			SharedCapacity sharedCapacity,
+			SharedWaiters<T> sharedWaiters,
+			CreationBreaker creationBreaker,
+			PoolStats sharedStats
+	) {
+        _sharedCapacity = sharedCapacity;
+        _sharedWaiters = sharedWaiters;
+        if(sharedWaiters != null) {
+            _asyncWaiters = sharedWaiters.getAsyncWaiters();
+            _asyncWaiterCount = sharedWaiters.getAsyncWaiterCount();
+            _batchWaiters = sharedWaiters.getBatchWaiters();
+        } else {
+            _asyncWaiters = new ConcurrentLinkedQueue<CompletableFuture<T>>();
+            _asyncWaiterCount = new AtomicInteger(0);
+            _batchWaiters = new BatchWaiters();
+        }
+        _creationBreaker = creationBreaker;
         _maxTotal = poolConfig.getMaxTotal();
+        final double[] reservations = poolConfig.getPriorityReservations();
+        if(reservations != null && reservations.length > 0) {
+            _reservedCounts = new int[reservations.length];
+            _priorityWaitQueues = new ArrayList<LinkedTransferQueue<IPooledObj<T>>>(reservations.length);
+            _priorityAsyncWaiters = new ArrayList<ConcurrentLinkedQueue<CompletableFuture<T>>>(reservations.length);
+            for(int i = 0; i < reservations.length; i++) {
+                _reservedCounts[i] = (reservations[i] >= 1)?
+                        (int) reservations[i] : (int) Math.ceil(Math.max(0, reservations[i]) * _maxTotal);
+                _priorityWaitQueues.add(new LinkedTransferQueue<IPooledObj<T>>());
+                _priorityAsyncWaiters.add(new ConcurrentLinkedQueue<CompletableFuture<T>>());
+            }
+            _priorityActiveCounts = new AtomicIntegerArray(reservations.length);
+            _priorityWaiterCounts = new AtomicIntegerArray(reservations.length);
+        } else {
+            _reservedCounts = null;
+            _priorityWaitQueues = null;
+            _priorityActiveCounts = null;
+            _priorityWaiterCounts = null;
+            _priorityAsyncWaiters = null;
+        }
         _maxIdle = poolConfig.getMaxIdle();
         _minIdle = poolConfig.getMinIdle();
+        _testOnBorrow = poolConfig.isTestOnBorrow();
+        _testOnBorrowIdleMillis = poolConfig.getTestOnBorrowIdleMillis();
         _testWhileIdle = poolConfig.isTestWhileIdle();
         _timeBetweenEvictionRunsMillis = poolConfig.getTimeBetweenEvictionRunsMillis();
+        _maxWaiters = poolConfig.getMaxWaiters();
+        _threadLocalCacheSize = poolConfig.getThreadLocalCacheSize();
+        _validationParallelism = Math.max(1, poolConfig.getValidationParallelism());
+        _validationBatchSize = Math.max(1, poolConfig.getValidationBatchSize());
+        _evictionRunBudgetMillis = poolConfig.getEvictionRunBudgetMillis();
+        if(poolConfig.isLifo()) {
+            _idleRing = null;
+            _idleStack = new ConcurrentLinkedDeque<IPooledObj<T>>();
+        } else {
+            //capped for huge maxTotal, the rest go to _idleQueue
+            _idleRing = new IdleRingBuffer<IPooledObj<T>>(Math.min(_maxTotal, MAX_IDLE_RING_CAPACITY));
+            _idleStack = null;
+        }
         
         _initialSize = _minIdle;
+        _adaptiveSizer = poolConfig.isAdaptiveSizing()? new AdaptiveSizer(_minIdle, _maxIdle) : null;
+        _adaptiveSizingIntervalMillis = poolConfig.getAdaptiveSizingIntervalMillis();
+        _abandonedTimeoutMillis = poolConfig.getAbandonedTimeoutMillis();
+        _borrowStackSampleRate = poolConfig.getBorrowStackSampleRate();
+        _removeAbandoned = poolConfig.isRemoveAbandoned();
+        _maxLifetimeMillis = poolConfig.getMaxLifetimeMillis();
+        _maxLifetimeJitter = Math.max(0, Math.min(1, poolConfig.getMaxLifetimeJitter()));
 
         _objFactory = objFactory;
+
+        _creatorExecutor = PoolScheduler.newBoundedExecutor(poolConfig.getMaxCreateThreads());
+        _validatorExecutor = PoolScheduler.newBoundedExecutor(_validationParallelism);
+
+        if(_threadLocalCacheSize > 0) {
+            _threadLocalCache = new ThreadLocal<ThreadLocalCache<T>>() {
+                @Override
+                protected ThreadLocalCache<T> initialValue() {
+                    return new ThreadLocalCache<T>(_threadLocalCacheSize);
+                }
+            };
+            _threadLocalIdleDelta = new LongAdder();
+            _threadLocalActiveDelta = new LongAdder();
+            _objSlots = new ObjSlots<IPooledObj<T>>(_maxTotal);
+        } else {
+            _threadLocalCache = null;
+            _threadLocalIdleDelta = null;
+            _threadLocalActiveDelta = null;
+            _objSlots = null;
+        }
         
-        _logMsgPrefix = GenericObjPool.class.getName() 
-        		+ "["
-        		+ ((poolConfig.getPoolName() == null || poolConfig.getPoolName().length() == 0)? "" : " poolName:" + poolConfig.getPoolName()) 
-        		+ " factory:" + objFactory.getClass().getName() 
-        		+ "] "
-        		;
+        _poolName = (poolConfig.getPoolName() == null)? "" : poolConfig.getPoolName();
+        _eventListener = poolConfig.getEventListener();
+        _closeParallelism = Math.max(1, poolConfig.getCloseParallelism());
+        _warmUpParallelism = Math.max(1, poolConfig.getWarmUpParallelism());
+        _asyncWarmUp = poolConfig.isAsyncWarmUp();
+        _warmUpExecutor = poolConfig.getWarmUpExecutor();
+
+        if(sharedStats != null) {
+            _stats = sharedStats;
+        } else if(poolConfig.isStatsEnabled()) {
+            _stats = new PoolStats(
+                    _poolName, this::getNumIdle, this::getNumActive, this::getNumWaiters, this::getCreationBreakerState
+            );
+        } else {
+            _stats = null;
+        }
 
         //init pool
         initPool();
+
+        //registered last, so that the MBean never reads a pool under construction
+        _statsMBeanName = (_stats != null && sharedStats == null)? registerStatsMBean() : null;
 	}
 
 	@Override
 	public T borrowObject() {
-		assertNotClosing();
-		
-		IPooledObj<T> t = dequeueOfIdle();
+		IPooledObj<T> t;
+		try {
+			t = borrowPooledObj(false, 0, null, 0);
+		} catch (InterruptedException e) {
+			//never happens without waiting
+			return null;
+		}
 		if(t == null) {
-            if(_totalCount.get() < _maxTotal) {
-                //make new one
-                t = makeNewObjButNotAddToIdle();
-                if(t == null) {
-                    return null;
-                } else {
-                    //will do operations below
-                }
-            } else {
-                return null;
-            }
+			return null;
 		}
 
-        //update state
-        boolean stateUpdated = t.setReturned(false);
-        if(stateUpdated) {
-            t.setLastBorrowTime(System.currentTimeMillis());
-
-            try {
-                _objFactory.activateObject(t.getObject());
-            } catch (Throwable e) {
-                e.printStackTrace();
-            }
-
-            _activeCount.incrementAndGet();
-            return t.getObject();
-        } else {
-        	logErr("Unexpected error occurred. State of object polled from idleQueue is (not returned)");
-            return null;
-        }
+		return activateBorrowedObj(t);
 	}
 
 	@Override
-	public void returnObject(T obj) {
-		assertNotClosing();
+	public T borrowObject(long timeout, TimeUnit unit) throws InterruptedException {
+		IPooledObj<T> t = borrowPooledObj(true, timeout, unit, 0);
+		if(t == null) {
+			return null;
+		}
 
-		IPooledObj<T> t = _allObjMap.get(obj);
-		if(t != null) {
-			boolean stateUpdated = t.setReturned(true);
-			if(stateUpdated) {
-                t.setLastReturnTime(System.currentTimeMillis());
+		return activateBorrowedObj(t);
+	}
 
-                try {
-                    _objFactory.passivateObject(t.getObject());
-                } catch (Throwable e) {
-                    e.printStackTrace();
-                }
-                
-                enqueueOfIdle(t);
-                _activeCount.decrementAndGet();
-			}
+	/**
+	 * Same as borrowObject(), tagged with a priority class (see BasePoolConfig.priorityReservations).
+	 * Borrows without priority are of class 0, the highest one.
+	 * @param priority 0 to (number of priorityReservations - 1)
+	 * @return null if there is no idle object, or the ones left are reserved for higher classes.
+	 */
+	public T borrowObject(int priority) {
+		checkPriority(priority);
+
+		IPooledObj<T> t;
+		try {
+			t = borrowPooledObj(false, 0, null, priority);
+		} catch (InterruptedException e) {
+			//never happens without waiting
+			return null;
 		}
+		if(t == null) {
+			return null;
+		}
+
+		return activateBorrowedObj(t);
 	}
 
-	@Override
-	public void invalidateObject(T obj) {
-		assertNotClosing();
+	/**
+	 * Same as borrowObject(timeout, unit), tagged with a priority class (see BasePoolConfig.priorityReservations).
+	 * Returned objects are handed over to the waiters of the highest class first.
+	 * @param priority 0 to (number of priorityReservations - 1)
+	 */
+	public T borrowObject(int priority, long timeout, TimeUnit unit) throws InterruptedException {
+		checkPriority(priority);
+
+		IPooledObj<T> t = borrowPooledObj(true, timeout, unit, priority);
+		if(t == null) {
+			return null;
+		}
 
-        removeAndDestroyObj(obj);
+		return activateBorrowedObj(t);
 	}
 
-	@Override
-	public int getNumIdle() {
-		return _idleCount.get();
+	private void checkPriority(int priority) {
+		if(priority < 0 || priority >= ((_reservedCounts == null)? 1 : _reservedCounts.length)) {
+			throw new IllegalArgumentException("Priority out of range:" + priority);
+		}
 	}
 
 	@Override
-	public int getNumActive() {
-		return _activeCount.get();
-        //return _totalCount.get() - _idleCount.get();
+	public IObjLease<T> borrowLease() {
+		IPooledObj<T> t;
+		try {
+			t = borrowPooledObj(false, 0, null, 0);
+		} catch (InterruptedException e) {
+			//never happens without waiting
+			return null;
+		}
+		if(t == null) {
+			return null;
+		}
+
+		return activateBorrowedLease(t);
 	}
 
 	@Override
-	public void close() {
-        if(_closingFlg.compareAndSet(false, true)) {
-            releaseAllObjs();
-        }
-	}
+	public IObjLease<T> borrowLease(long timeout, TimeUnit unit) throws InterruptedException {
+		IPooledObj<T> t = borrowPooledObj(true, timeout, unit, 0);
+		if(t == null) {
+			return null;
+		}
 
-    private void releaseAllObjs() {
-        //stop test thread
-    	try {
-        	stopObjTestThread();
-    	} catch (Throwable e) {
-    		e.printStackTrace();
-    	}
+		return activateBorrowedLease(t);
+	}
 
-        //clear idle queue
-    	try {
-            _idleQueue.clear();
-    	} catch (Throwable e) {
-    		e.printStackTrace();
-    	}
+	@Override
+	public List<T> borrowObjects(int n, long timeout, TimeUnit unit) throws InterruptedException {
+		return borrowObjects(0, n, timeout, unit);
+	}
 
-    	//destroy all
-    	try {
-            Collection<IPooledObj<T>> pooledObjList = _allObjMap.values();
-            for (IPooledObj<T> pooledObj : pooledObjList) {
-                try {
-                    _objFactory.destroyObject(pooledObj.getObject());
-                } catch (Throwable e) {
-                    e.printStackTrace();
-                }
-            }
-    	} catch (Throwable e) {
-    		e.printStackTrace();
-    	}
-        
-    	//clear all obj
-        _allObjMap.clear();
-        
-        //clear counters
-        _idleCount.set(0);
-        _activeCount.set(0);
-        _totalCount.set(0);
-    }
+	/**
+	 * Same as borrowObjects(n, timeout, unit), tagged with a priority class (see BasePoolConfig.priorityReservations).
+	 * The batch is only taken if the objects left after it still cover the reservations of higher classes.
+	 * @param priority 0 to (number of priorityReservations - 1)
+	 */
+	public List<T> borrowObjects(int priority, int n, long timeout, TimeUnit unit) throws InterruptedException {
+		checkPriority(priority);
+		assertNotClosing();
 
-    private void initPool() {
-    	if(!_initFlg.compareAndSet(false, true)) {
-    		return;
-    	}
-    	
-    	//create test thread
-    	if(_testWhileIdle) {
-    		startObjTestThread();
-    	}
-    	
-    	//make objects of initial size
-    	for(int i = 0; i < _initialSize; i++) {
-    		try {
-                makeNewObjAndAddToIdle();
-    		} catch (Throwable e) {
-    			e.printStackTrace();
-    		}
-    	}
-    }
+		if(n <= 0) {
+			return new ArrayList<T>(0);
+		}
+		if(n > _maxTotal) {
+			return null;
+		}
 
-    private void makeNewObjAndAddToIdle() {
-        IPooledObj<T> t = makeNewObjButNotAddToIdle();
-        if(t != null) {
-            enqueueOfIdle(t);
-        }
-    }
+		final long beginNanos = System.nanoTime();
+		final long deadline = beginNanos + unit.toNanos(timeout);
+		final List<IPooledObj<T>> ts = new ArrayList<IPooledObj<T>>(n);
+		boolean waiting = false;
+		try {
+			while(true) {
+				if(isAdmitted(priority, n)) {
+					takePooledObjs(ts, n);
+				}
+				if(ts.size() == n) {
+					if(_stats != null) {
+						final long waitNanos = System.nanoTime() - beginNanos;
+						for(int i = 0; i < n; i++) {
+							_stats.recordBorrow(waitNanos);
+						}
+					}
+					for(IPooledObj<T> borrowed : ts) {
+						//counted by activateObj()
+						borrowed.setBorrowPriority(priority);
+					}
+					return activateBorrowedObjs(ts);
+				}
 
-    private IPooledObj<T> makeNewObjButNotAddToIdle() {
-        T obj = _objFactory.makeObject();
-        IPooledObj<T> t = makePooledObj(obj);
+				//give all back while waiting, holding a part of them might block other borrowers of batches
+				putBackPooledObjs(ts);
+				if(!waiting) {
+					//one miss for the whole wait
+					if(_stats != null) {
+						_stats.recordBorrowMiss();
+					}
+					fireEvent(PoolEventType.BORROW_MISS, null, null, null);
 
-        if(_allObjMap.put(obj, t) == null) {
-            _totalCount.incrementAndGet();
+					waiting = true;
+					if(_batchWaiters.beginWait() + _waiterCount.get() + _asyncWaiterCount.get() > _maxWaiters) {
+						break;
+					}
+				}
 
-            return t;
-        } else {
-        	logErr("Unexpected error occurred. _objFactory.makeObject() should never make new one same as the old one.");
-            return null;
-        }
-    }
+				//wake up only when n objects could be taken, not on each single one returned
+				if(!_batchWaiters.await(
+						() -> getAvailableCount() >= n && isAdmitted(priority, n),
+						deadline - System.nanoTime(), TimeUnit.NANOSECONDS
+				)) {
+					break;
+				}
+			}
+		} finally {
+			if(waiting) {
+				_batchWaiters.endWait();
+			}
+		}
 
-    private void removeAndDestroyObj(T obj) {
-        //remove from allObjMap
-        if(_allObjMap.remove(obj) != null) {
-            //_activeCount.decrementAndGet();
-            _totalCount.decrementAndGet();
-        }
+		if(_stats != null) {
+			_stats.recordBorrowNull();
+		}
+		return null;
+	}
 
-        //destroy obj
-        if(obj != null) {
-            try {
-                _objFactory.destroyObject(obj);
-            } catch (Throwable e) {
-                e.printStackTrace();
-            }
-        }
-    }
+	/**
+	 * @param wait
+	 *      false:  make new one on current thread if there is no idle object
+	 *      <br>
+	 *      true:   make new one in background if there is no idle object, and wait for it or any returned one.
+	 * @param priority always 0 if priorities are not configured
+	 */
+	private IPooledObj<T> borrowPooledObj(
+			boolean wait, long timeout, TimeUnit unit, int priority
+	) throws InterruptedException {
+		assertNotClosing();
 
-    private void assertNotClosing() {
-        if(_closingFlg.get()) {
-            throw new RuntimeException("Pool is closing!");
-        }
-    }
+		final long beginNanos = (_stats != null)? System.nanoTime() : 0;
 
-    private IPooledObj<T> dequeueOfIdle() {
-        IPooledObj<T> t = _idleQueue.poll();
-        if(t != null) {
-            _idleCount.decrementAndGet();
-        }
+		IPooledObj<T> t = isAdmitted(priority)? dequeueOfIdleAny() : null;
+		if(t == null) {
+			if(_stats != null) {
+				_stats.recordBorrowMiss();
+			}
+			fireEvent(PoolEventType.BORROW_MISS, null, null, null);
 
-        return t;
-    }
+			if(wait) {
+				t = (_priorityWaitQueues != null)?
+						waitByPriority(priority, timeout, unit) : waitForNewOrReturnedObj(timeout, unit);
+			} else if(isAdmitted(priority)) {
+				t = makeNewObjIfNotFull();
+			}
+		}
+		if(t != null) {
+			//counted by activateObj()
+			t.setBorrowPriority(priority);
+		}
 
-    private void enqueueOfIdle(IPooledObj<T> t) {
-        _idleQueue.add(t);
-        _idleCount.incrementAndGet();
-    }
+		if(_stats != null) {
+			if(t == null) {
+				_stats.recordBorrowNull();
+			} else {
+				_stats.recordBorrow(System.nanoTime() - beginNanos);
+			}
+		}
+		return t;
+	}
 
-    private void startObjTestThread() {
-    	_testThread = new TestThread();
-    	_testThread.start();
-    }
-    
-    private void stopObjTestThread() {
-    	if(_testThread != null) {
-    		_testThread.shutdown();
-    	}
-    }
-    
-    private IPooledObj<T> makePooledObj(T obj) {
-    	return new BasePooledObj<T>(obj);
-    }
+	@Override
+	public CompletableFuture<T> borrowAsync() {
+		return borrowAsync(0, null);
+	}
 
-    private class TestThread extends Thread {
-        private final float _maxRatioInEviction = 0.25f;
+	@Override
+	public CompletableFuture<T> borrowAsync(long timeout, TimeUnit unit) {
+		return borrowAsync(0, timeout, unit);
+	}
 
-        private volatile boolean _stopFlg = false;
-    	private final LinkedTransferQueue<IPooledObj<T>> _testQueue = new LinkedTransferQueue<IPooledObj<T>>();
+	/**
+	 * Same as borrowAsync(timeout, unit), tagged with a priority class (see BasePoolConfig.priorityReservations).
+	 * Objects returned are handed over to the waiters (threads and futures) of the highest class first.
+	 * @param priority 0 to (number of priorityReservations - 1)
+	 * @param unit null if it never times out
+	 */
+	public CompletableFuture<T> borrowAsync(int priority, long timeout, TimeUnit unit) {
+		checkPriority(priority);
+		assertNotClosing();
 
-    	public void shutdown() {
-            _stopFlg = true;
+		final long beginNanos = (_stats != null)? System.nanoTime() : 0;
 
-			this.interrupt();
+		IPooledObj<T> t = isAdmitted(priority)? dequeueOfIdleAny() : null;
+		if(t != null) {
+			if(_stats != null) {
+				_stats.recordBorrow(System.nanoTime() - beginNanos);
+			}
+			//counted by activateObj()
+			t.setBorrowPriority(priority);
+			return CompletableFuture.completedFuture(activateBorrowedObj(t));
+		}
 
-            _testQueue.clear();
-    	}
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+		fireEvent(PoolEventType.BORROW_MISS, null, null, null);
+		if(_stats != null) {
+			_stats.recordBorrowMiss();
+			future.whenComplete((obj, e) -> {
+				if(e == null) {
+					_stats.recordBorrow(System.nanoTime() - beginNanos);
+				} else {
+					_stats.recordBorrowNull();
+				}
+			});
+		}
+		if(isCreationFailingFast() && getActiveCount() == 0) {
+			//nothing to be returned either
+			future.completeExceptionally(new CreationBreakerOpenException(_poolName));
+			return future;
+		}
+		if(_asyncWaiterCount.incrementAndGet() + _waiterCount.get() > _maxWaiters) {
+			_asyncWaiterCount.decrementAndGet();
+			future.completeExceptionally(new RejectedExecutionException("Too many waiters"));
+			return future;
+		}
+		final ConcurrentLinkedQueue<CompletableFuture<T>> asyncWaiters =
+				(_priorityAsyncWaiters != null)? _priorityAsyncWaiters.get(priority) : _asyncWaiters;
+		asyncWaiters.add(future);
+		if(isAdmitted(priority)) {
+			//the new one is handed over to the longest waiter, not necessarily this one
+			makeNewObjInBackground();
+		}
+
+		if(unit != null) {
+			final ScheduledFuture<?> timeoutTask = PoolScheduler.schedule(
+					() -> future.completeExceptionally(new TimeoutException()),
+					timeout, unit
+			);
+			future.whenComplete((obj, e) -> timeoutTask.cancel(false));
+		}
+		future.whenComplete((obj, e) -> {
+			//cancelled or timeout
+			if(e != null && asyncWaiters.remove(future)) {
+				_asyncWaiterCount.decrementAndGet();
+			}
+		});
+
+		//object returned before this future was added
+		completeAsyncWaiters();
+		return future;
+	}
+
+	/**
+	 * Hand over idle objects to async waiters, the one who waits longest first.
+	 * Also called by StripedObjPool, whose async waiters are shared by the stripes.
+	 */
+	void completeAsyncWaiters() {
+		if(_priorityAsyncWaiters == null) {
+			completeAsyncWaiters(_asyncWaiters, 0);
+			return;
+		}
+
+		for(int i = 0; i < _priorityAsyncWaiters.size(); i++) {
+			//lower classes take what is left
+			if(!completeAsyncWaiters(_priorityAsyncWaiters.get(i), i)) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return false if there are no more idle objects, or the ones left are not admitted to the class
+	 * (nor to lower classes)
+	 */
+	private boolean completeAsyncWaiters(ConcurrentLinkedQueue<CompletableFuture<T>> asyncWaiters, int priority) {
+		IPooledObj<T> t;
+		CompletableFuture<T> future;
+		while(!asyncWaiters.isEmpty()) {
+			if(!isAdmitted(priority)) {
+				return false;
+			}
+			t = dequeueOfIdleAny();
+			if(t == null) {
+				return false;
+			}
+
+			while(true) {
+				future = asyncWaiters.poll();
+				if(future == null) {
+					//taken over by others
+					addToIdle(t, PooledObjState.ALLOCATED, false);
+					return true;
+				}
+				_asyncWaiterCount.decrementAndGet();
+
+				if(!future.isDone()) {
+					break;
+				}
+			}
+
+			//counted by activateObj()
+			t.setBorrowPriority(priority);
+			if(!future.complete(activateBorrowedObj(t))) {
+				//cancelled just now
+				returnPooledObj(t);
+			}
+		}
+		return true;
+	}
+
+	/******************** methods below are used by StripedObjPool and KeyedObjPool ********************/
+
+	/**
+	 * Same as borrowObject(), but never make new one.
+	 */
+	IPooledObj<T> borrowIdlePooledObj() {
+		assertNotClosing();
+
+		return dequeueOfIdleAny();
+	}
+
+	/**
+	 * Make new one if total count is less than maxTotal, ignoring the idle ones.
+	 */
+	IPooledObj<T> borrowNewPooledObj() {
+		assertNotClosing();
+
+		return makeNewObjIfNotFull();
+	}
+
+	IPooledObj<T> waitForReturnedPooledObj(long timeout, TimeUnit unit) throws InterruptedException {
+		assertNotClosing();
+
+		return waitForReturnedObj(timeout, unit);
+	}
+
+	/**
+	 * Claim the one handed over by SharedWaiters
+	 * @param t idle one of this pool
+	 * @return null if it is taken by others, or expired or failed in testOnBorrow
+	 */
+	IPooledObj<T> claimHandedOverPooledObj(IPooledObj<T> t) {
+		return (claimIdleObj(t) && !retireIfExpired(t) && testOnBorrow(t))? t : null;
+	}
+
+	/**
+	 * @return false if the pool is full
+	 */
+	boolean requestNewObjInBackground() {
+		assertNotClosing();
+
+		return makeNewObjInBackground();
+	}
+
+	IObjLease<T> activateBorrowedLease(IPooledObj<T> t) {
+		activateBorrowedObj(t);
+		return new ObjLease<T>(this, t);
+	}
+
+	/**
+	 * @return false if obj does not belong to this pool
+	 */
+	boolean tryReturnObject(T obj) {
+		assertNotClosed();
+
+		IPooledObj<T> t = _allObjMap.get(obj);
+		if(t == null) {
+			return false;
+		}
+
+		returnPooledObj(t);
+		return true;
+	}
+
+	/**
+	 * @return false if obj does not belong to this pool
+	 */
+	boolean tryInvalidateObject(T obj) {
+		if(!_allObjMap.containsKey(obj)) {
+			return false;
+		}
+
+		invalidateObject(obj);
+		return true;
+	}
+
+	/**
+	 * Used by KeyedObjPool to free shared capacity for other pools, and by adaptive sizing to shrink.
+	 * @return false if there is no idle object in the shared queue
+	 */
+	boolean destroyIdleObj() {
+		IPooledObj<T> t = null;
+		if(_idleStack != null) {
+			//the coldest one in LIFO mode
+			while((t = _idleStack.pollLast()) != null) {
+				if(claimIdleObj(t, PooledObjState.EVICTED)) {
+					break;
+				}
+			}
+		}
+		if(t == null) {
+			t = dequeueOfIdle(PooledObjState.EVICTED);
+		}
+		if(t == null) {
+			return false;
+		}
+
+		removeAndDestroyObj(t.getObject());
+		return true;
+	}
+
+	/**
+	 * Take idle objects, and make new ones on current thread if there are not enough, until ts has n objects
+	 * or the pool runs out. Counters are updated once for the objects taken.
+	 * @param ts objects claimed by current thread, all of them are put back if exception is thrown
+	 */
+	void takePooledObjs(List<IPooledObj<T>> ts, int n) {
+		assertNotClosing();
+
+		claimIdleObjs(ts, n);
+
+		IPooledObj<T> t;
+		if(ts.size() < n && _threadLocalCache != null) {
+			while(ts.size() < n && (t = stealOfThreadLocalCaches()) != null) {
+				if(!retireIfExpired(t) && testOnBorrow(t)) {
+					ts.add(t);
+				}
+			}
+		}
+
+		if(ts.size() < n) {
+			final int reserved = reserveCapacity(n - ts.size());
+			for(int i = 0; i < reserved; i++) {
+				t = null;
+				boolean succeeded = false;
+				try {
+					t = makeNewObjButNotAddToIdle();
+					succeeded = true;
+				} finally {
+					if(!succeeded) {
+						//reservation of the failed one is released already
+						releaseCapacity(reserved - i - 1);
+						putBackPooledObjs(ts);
+					}
+				}
+				if(t != null) {
+					ts.add(t);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Give back objects which are taken by takePooledObjs() but not activated, and clear ts.
+	 */
+	void putBackPooledObjs(List<IPooledObj<T>> ts) {
+		enqueueOfIdle(ts, false);
+		ts.clear();
+	}
+
+	/**
+	 * Return the objects which belong to this pool in one batch, to the shared idle queues (not thread local cache).
+	 * @param others the ones not belonging to this pool are added to it, ignored if null
+	 */
+	void returnOwnedObjects(Collection<T> objs, Collection<T> others) {
+		assertNotClosed();
+
+		final List<IPooledObj<T>> ts = new ArrayList<IPooledObj<T>>(objs.size());
+		IPooledObj<T> t;
+		for(T obj : objs) {
+			t = _allObjMap.get(obj);
+			if(t == null) {
+				if(others != null) {
+					others.add(obj);
+				}
+			} else if(passivateReturnedObj(t)) {
+				ts.add(t);
+			}
+		}
+
+		final int released = enqueueOfIdle(ts, true);
+		if(released > 0) {
+			_activeCount.addAndGet(-released);
+		}
+	}
+
+	/**
+	 * @return true if total count reaches maxTotal of this pool
+	 */
+	boolean isFull() {
+		return _totalCount.get() >= _maxTotal;
+	}
+
+	/**
+	 * @return idle objects and free capacity of this pool, the number of objects which could be taken at once
+	 */
+	int getAvailableCount() {
+		return getIdleCount() + _maxTotal - _totalCount.get();
+	}
+
+	/******************** methods above are used by StripedObjPool and KeyedObjPool ********************/
+
+	/**
+	 * Idle objects expired or failed in testOnBorrow are destroyed, and the next one is taken.
+	 */
+	private IPooledObj<T> dequeueOfIdleAny() {
+		IPooledObj<T> t;
+		do {
+			t = claimOfIdleAny();
+		} while(t != null && (retireIfExpired(t) || !testOnBorrow(t)));
+
+		return t;
+	}
+
+	/**
+	 * Expired one is destroyed and replaced on creator thread, same as retireExpiredIdleObjs(), so that the borrower
+	 * does not wait for them.
+	 * @param t claimed by current thread
+	 * @return true if it has expired, or it is not held by current thread any more (reclaimed as abandoned),
+	 * either way the caller takes the next one.
+	 */
+	private boolean retireIfExpired(final IPooledObj<T> t) {
+		if(_maxLifetimeMillis <= 0 || System.currentTimeMillis() < t.getExpireTime()) {
+			return false;
+		}
+
+		if(!t.compareAndSetState(PooledObjState.ALLOCATED, PooledObjState.EVICTED)) {
+			//reclaimed as abandoned, destroyed by the one which reclaimed it
+			return true;
+		}
+
+		try {
+			_creatorExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					removeAndDestroyObj(t.getObject());
+					makeNewObjInBackground();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			//closing
+			removeAndDestroyObj(t.getObject());
+		}
+		return true;
+	}
+
+	/**
+	 * @param t idle one claimed by current thread
+	 * @return false if it failed validation and has been destroyed
+	 */
+	private boolean testOnBorrow(IPooledObj<T> t) {
+		if(!_testOnBorrow) {
+			return true;
+		}
+
+		//returned or tested recently
+		final long curTime = System.currentTimeMillis();
+		if(curTime - Math.max(t.getLastReturnTime(), t.getLastEvictionTestTime()) < _testOnBorrowIdleMillis) {
+			return true;
+		}
+
+		if(validateObjectOfFactory(t.getObject())) {
+			t.setLastEvictionTestTime(curTime);
+			return true;
+		} else {
+			if(t.compareAndSetState(PooledObjState.ALLOCATED, PooledObjState.INVALID)) {
+				removeAndDestroyObj(t.getObject());
+			}
+			//otherwise reclaimed as abandoned (or by close) meanwhile, and destroyed by the one who did it
+			return false;
+		}
+	}
+
+	private IPooledObj<T> claimOfIdleAny() {
+		IPooledObj<T> t;
+		if(_threadLocalCache != null && PoolThreads.isThreadLocalCacheUsable()) {
+			t = claimOfThreadLocalCache();
+			if(t != null) {
+				return t;
+			}
+		}
+
+		t = dequeueOfIdle();
+		if(t == null && _threadLocalCache != null) {
+			//shared queue runs dry, take the ones cached by other threads before making new one
+			t = stealOfThreadLocalCaches();
+		}
+
+		return t;
+	}
+
+	/**
+	 * Claim idle objects of thread local cache and idle queues until ts has n objects, _idleCount is updated once
+	 * for each pass. The ones expired or failed in testOnBorrow are destroyed, and more are taken for them.
+	 */
+	private void claimIdleObjs(List<IPooledObj<T>> ts, int n) {
+		//same as claimIdleObj(t)
+		final long claimTime = System.currentTimeMillis();
+		IPooledObj<T> t;
+		int start;
+		int claimed;
+		do {
+			start = ts.size();
+			claimed = 0;
+			if(_threadLocalCache != null && PoolThreads.isThreadLocalCacheUsable()) {
+				final List<IPooledObj<T>> cache = _threadLocalCache.get()._idleObjs;
+				while(ts.size() < n && !cache.isEmpty()) {
+					t = cache.remove(cache.size() - 1);
+					if(t.compareAndSetState(PooledObjState.IDLE, PooledObjState.ALLOCATED)) {
+						t.setLastBorrowTime(claimTime);
+						ts.add(t);
+						claimed++;
+					}
+				}
+			}
+			while(ts.size() < n && (t = pollIdleEntry()) != null) {
+				if(t.compareAndSetState(PooledObjState.IDLE, PooledObjState.ALLOCATED)) {
+					t.setLastBorrowTime(claimTime);
+					ts.add(t);
+					claimed++;
+				}
+			}
+			if(claimed == 0) {
+				return;
+			}
+			_idleCount.addAndGet(-claimed);
+
+			for(int i = ts.size() - 1; i >= start; i--) {
+				if(retireIfExpired(ts.get(i)) || !testOnBorrow(ts.get(i))) {
+					ts.remove(i);
+				}
+			}
+		} while(ts.size() < n);
+	}
+
+	/**
+	 * Make new one on current thread
+	 */
+	private IPooledObj<T> makeNewObjIfNotFull() {
+		if(reserveCapacity()) {
+			//make new one
+			return makeNewObjButNotAddToIdle();
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Ask creator to make new one if the pool is not full, and wait for it or any returned one.
+	 */
+	private IPooledObj<T> waitForNewOrReturnedObj(long timeout, TimeUnit unit) throws InterruptedException {
+		if(isCreationFailingFast() && getActiveCount() == 0) {
+			//nothing to be returned either
+			throw new CreationBreakerOpenException(_poolName);
+		}
+
+		//the new one is handed over to the longest waiter, not necessarily this one
+		makeNewObjInBackground();
+
+		return waitForReturnedObj(timeout, unit);
+	}
+
+	/**
+	 * Reserve capacity for one object, so that concurrent makers never exceed maxTotal.
+	 */
+	private boolean reserveCapacity() {
+		return reserveCapacity(1) == 1;
+	}
+
+	/**
+	 * Reserve capacity for as many objects as possible, up to count.
+	 * @return number of objects reserved
+	 */
+	private int reserveCapacity(int count) {
+		int cur;
+		int reserved;
+		while((cur = _totalCount.get()) < _maxTotal) {
+			reserved = Math.min(count, _maxTotal - cur);
+			if(_totalCount.compareAndSet(cur, cur + reserved)) {
+				if(_sharedCapacity != null) {
+					final int sharedReserved = _sharedCapacity.reserve(reserved);
+					if(sharedReserved < reserved) {
+						_totalCount.addAndGet(sharedReserved - reserved);
+					}
+					return sharedReserved;
+				}
+				return reserved;
+			}
+		}
+
+		return 0;
+	}
+
+	private void releaseCapacity() {
+		releaseCapacity(1);
+	}
+
+	private void releaseCapacity(int count) {
+		if(count <= 0) {
+			return;
+		}
+
+		_totalCount.addAndGet(-count);
+		if(_sharedCapacity != null) {
+			_sharedCapacity.release(count);
+		}
+		_batchWaiters.signal();
+	}
+
+	/**
+	 * Submit tasks until idle objects (including the ones being made) reach targetIdle, or the pool is full.
+	 */
+	private void makeNewObjsInBackground(int targetIdle) {
+		while(getIdleCount() + _pendingCreateCount.get() < targetIdle) {
+			if(!makeNewObjInBackground()) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return false if the pool is full or closing
+	 */
+	private boolean makeNewObjInBackground() {
+		if(_closingFlg.get() || isCreationFailingFast() || !reserveCapacity()) {
+			return false;
+		}
+
+		_pendingCreateCount.incrementAndGet();
+		try {
+			_creatorExecutor.execute(_createTask);
+			return true;
+		} catch (RejectedExecutionException e) {
+			//closing
+			_pendingCreateCount.decrementAndGet();
+			releaseCapacity();
+			return false;
+		}
+	}
+
+	/**
+	 * Wait in _idleQueue as a consumer. Objects returned meanwhile are transferred to the waiter
+	 * directly (the one who waits longest first) without being enqueued.
+	 */
+	private IPooledObj<T> waitForReturnedObj(long timeout, TimeUnit unit) throws InterruptedException {
+		if(_waiterCount.incrementAndGet() + _asyncWaiterCount.get() > _maxWaiters) {
+			_waiterCount.decrementAndGet();
+			return null;
+		}
+
+		try {
+			//objects added (or cached by thread local cache) just before this waiter was counted
+			//will not be moved to _idleQueue
+			IPooledObj<T> t = dequeueOfIdleAny();
+			if(t != null) {
+				return t;
+			}
+
+			final long deadline = System.nanoTime() + unit.toNanos(timeout);
+			while(true) {
+				t = _idleQueue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+				if(t == null) {
+					return null;
+				}
+				if(t == _closingSignal) {
+					throw new RuntimeException("Pool is closing!");
+				}
+
+				if(claimIdleObj(t) && !retireIfExpired(t) && testOnBorrow(t)) {
+					return t;
+				}
+			}
+		} finally {
+			_waiterCount.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Same as waitForNewOrReturnedObj(), for pools with priority classes. Objects made or returned are handed over by
+	 * publishIdleObj() to the waiters of the highest class whose admission passes.
+	 */
+	private IPooledObj<T> waitByPriority(int priority, long timeout, TimeUnit unit) throws InterruptedException {
+		if(isCreationFailingFast() && getActiveCount() == 0) {
+			//nothing to be returned either
+			throw new CreationBreakerOpenException(_poolName);
+		}
+		if(_waiterCount.incrementAndGet() + _asyncWaiterCount.get() > _maxWaiters) {
+			_waiterCount.decrementAndGet();
+			return null;
+		}
+
+		_priorityWaiterCounts.incrementAndGet(priority);
+
+		final LinkedTransferQueue<IPooledObj<T>> waitQueue = _priorityWaitQueues.get(priority);
+		try {
+			if(isAdmitted(priority)) {
+				//the new one is handed over to the highest waiter, not necessarily this one
+				makeNewObjInBackground();
+			}
+
+			final long deadline = System.nanoTime() + unit.toNanos(timeout);
+			IPooledObj<T> t;
+			while(true) {
+				//objects added before this waiter was counted
+				if(isAdmitted(priority) && (t = dequeueOfIdleAny()) != null) {
+					return t;
+				}
+
+				t = waitQueue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+				if(t == null) {
+					return null;
+				}
+				if(t == _closingSignal) {
+					throw new RuntimeException("Pool is closing!");
+				}
+
+				if(claimIdleObj(t) && !retireIfExpired(t) && testOnBorrow(t)) {
+					return t;
+				}
+			}
+		} finally {
+			_priorityWaiterCounts.decrementAndGet(priority);
+			_waiterCount.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Whether or not a borrower of the priority class may take one more object, that is, the objects left
+	 * (idle ones and free capacity) still cover the unused reservations of higher classes. Not exact under contention.
+	 */
+	private boolean isAdmitted(int priority) {
+		return isAdmitted(priority, 1);
+	}
+
+	/**
+	 * Same as isAdmitted(priority), for taking count objects at once
+	 */
+	private boolean isAdmitted(int priority, int count) {
+		if(priority == 0) {
+			return true;
+		}
+
+		int reserved = 0;
+		for(int i = 0; i < priority; i++) {
+			reserved += Math.max(0, _reservedCounts[i] - _priorityActiveCounts.get(i));
+		}
+		return reserved == 0 || getIdleCount() + _maxTotal - _totalCount.get() - count >= reserved;
+	}
+
+	/**
+	 * @return wait queue of the highest class which has waiters counted and is admitted, null if none
+	 */
+	private LinkedTransferQueue<IPooledObj<T>> getAdmittedPriorityWaitQueue() {
+		for(int i = 0; i < _priorityWaitQueues.size(); i++) {
+			if(_priorityWaiterCounts.get(i) > 0 && isAdmitted(i)) {
+				return _priorityWaitQueues.get(i);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param t idle one, not claimed
+	 * @return true if it is handed over to a waiter of priority classes
+	 */
+	private boolean transferToPriorityWaiter(IPooledObj<T> t) {
+		LinkedTransferQueue<IPooledObj<T>> waitQueue;
+		for(int i = 0; i < _priorityWaitQueues.size(); i++) {
+			waitQueue = _priorityWaitQueues.get(i);
+			if(waitQueue.hasWaitingConsumer() && isAdmitted(i) && waitQueue.tryTransfer(t)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @param t already claimed by current thread
+	 */
+	T activateBorrowedObj(IPooledObj<T> t) {
+        activateObj(t);
+        afterActivated(1);
+        return t.getObject();
+	}
+
+	/**
+	 * Same as activateBorrowedObj(t) for each of them, but counters are updated once.
+	 * @param ts already claimed by current thread
+	 */
+	List<T> activateBorrowedObjs(List<IPooledObj<T>> ts) {
+        final List<T> objs = new ArrayList<T>(ts.size());
+        for(IPooledObj<T> t : ts) {
+            activateObj(t);
+            objs.add(t.getObject());
+        }
+
+        afterActivated(ts.size());
+        return objs;
+	}
+
+	private void activateObj(IPooledObj<T> t) {
+        t.setLastBorrowTime(System.currentTimeMillis());
+        if(_borrowStackSampleRate > 0) {
+            //cleared if not sampled, so that the stack of an earlier borrow is never reported
+            t.setBorrowStack(
+                    (ThreadLocalRandom.current().nextDouble() < _borrowStackSampleRate)? new Throwable("Borrowed at") : null
+            );
+        }
+
+        try {
+            _objFactory.activateObject(t.getObject());
+        } catch (Throwable e) {
+            fireEvent(PoolEventType.FACTORY_EXCEPTION, t.getObject(), "activateObject", e);
+        }
+
+        if(_priorityActiveCounts != null) {
+            _priorityActiveCounts.incrementAndGet(t.getBorrowPriority());
+        }
+	}
+
+	/**
+	 * Called once when a borrowed object is returned or destroyed, by the thread whose CAS of its state succeeded.
+	 * @param priority read before the object becomes visible to other borrowers, who set their own one
+	 */
+	private void releaseBorrowPriority(int priority) {
+        if(_priorityActiveCounts != null) {
+            _priorityActiveCounts.decrementAndGet(priority);
+        }
+	}
+
+	private void afterActivated(int count) {
+        if(_threadLocalActiveDelta != null) {
+            _threadLocalActiveDelta.add(count);
+            if(_adaptiveSizer != null) {
+                _adaptiveSizer.recordBorrow(count, getActiveCount());
+            }
+        } else {
+            final int active = _activeCount.addAndGet(count);
+            if(_adaptiveSizer != null) {
+                _adaptiveSizer.recordBorrow(count, active);
+            }
+        }
+
+        //replenish ahead of demand
+        final int idleTarget = getIdleTarget();
+        if(getIdleCount() + _pendingCreateCount.get() < idleTarget) {
+            makeNewObjsInBackground(idleTarget);
+        }
+	}
+
+	@Override
+	public void returnObject(T obj) {
+		assertNotClosed();
+
+		IPooledObj<T> t = null;
+		if(_threadLocalCache != null && PoolThreads.isThreadLocalCacheUsable()) {
+			t = _threadLocalCache.get().takeBorrowed(obj);
+		}
+		if(t == null) {
+			t = _allObjMap.get(obj);
+		}
+		if(t != null) {
+			returnPooledObj(t);
+		}
+	}
+
+	@Override
+	public void returnObjects(Collection<T> objs) {
+		returnOwnedObjects(objs, null);
+	}
+
+	/**
+	 * @return false if it is not borrowed (returned twice, or not borrowed at all), or it has expired and been destroyed
+	 */
+	private boolean passivateReturnedObj(IPooledObj<T> t) {
+		if(t.getState() != PooledObjState.ALLOCATED) {
+			return false;
+		}
+
+        t.setLastReturnTime(System.currentTimeMillis());
+        if(_stats != null) {
+            _stats.recordHold(t.getLastReturnTime() - t.getLastBorrowTime());
+        }
+
+        if(_maxLifetimeMillis > 0
+                && t.getLastReturnTime() >= t.getExpireTime()
+                && t.compareAndSetState(PooledObjState.ALLOCATED, PooledObjState.EVICTED)
+        ) {
+            destroyBorrowedObj(t);
+            return false;
+        }
+
+        try {
+            _objFactory.passivateObject(t.getObject());
+        } catch (Throwable e) {
+            fireEvent(PoolEventType.FACTORY_EXCEPTION, t.getObject(), "passivateObject", e);
+        }
+        return true;
+	}
+
+	private void returnPooledObj(IPooledObj<T> t) {
+		final int priority = t.getBorrowPriority();
+		if(passivateReturnedObj(t)) {
+            //the object becomes visible to other threads only after being passivated,
+            //and the priority is released only by the return which changes it to IDLE
+            if(_threadLocalCache != null && PoolThreads.isThreadLocalCacheUsable()) {
+                if(addToThreadLocalCache(t)) {
+                    releaseBorrowPriority(priority);
+                    _threadLocalActiveDelta.decrement();
+                    if(hasWaiters() && claimIdleObj(t)) {
+                        //waiters only watch the shared queue
+                        enqueueOfIdle(t);
+                    }
+                }
+            } else if(enqueueOfIdle(t)) {
+                releaseBorrowPriority(priority);
+                _activeCount.decrementAndGet();
+            }
+		}
+	}
+
+	@Override
+	public void invalidateObject(T obj) {
+		assertNotClosed();
+
+		IPooledObj<T> t = _allObjMap.get(obj);
+		if(t != null) {
+            invalidatePooledObj(t);
+        }
+	}
+
+    private void invalidatePooledObj(IPooledObj<T> t) {
+        if(!t.compareAndSetState(PooledObjState.ALLOCATED, PooledObjState.INVALID)) {
+            //not borrowed, an idle one might be in use by other borrower or the eviction test
+            return;
+        }
+
+        destroyBorrowedObj(t);
+    }
+
+    /**
+     * @param t borrowed one, which has been changed from ALLOCATED to INVALID or EVICTED by current thread
+     */
+    private void destroyBorrowedObj(IPooledObj<T> t) {
+        releaseBorrowPriority(t.getBorrowPriority());
+        removeAndDestroyObj(t.getObject());
+        _activeCount.decrementAndGet();
+
+        //make a replacement, which is handed over to the waiting borrowers if there are.
+        if(hasWaiters()
+                || getIdleCount() + _pendingCreateCount.get() < _maxIdle
+        ) {
+            makeNewObjInBackground();
+        }
+    }
+
+	@Override
+	public int getNumIdle() {
+		return getIdleCount();
+	}
+
+	@Override
+	public int getNumActive() {
+		return getActiveCount();
+        //return _totalCount.get() - getIdleCount();
+	}
+
+    /**
+     * Sum of the shared counter and the changes made while thread local cache is enabled
+     */
+    private int getIdleCount() {
+        return (_threadLocalIdleDelta == null)?
+                _idleCount.get() : _idleCount.get() + _threadLocalIdleDelta.intValue();
+    }
+
+    private int getActiveCount() {
+        return (_threadLocalActiveDelta == null)?
+                _activeCount.get() : _activeCount.get() + _threadLocalActiveDelta.intValue();
+    }
+
+	@Override
+	public CreationBreakerState getCreationBreakerState() {
+		return (_creationBreaker == null)? CreationBreakerState.CLOSED : _creationBreaker.getState();
+	}
+
+	/**
+	 * minIdle, or the one adjusted by demand (within [minIdle, maxIdle]) if adaptive sizing is enabled.
+	 * Idle objects are made in background up to it, and the ones above it are evicted.
+	 */
+	public int getIdleTarget() {
+		return (_adaptiveSizer == null)? _minIdle : _adaptiveSizer.getIdleTarget();
+	}
+
+	/**
+	 * Including the waiters shared with other pools
+	 */
+	private boolean hasWaiters() {
+		return _waiterCount.get() > 0
+				|| _asyncWaiterCount.get() > 0
+				|| (_sharedWaiters != null && _sharedWaiters.hasWaiters());
+	}
+
+	/**
+	 * Number of borrowers (threads and futures) waiting for objects
+	 * @return
+	 */
+	public int getNumWaiters() {
+		return _waiterCount.get() + _asyncWaiterCount.get();
+	}
+
+	/**
+	 * @return null if BasePoolConfig.statsEnabled is false
+	 */
+	public PoolStatsMXBean getStats() {
+		return _stats;
+	}
+
+	@Override
+	public void close() {
+		close(0, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public PoolCloseReport close(long drainTimeout, TimeUnit unit) {
+		final long deadlineNanos = System.nanoTime() + unit.toNanos(drainTimeout);
+		if(!beginClose()) {
+			return null;
+		}
+
+		return drainAndClose(deadlineNanos);
+	}
+
+	/**
+	 * First step of close(drainTimeout, unit). Rejects new borrows, wakes up waiters and stops background tasks.
+	 * @return false if closed already
+	 */
+	boolean beginClose() {
+		if(!_closingFlg.compareAndSet(false, true)) {
+			return false;
+		}
+
+		_closeBeginMillis = System.currentTimeMillis();
+		_draining = true;
+		wakeUpWaiters();
+		stopBackgroundTasks();
+		return true;
+	}
+
+	/**
+	 * Second step of close(drainTimeout, unit), called once after beginClose() returned true.
+	 * Interrupting current thread ends draining at once, and the interrupt status is kept.
+	 * @param deadlineNanos System.nanoTime() until which borrowed objects are waited for
+	 */
+	PoolCloseReport drainAndClose(long deadlineNanos) {
+		final ThreadPoolExecutor closer = new ThreadPoolExecutor(
+				_closeParallelism, _closeParallelism,
+				1, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(),
+				PoolThreads.newWorkerThreadFactory("simplepool-closer-")
+		);
+		closer.allowCoreThreadTimeOut(true);
+
+		final AtomicInteger failedCount = new AtomicInteger(0);
+		boolean interrupted = false;
+		int destroyedCount = destroyIdleObjs(closer, failedCount);
+		long remainingNanos;
+		while(getActiveCount() > 0 && (remainingNanos = deadlineNanos - System.nanoTime()) > 0) {
+			try {
+				Thread.sleep(Math.max(1, Math.min(DRAIN_CHECK_MILLIS, TimeUnit.NANOSECONDS.toMillis(remainingNanos))));
+			} catch (InterruptedException e) {
+				interrupted = true;
+				break;
+			}
+
+			//borrowers which passed the check just before closing
+			wakeUpWaiters();
+			destroyedCount += destroyIdleObjs(closer, failedCount);
+		}
+
+		//returning is rejected from now on
+		_draining = false;
+		destroyedCount += destroyIdleObjs(closer, failedCount);
+		final int forceDestroyedCount = forceDestroyObjs(closer, failedCount);
+
+		closer.shutdown();
+		while(!closer.isTerminated()) {
+			try {
+				closer.awaitTermination(1, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+
+		releaseAllObjs();
+		unregisterStatsMBean();
+
+		if(interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		return new PoolCloseReport(
+				destroyedCount, forceDestroyedCount, failedCount.get(),
+				System.currentTimeMillis() - _closeBeginMillis
+		);
+	}
+
+	/**
+	 * Claims the idle objects (including the ones in thread local caches), and destroys them on closer threads.
+	 * @return number of objects claimed
+	 */
+	private int destroyIdleObjs(ThreadPoolExecutor closer, AtomicInteger failedCount) {
+		int count = 0;
+		for(IPooledObj<T> t : _allObjMap.values()) {
+			if(t.getState() == PooledObjState.IDLE && claimIdleObj(t, PooledObjState.EVICTED)) {
+				destroyOnCloser(closer, t.getObject(), failedCount);
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Claims the objects still borrowed or being validated, and destroys them on closer threads.
+	 * Returning them later is ignored.
+	 * @return number of objects claimed
+	 */
+	private int forceDestroyObjs(ThreadPoolExecutor closer, AtomicInteger failedCount) {
+		int count = 0;
+		PooledObjState state;
+		for(IPooledObj<T> t : _allObjMap.values()) {
+			state = t.getState();
+			if((state == PooledObjState.ALLOCATED || state == PooledObjState.VALIDATING)
+					&& t.compareAndSetState(state, PooledObjState.EVICTED)
+			) {
+				if(state == PooledObjState.ALLOCATED) {
+					_activeCount.decrementAndGet();
+				}
+				destroyOnCloser(closer, t.getObject(), failedCount);
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private void destroyOnCloser(ThreadPoolExecutor closer, final T obj, final AtomicInteger failedCount) {
+		final IPooledObj<T> t = _allObjMap.remove(obj);
+		if(t == null) {
+			return;
+		}
+		if(_objSlots != null) {
+			_objSlots.remove(t);
+		}
+		releaseCapacity();
+
+		closer.execute(new Runnable() {
+			@Override
+			public void run() {
+				if(!destroyObjectOfFactory(obj)) {
+					failedCount.incrementAndGet();
+				}
+			}
+		});
+	}
+
+    private ObjectName registerStatsMBean() {
+        try {
+            return _stats.registerMBean("GenericObjPool");
+        } catch (Throwable e) {
+            fireEvent(PoolEventType.ERROR, null, "Failed to register PoolStatsMXBean", e);
+            return null;
+        }
+    }
+
+    private void unregisterStatsMBean() {
+        if(_statsMBeanName == null) {
+            return;
+        }
+
+        try {
+            PoolStats.unregisterMBean(_statsMBeanName);
+        } catch (Throwable e) {
+            fireEvent(PoolEventType.ERROR, null, "Failed to unregister PoolStatsMXBean", e);
+        }
+    }
+
+    private void wakeUpWaiters() {
+        while(_idleQueue.hasWaitingConsumer()) {
+            _idleQueue.tryTransfer(_closingSignal);
+        }
+        if(_priorityWaitQueues != null) {
+            for(LinkedTransferQueue<IPooledObj<T>> waitQueue : _priorityWaitQueues) {
+                while(waitQueue.hasWaitingConsumer()) {
+                    waitQueue.tryTransfer(_closingSignal);
+                }
+            }
+        }
+
+        _batchWaiters.close();
+        completeAsyncWaitersOnClose(_asyncWaiters);
+        if(_priorityAsyncWaiters != null) {
+            for(ConcurrentLinkedQueue<CompletableFuture<T>> asyncWaiters : _priorityAsyncWaiters) {
+                completeAsyncWaitersOnClose(asyncWaiters);
+            }
+        }
+    }
+
+    private void completeAsyncWaitersOnClose(ConcurrentLinkedQueue<CompletableFuture<T>> asyncWaiters) {
+        CompletableFuture<T> future;
+        while((future = asyncWaiters.poll()) != null) {
+            _asyncWaiterCount.decrementAndGet();
+            future.completeExceptionally(new RuntimeException("Pool is closing!"));
+        }
+    }
+
+    private void stopBackgroundTasks() {
+        //stop eviction test, adaptive sizing, abandoned and expiry check
+    	try {
+        	deregisterEvictionTask();
+        	if(_adaptiveSizingTaskFuture != null) {
+        	    _adaptiveSizingTaskFuture.cancel(false);
+        	}
+        	if(_abandonedCheckTaskFuture != null) {
+        	    _abandonedCheckTaskFuture.cancel(false);
+        	}
+        	if(_expiryCheckTaskFuture != null) {
+        	    _expiryCheckTaskFuture.cancel(false);
+        	}
+    	} catch (Throwable e) {
+    		fireEvent(PoolEventType.ERROR, null, "Failed to cancel background tasks", e);
+    	}
+
+        //stop creator, objects made after this are destroyed at once. Tasks running are not interrupted.
+        _creatorExecutor.shutdownNow();
+        _validatorExecutor.shutdownNow();
+    }
+
+    /**
+     * Last step of closing, objects left (made by creator while closing) are destroyed on current thread.
+     */
+    private void releaseAllObjs() {
+        //clear idle queue
+    	try {
+            _idleQueue.clear();
+            if(_idleRing != null) {
+                _idleRing.clear();
+            } else {
+                _idleStack.clear();
+            }
+    	} catch (Throwable e) {
+    		fireEvent(PoolEventType.ERROR, null, "Failed to clear idle queues", e);
+    	}
+
+    	//destroy all, except the ones removed (and destroyed) by tasks still running meanwhile
+    	try {
+            Collection<IPooledObj<T>> pooledObjList = _allObjMap.values();
+            for (IPooledObj<T> pooledObj : pooledObjList) {
+                if(_allObjMap.remove(pooledObj.getObject(), pooledObj)) {
+                    destroyObjectOfFactory(pooledObj.getObject());
+                }
+            }
+    	} catch (Throwable e) {
+    		fireEvent(PoolEventType.ERROR, null, "Failed to destroy objects", e);
+    	}
+        
+    	//clear all obj
+        _allObjMap.clear();
+        
+        //clear counters
+        _idleCount.set(0);
+        _activeCount.set(0);
+        if(_threadLocalCache != null) {
+            _threadLocalIdleDelta.reset();
+            _threadLocalActiveDelta.reset();
+            _objSlots.clear();
+        }
+        final int totalCount = _totalCount.getAndSet(0);
+        if(_sharedCapacity != null) {
+            _sharedCapacity.release(totalCount);
+        }
+    }
+
+    private void initPool() {
+    	if(!_initFlg.compareAndSet(false, true)) {
+    		return;
+    	}
+    	
+    	//register eviction test
+    	if(_testWhileIdle) {
+    		registerEvictionTask();
+    	}
+    	if(_adaptiveSizer != null) {
+    	    registerAdaptiveSizingTask();
+    	}
+    	if(_abandonedTimeoutMillis > 0) {
+    	    registerAbandonedCheckTask();
+    	}
+    	if(_maxLifetimeMillis > 0) {
+    	    registerExpiryCheckTask();
+    	}
     	
-    	public void addObj(IPooledObj<T> t) {
-    		_testQueue.add(t);
+    	//make objects of initial size
+    	warmUp();
+    }
+
+    /**
+     * Makes initialSize objects with warmUpParallelism tasks. Unless asyncWarmUp is true, one of the tasks runs on
+     * current thread, which waits for the others too.
+     */
+    private void warmUp() {
+        if(_initialSize <= 0) {
+            _readyFuture.complete(null);
+            return;
+        }
+
+        final int taskCount = Math.min(_warmUpParallelism, _initialSize);
+        final WarmUpTask warmUpTask = new WarmUpTask(taskCount);
+        final ThreadFactory threadFactory = PoolThreads.newWorkerThreadFactory("simplepool-warmup-");
+        for(int i = (_asyncWarmUp? 0 : 1); i < taskCount; i++) {
+            if(_warmUpExecutor != null) {
+                try {
+                    _warmUpExecutor.execute(warmUpTask);
+                    continue;
+                } catch (RejectedExecutionException e) {
+                    fireEvent(PoolEventType.ERROR, null, "Warm-up task rejected by warmUpExecutor", e);
+                }
+            }
+            threadFactory.newThread(warmUpTask).start();
+        }
+
+        if(!_asyncWarmUp) {
+            warmUpTask.run();
+            try {
+                _readyFuture.join();
+            } catch (CompletionException e) {
+                //reported by events and readyFuture
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> getReadyFuture() {
+        //a dependent one, so that callers can not complete or cancel the pool's
+        return _readyFuture.thenApply(Function.<Void>identity());
+    }
+
+    @Override
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        try {
+            _readyFuture.get(timeout, unit);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Warm-up failed", e.getCause());
+        }
+    }
+
+    /**
+     * Objects are created in claimed state (ALLOCATED), so that they can not be taken by other threads
+     * before being added to idle.
+     */
+    private void makeNewObjAndAddToIdle() {
+        if(!reserveCapacity()) {
+            return;
+        }
+
+        IPooledObj<T> t = makeNewObjButNotAddToIdle();
+        if(t != null) {
+            enqueueOfIdle(t);
+        }
+    }
+
+    /**
+     * Capacity must be reserved before calling this, the reservation is released if failed.
+     */
+    private IPooledObj<T> makeNewObjButNotAddToIdle() {
+        if(_creationBreaker != null && !_creationBreaker.tryAcquire()) {
+            releaseCapacity();
+            throw new CreationBreakerOpenException(_poolName);
+        }
+
+        //any throwable (Error or sneaky thrown checked exception too) is a failure, so that the probe is never stuck
+        T obj = null;
+        boolean succeeded = false;
+        try {
+            obj = makeObjectOfFactory();
+            succeeded = true;
+        } finally {
+            if(!succeeded) {
+                releaseCapacity();
+            }
+            recordCreation(succeeded);
+        }
+        //starts as ALLOCATED
+        IPooledObj<T> t = makePooledObj(obj);
+
+        if(_allObjMap.putIfAbsent(obj, t) == null) {
+            if(_objSlots != null) {
+                //not stealable if all slots are taken by the ones being destroyed, the eviction moves it to idle queue
+                _objSlots.add(t);
+            }
+            if(_closingFlg.get()) {
+                //made by creator after releaseAllObjs()
+                removeAndDestroyObj(obj);
+                return null;
+            }
+
+            return t;
+        } else {
+            releaseCapacity();
+            fireEvent(PoolEventType.ERROR, obj,
+                    "Unexpected error occurred. _objFactory.makeObject() should never make new one same as the old one.", null);
+            return null;
+        }
+    }
+
+    /**
+     * Only the one who removes obj from _allObjMap destroys it, so that it is never destroyed twice
+     * (e.g. by forceDestroyObjs() of close).
+     * @return whether or not obj is removed by this operation
+     */
+    private boolean removeAndDestroyObj(T obj) {
+        //remove from allObjMap
+        final IPooledObj<T> t = (obj == null)? null : _allObjMap.remove(obj);
+        if(t == null) {
+            return false;
+        }
+        if(_objSlots != null) {
+            _objSlots.remove(t);
+        }
+        releaseCapacity();
+
+        //destroy obj
+        destroyObjectOfFactory(obj);
+        return true;
+    }
+
+    /**
+     * Whether or not creation is rejected by the breaker now, without taking the probe
+     */
+    private boolean isCreationFailingFast() {
+        return _creationBreaker != null && _creationBreaker.isRejecting();
+    }
+
+    private void recordCreation(boolean succeeded) {
+        if(_creationBreaker == null) {
+            return;
+        }
+
+        if(succeeded) {
+            if(_creationBreaker.recordSuccess()) {
+                fireEvent(PoolEventType.BREAKER_CLOSE, null, null, null);
+            }
+        } else {
+            final long backoffMillis = _creationBreaker.recordFailure();
+            if(backoffMillis > 0) {
+                fireEvent(PoolEventType.BREAKER_OPEN, null, "for " + backoffMillis + "ms", null);
+            }
+        }
+    }
+
+    private T makeObjectOfFactory() {
+        final long beginNanos = (_stats != null)? System.nanoTime() : 0;
+        T obj = _objFactory.makeObject();
+        if(_stats != null) {
+            _stats.recordMakeObject(System.nanoTime() - beginNanos);
+        }
+
+        fireEvent(PoolEventType.CREATE, obj, null, null);
+        return obj;
+    }
+
+    /**
+     * Objects which fail with exception are treated as invalid.
+     */
+    private boolean validateObjectOfFactory(T obj) {
+        final long beginNanos = (_stats != null)? System.nanoTime() : 0;
+        boolean valid;
+        try {
+            valid = _objFactory.validateObject(obj);
+        } catch (Throwable e) {
+            fireEvent(PoolEventType.FACTORY_EXCEPTION, obj, "validateObject", e);
+            valid = false;
+        }
+        if(_stats != null) {
+            _stats.recordValidateObject(System.nanoTime() - beginNanos, valid);
+        }
+
+        if(!valid) {
+            fireEvent(PoolEventType.VALIDATE_FAIL, obj, null, null);
+        }
+        return valid;
+    }
+
+    /**
+     * Validates all objects in one call if the factory implements IBatchObjFactory, otherwise one by one.
+     * Objects which fail with exception are treated as invalid.
+     */
+    @SuppressWarnings("unchecked")
+    private boolean[] validateObjectsOfFactory(List<IPooledObj<T>> ts) {
+        final boolean[] results = new boolean[ts.size()];
+        if(ts.size() > 1 && _objFactory instanceof IBatchObjFactory) {
+            final List<T> objs = new ArrayList<T>(ts.size());
+            for(IPooledObj<T> t : ts) {
+                objs.add(t.getObject());
+            }
+
+            try {
+                final long beginNanos = (_stats != null)? System.nanoTime() : 0;
+                final boolean[] batchResults = ((IBatchObjFactory<T>) _objFactory).validateObjects(objs);
+                for(int i = 0; i < results.length; i++) {
+                    results[i] = (batchResults != null && i < batchResults.length && batchResults[i]);
+                }
+
+                if(_stats != null) {
+                    final long nanosPerObj = (System.nanoTime() - beginNanos) / results.length;
+                    for(boolean valid : results) {
+                        _stats.recordValidateObject(nanosPerObj, valid);
+                    }
+                }
+            } catch (Throwable e) {
+                fireEvent(PoolEventType.FACTORY_EXCEPTION, null, "validateObjects", e);
+            }
+
+            for(int i = 0; i < results.length; i++) {
+                if(!results[i]) {
+                    fireEvent(PoolEventType.VALIDATE_FAIL, objs.get(i), null, null);
+                }
+            }
+        } else {
+            for(int i = 0; i < results.length; i++) {
+                results[i] = validateObjectOfFactory(ts.get(i).getObject());
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * @return false if the factory threw exception
+     */
+    private boolean destroyObjectOfFactory(T obj) {
+        final long beginNanos = (_stats != null)? System.nanoTime() : 0;
+        boolean destroyed = true;
+        try {
+            _objFactory.destroyObject(obj);
+        } catch (Throwable e) {
+            destroyed = false;
+            fireEvent(PoolEventType.FACTORY_EXCEPTION, obj, "destroyObject", e);
+        }
+
+        if(_stats != null) {
+            _stats.recordDestroyObject(System.nanoTime() - beginNanos);
+        }
+        fireEvent(PoolEventType.DESTROY, obj, null, null);
+        return destroyed;
+    }
+
+    /**
+     * The listener is called on current thread, exception thrown by it never breaks the pool.
+     */
+    private void fireEvent(PoolEventType type, Object obj, String msg, Throwable cause) {
+        try {
+            _eventListener.onEvent(type, _poolName, obj, msg, cause);
+        } catch (Throwable e) {
+            //ignore
+        }
+    }
+
+    private void assertNotClosing() {
+        if(_closingFlg.get()) {
+            throw new RuntimeException("Pool is closing!");
+        }
+    }
+
+    /**
+     * Returning and invalidating are still allowed while draining.
+     */
+    private void assertNotClosed() {
+        if(_closingFlg.get() && !_draining) {
+            throw new RuntimeException("Pool is closing!");
+        }
+    }
+
+    /**
+     * Claim it for borrowing
+     */
+    private boolean claimIdleObj(IPooledObj<T> t) {
+        return claimIdleObj(t, PooledObjState.ALLOCATED);
+    }
+
+    /**
+     * The idle object is claimed by current thread if its state is changed from IDLE by current thread.
+     * <br>
+     * Borrowers stamp lastBorrowTime at once, so that the abandoned check never mistakes an object being tested or
+     * activated for one borrowed since its last return.
+     */
+    private boolean claimIdleObj(IPooledObj<T> t, PooledObjState claimAs) {
+        if(t.compareAndSetState(PooledObjState.IDLE, claimAs)) {
+            if(claimAs == PooledObjState.ALLOCATED) {
+                t.setLastBorrowTime(System.currentTimeMillis());
+            }
+            _idleCount.decrementAndGet();
+            return true;
+        } else {
+            return false;
+        }
+    }
+
+    private IPooledObj<T> dequeueOfIdle() {
+        return dequeueOfIdle(PooledObjState.ALLOCATED);
+    }
+
+    /**
+     * Objects in the idle queue might have been claimed already in thread local cache mode, skip them.
+     */
+    private IPooledObj<T> dequeueOfIdle(PooledObjState claimAs) {
+        IPooledObj<T> t;
+        while((t = _idleQueue.poll()) != null) {
+            if(claimIdleObj(t, claimAs)) {
+                return t;
+            }
+        }
+        if(_priorityWaitQueues != null) {
+            //moved for the waiters which have left since
+            for(LinkedTransferQueue<IPooledObj<T>> waitQueue : _priorityWaitQueues) {
+                while((t = waitQueue.poll()) != null) {
+                    if(claimIdleObj(t, claimAs)) {
+                        return t;
+                    }
+                }
+            }
+        }
+
+        if(_idleRing != null) {
+            while((t = _idleRing.poll()) != null) {
+                if(claimIdleObj(t, claimAs)) {
+                    return t;
+                }
+            }
+        } else {
+            while((t = _idleStack.pollFirst()) != null) {
+                if(claimIdleObj(t, claimAs)) {
+                    return t;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @param t ALLOCATED, claimed by current thread
+     * @return false if it is already in idle
+     */
+    private boolean enqueueOfIdle(IPooledObj<T> t) {
+        return enqueueOfIdle(t, PooledObjState.ALLOCATED, false);
+    }
+
+    /**
+     * @param t claimed by current thread
+     * @param from current state of t
+     * @param coldest only used in LIFO mode, put it at the tail, so that it is borrowed after all others.
+     * @return false if it is already in idle
+     */
+    private boolean enqueueOfIdle(IPooledObj<T> t, PooledObjState from, boolean coldest) {
+        if(!addToIdle(t, from, coldest)) {
+            return false;
+        }
+
+        if(_asyncWaiterCount.get() > 0) {
+            completeAsyncWaiters();
+        }
+        return true;
+    }
+
+    /**
+     * Same as enqueueOfIdle(t) for each of them, but _idleCount is updated once.
+     * @param ts ALLOCATED, claimed by current thread
+     * @param returned true if they were activated, their priorities are released once added
+     * @return number of objects added, the others are already in idle
+     */
+    private int enqueueOfIdle(List<IPooledObj<T>> ts, boolean returned) {
+        if(ts.isEmpty()) {
+            return 0;
+        }
+
+        //counted before being visible to borrowers, and corrected later for the ones not added
+        _idleCount.addAndGet(ts.size());
+        int added = 0;
+        int priority;
+        for(IPooledObj<T> t : ts) {
+            priority = t.getBorrowPriority();
+            if(t.compareAndSetState(PooledObjState.ALLOCATED, PooledObjState.IDLE)) {
+                if(returned) {
+                    releaseBorrowPriority(priority);
+                }
+                publishIdleObj(t, false);
+                added++;
+            }
+        }
+        if(added < ts.size()) {
+            _idleCount.addAndGet(added - ts.size());
+        }
+        if(added > 0) {
+            _batchWaiters.signal();
+        }
+
+        if(_asyncWaiterCount.get() > 0) {
+            completeAsyncWaiters();
+        }
+        return added;
+    }
+
+    /**
+     * Same as enqueueOfIdle(t, from, coldest), but async waiters are not checked.
+     */
+    private boolean addToIdle(IPooledObj<T> t, PooledObjState from, boolean coldest) {
+        if(!t.compareAndSetState(from, PooledObjState.IDLE)) {
+            return false;
+        }
+        //counted before being visible to borrowers, the one who claims it will decrement it.
+        _idleCount.incrementAndGet();
+
+        publishIdleObj(t, coldest);
+        _batchWaiters.signal();
+        return true;
+    }
+
+    /**
+     * @param t IDLE and counted in _idleCount
+     */
+    private void publishIdleObj(IPooledObj<T> t, boolean coldest) {
+        if(_waiterCount.get() > 0
+                && ((_priorityWaitQueues != null)? transferToPriorityWaiter(t) : _idleQueue.tryTransfer(t))
+        ) {
+            //handed over to the waiter directly
+            return;
+        }
+        if(_sharedWaiters != null && _sharedWaiters.hasWaiters() && _sharedWaiters.tryTransfer(this, t)) {
+            return;
+        }
+
+        if(_idleRing != null) {
+            if(!_idleRing.offer(t)) {
+                _idleQueue.add(t);
+            }
+        } else if(coldest) {
+            _idleStack.addLast(t);
+        } else {
+            _idleStack.addFirst(t);
+        }
+
+        if(_waiterCount.get() > 0) {
+            //the waiter might have checked idle objects before this one was added, move one to the queue it waits on
+            final LinkedTransferQueue<IPooledObj<T>> waitQueue =
+                    (_priorityWaitQueues != null)? getAdmittedPriorityWaitQueue() : _idleQueue;
+            IPooledObj<T> head = (waitQueue == null)? null : (_idleRing != null)? _idleRing.poll() : _idleStack.pollFirst();
+            if(head != null) {
+                waitQueue.add(head);
+            }
+        } else if(_sharedWaiters != null && _sharedWaiters.hasWaiters()) {
+            //same for the shared waiters
+            IPooledObj<T> head = (_idleRing != null)? _idleRing.poll() : _idleStack.pollFirst();
+            if(head != null) {
+                _sharedWaiters.add(this, head);
+            }
+        }
+    }
+
+    /**
+     * @return next entry of the idle queues, which might have been claimed already
+     */
+    private IPooledObj<T> pollIdleEntry() {
+        IPooledObj<T> t = _idleQueue.poll();
+        if(t == null && _priorityWaitQueues != null) {
+            for(int i = 0; i < _priorityWaitQueues.size() && t == null; i++) {
+                t = _priorityWaitQueues.get(i).poll();
+            }
+        }
+        if(t == null) {
+            t = (_idleRing != null)? _idleRing.poll() : _idleStack.pollFirst();
+        }
+        return t;
+    }
+
+    /**
+     * @param t claimed by current thread
+     * @return false if it is already in idle
+     */
+    private boolean addToThreadLocalCache(IPooledObj<T> t) {
+        final List<IPooledObj<T>> cache = _threadLocalCache.get()._idleObjs;
+        if(!t.compareAndSetState(PooledObjState.ALLOCATED, PooledObjState.IDLE)) {
+            return false;
+        }
+        _threadLocalIdleDelta.increment();
+        cache.add(t);
+        _batchWaiters.signal();
+
+        if(cache.size() > _threadLocalCacheSize) {
+            //the oldest entry goes to the shared queue, unless claimed by other threads already
+            final IPooledObj<T> oldest = cache.remove(0);
+            if(oldest.compareAndSetState(PooledObjState.IDLE, PooledObjState.ALLOCATED)) {
+                _threadLocalIdleDelta.decrement();
+                enqueueOfIdle(oldest);
+            } else {
+                removeStaleOfThreadLocalCache();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * An entry claimed by other threads is removed, they have counted it on the shared counter
+     */
+    private void removeStaleOfThreadLocalCache() {
+        _threadLocalIdleDelta.decrement();
+        _idleCount.incrementAndGet();
+    }
+
+    /**
+     * Same as claimIdleObj(t) but counted on the striped counter, and remembered for returnObject()
+     */
+    private IPooledObj<T> claimOfThreadLocalCache() {
+        final ThreadLocalCache<T> cache = _threadLocalCache.get();
+        IPooledObj<T> t;
+        for(int i = cache._idleObjs.size() - 1; i >= 0; i--) {
+            t = cache._idleObjs.remove(i);
+            if(t.compareAndSetState(PooledObjState.IDLE, PooledObjState.ALLOCATED)) {
+                t.setLastBorrowTime(System.currentTimeMillis());
+                _threadLocalIdleDelta.decrement();
+                cache.addBorrowed(t);
+                return t;
+            }
+            //claimed by other threads already
+            removeStaleOfThreadLocalCache();
+        }
+
+        return null;
+    }
+
+    /**
+     * Claim any idle object, including the ones remembered by thread local cache of other threads.
+     * Scans at most maxTotal slots, from a random one so that stealers do not contend on the same objects.
+     * Skipped if no thread local cache has entries, so that an exhausted pool does not scan on each borrow.
+     */
+    private IPooledObj<T> stealOfThreadLocalCaches() {
+        if(_threadLocalIdleDelta.sum() <= 0) {
+            return null;
+        }
+        final int capacity = _objSlots.capacity();
+        final int start = ThreadLocalRandom.current().nextInt(capacity);
+        IPooledObj<T> t;
+        for(int i = 0; i < capacity; i++) {
+            t = _objSlots.get((start + i) % capacity);
+            if(t != null && t.getState() == PooledObjState.IDLE && claimIdleObj(t)) {
+                return t;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Idle objects remembered by thread local caches are invisible to eviction test,
+     * move the ones which have been idle for a while back to the shared queue.
+     */
+    private void moveIdleObjsOfThreadLocalCaches(long idleTimeMin) {
+        final Set<IPooledObj<T>> queuedObjs = Collections.newSetFromMap(new IdentityHashMap<IPooledObj<T>, Boolean>());
+        queuedObjs.addAll(_idleQueue);
+        if(_idleRing != null) {
+            _idleRing.copyTo(queuedObjs);
+        } else {
+            queuedObjs.addAll(_idleStack);
+        }
+
+        final long curTime = System.currentTimeMillis();
+        for(IPooledObj<T> t : _allObjMap.values()) {
+            if(t.getState() == PooledObjState.IDLE
+                    && !queuedObjs.contains(t)
+                    && (curTime - t.getLastReturnTime()) >= idleTimeMin
+                    && claimIdleObj(t)
+            ) {
+                enqueueOfIdle(t);
+            }
+        }
+    }
+
+    private void registerEvictionTask() {
+        _evictionTaskFuture = PoolScheduler.scheduleWithFixedDelay(
+                new EvictionTask(),
+                _timeBetweenEvictionRunsMillis, _timeBetweenEvictionRunsMillis, TimeUnit.MILLISECONDS
+        );
+    }
+
+    private void deregisterEvictionTask() {
+    	if(_evictionTaskFuture != null) {
+    	    _evictionTaskFuture.cancel(false);
+    	}
+    }
+    
+    private void registerAdaptiveSizingTask() {
+        _adaptiveSizingTaskFuture = PoolScheduler.scheduleWithFixedDelay(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            adjustToIdleTarget();
+                        } catch (Throwable e) {
+                            //exception thrown would cancel the later runs
+                            fireEvent(PoolEventType.ERROR, null, "Failed to adjust to idle target", e);
+                        }
+                    }
+                },
+                _adaptiveSizingIntervalMillis, _adaptiveSizingIntervalMillis, TimeUnit.MILLISECONDS
+        );
+    }
+
+    /**
+     * Runs on PoolScheduler. Making and destroying run on creator threads.
+     */
+    private void adjustToIdleTarget() {
+        if(_closingFlg.get()) {
+            return;
+        }
+
+        final int idleTarget = _adaptiveSizer.update(getActiveCount());
+        makeNewObjsInBackground(idleTarget);
+
+        //shrink gradually, a quarter of the excess in each interval
+        final int destroyCount = (getIdleCount() - idleTarget + 3) / 4;
+        if(destroyCount > 0) {
+            try {
+                _creatorExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        for(int i = 0; i < destroyCount; i++) {
+                            if(getIdleCount() <= getIdleTarget() || !destroyIdleObj()) {
+                                return;
+                            }
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                //closing
+            }
+        }
+    }
+
+    /**
+     * Checks twice in each abandonedTimeoutMillis, so that an abandoned object is found at most 1.5 times
+     * of the timeout after it was borrowed.
+     */
+    private void registerAbandonedCheckTask() {
+        final long interval = Math.max(1, _abandonedTimeoutMillis / 2);
+        _abandonedCheckTaskFuture = PoolScheduler.scheduleWithFixedDelay(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            checkAbandonedObjs();
+                        } catch (Throwable e) {
+                            //exception thrown would cancel the later runs
+                            fireEvent(PoolEventType.ERROR, null, "Failed to check abandoned objects", e);
+                        }
+                    }
+                },
+                interval, interval, TimeUnit.MILLISECONDS
+        );
+    }
+
+    /**
+     * Runs on PoolScheduler. Reports the objects borrowed longer than abandonedTimeoutMillis with the stack
+     * of their borrowers if captured, and destroys them if removeAbandoned is true.
+     * <br>
+     * Only lastBorrowTime is checked, which is set when a borrower claims the object.
+     */
+    private void checkAbandonedObjs() {
+        if(_closingFlg.get()) {
+            return;
+        }
+
+        final long curTime = System.currentTimeMillis();
+        final Map<IPooledObj<T>, Long> reportedObjs = new IdentityHashMap<IPooledObj<T>, Long>();
+        long borrowTime;
+        Long reportedBorrowTime;
+        for(IPooledObj<T> t : _allObjMap.values()) {
+            borrowTime = t.getLastBorrowTime();
+            if(t.getState() != PooledObjState.ALLOCATED
+                    || curTime - borrowTime < _abandonedTimeoutMillis
+                    //being returned
+                    || t.getLastReturnTime() > borrowTime
+            ) {
+                continue;
+            }
+
+            if(_removeAbandoned) {
+                if(t.compareAndSetState(PooledObjState.ALLOCATED, PooledObjState.INVALID)) {
+                    reportAbandonedObj(t, curTime - borrowTime, true);
+                    destroyBorrowedObj(t);
+                }
+                continue;
+            }
+
+            reportedBorrowTime = _reportedAbandonedObjs.get(t);
+            if(reportedBorrowTime == null || reportedBorrowTime.longValue() != borrowTime) {
+                reportAbandonedObj(t, curTime - borrowTime, false);
+            }
+            reportedObjs.put(t, borrowTime);
+        }
+
+        //the ones returned or destroyed meanwhile are forgotten
+        _reportedAbandonedObjs = reportedObjs;
+    }
+
+    private void reportAbandonedObj(IPooledObj<T> t, long heldMillis, boolean removed) {
+        if(_stats != null) {
+            _stats.recordAbandoned();
+        }
+
+        final Throwable borrowStack = t.getBorrowStack();
+        fireEvent(PoolEventType.ABANDONED, t.getObject(),
+                "borrowed " + heldMillis + "ms ago"
+                + (removed? " and removed" : "")
+                + ((borrowStack == null)? " (borrow stack not captured)" : ""),
+                borrowStack
+        );
+    }
+
+    /**
+     * Checks 10 times in each maxLifetimeMillis (at most every 30 seconds). It only scans the idle objects,
+     * the borrowed ones are retired when returned.
+     */
+    private void registerExpiryCheckTask() {
+        final long interval = Math.max(1, Math.min(_maxLifetimeMillis / 10, 30 * 1000L));
+        _expiryCheckTaskFuture = PoolScheduler.scheduleWithFixedDelay(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            retireExpiredIdleObjs();
+                        } catch (Throwable e) {
+                            //exception thrown would cancel the later runs
+                            fireEvent(PoolEventType.ERROR, null, "Failed to retire expired objects", e);
+                        }
+                    }
+                },
+                interval, interval, TimeUnit.MILLISECONDS
+        );
+    }
+
+    /**
+     * Runs on PoolScheduler. Expired idle objects are claimed here, and destroyed and replaced on creator threads.
+     * Their entries in idle queue become stale and are skipped by borrowers.
+     */
+    private void retireExpiredIdleObjs() {
+        if(_closingFlg.get()) {
+            return;
+        }
+
+        final long curTime = System.currentTimeMillis();
+        final List<IPooledObj<T>> expiredObjs = new ArrayList<IPooledObj<T>>();
+        for(IPooledObj<T> t : _allObjMap.values()) {
+            if(t.getState() == PooledObjState.IDLE
+                    && curTime >= t.getExpireTime()
+                    && claimIdleObj(t, PooledObjState.EVICTED)
+            ) {
+                expiredObjs.add(t);
+            }
+        }
+        if(expiredObjs.isEmpty()) {
+            return;
+        }
+
+        try {
+            _creatorExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for(IPooledObj<T> t : expiredObjs) {
+                        removeAndDestroyObj(t.getObject());
+                        if(getIdleCount() + _pendingCreateCount.get() < _maxIdle) {
+                            makeNewObjInBackground();
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            //closing, all objects are destroyed by close()
+        }
+    }
+
+    private IPooledObj<T> makePooledObj(T obj) {
+    	IPooledObj<T> t = new BasePooledObj<T>(obj);
+    	if(_maxLifetimeMillis > 0) {
+    	    //jitter spreads the expiry of the objects made together, e.g. by initPool()
+    	    final long lifetime = _maxLifetimeMillis
+    	            - (long) (ThreadLocalRandom.current().nextDouble() * _maxLifetimeJitter * _maxLifetimeMillis);
+    	    t.setExpireTime(t.getCreateTime() + lifetime);
     	}
+    	return t;
+    }
+
+    /**
+     * Triggered by PoolScheduler every timeBetweenEvictionRunsMillis, and runs on _validatorExecutor.
+     * <br>
+     * Idle objects are taken out for test in rounds of (validationParallelism * batch size),
+     * so that most of idle objects stay available to borrowers while slow validation is running.
+     */
+    private class EvictionTask implements Runnable {
+        private final float _maxRatioInEviction = 0.25f;
+        private final AtomicBoolean _runningFlg = new AtomicBoolean(false);
+
+        private final Runnable _runTask = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runEviction();
+                } finally {
+                    _runningFlg.set(false);
+                }
+            }
+        };
 
     	@Override
     	public void run() {
-    		IPooledObj<T> t;
-    		boolean isValid;
-    		
-    		try {
-        		while(!_stopFlg) {
-        			t = _testQueue.poll(_timeBetweenEvictionRunsMillis, TimeUnit.MILLISECONDS);
-                    if(t == null) {
-                        checkIdleObjsForEviction();
-                        continue;
+    	    if(!_runningFlg.compareAndSet(false, true)) {
+    	        //last run is not finished yet
+    	        return;
+    	    }
+
+    	    try {
+    	        _validatorExecutor.execute(_runTask);
+    	    } catch (Throwable e) {
+    	        //closing. exception thrown would cancel the later runs
+    	        _runningFlg.set(false);
+    	    }
+    	}
+
+    	private void runEviction() {
+    	    try {
+                final long deadline = (_evictionRunBudgetMillis > 0)?
+                        System.currentTimeMillis() + _evictionRunBudgetMillis : Long.MAX_VALUE;
+
+                if(_threadLocalCache != null) {
+                    moveIdleObjsOfThreadLocalCaches(_timeBetweenEvictionRunsMillis);
+                }
+
+                final int evictionMax = Math.max(1, (int) (getIdleCount() * _maxRatioInEviction));
+                final int chunkSize = (_objFactory instanceof IBatchObjFactory)? _validationBatchSize : 1;
+                final int roundSize = chunkSize * _validationParallelism;
+
+                //LIFO mode: tail of the stack holds the coldest ones
+                final Iterator<IPooledObj<T>> coldestFirst = (_idleStack == null)? null : _idleStack.descendingIterator();
+
+                int testCount = 0;
+                int takeCount;
+                List<IPooledObj<T>> testObjs;
+                while(testCount < evictionMax
+                        && !_closingFlg.get()
+                        && System.currentTimeMillis() < deadline
+                ) {
+                    takeCount = Math.min(roundSize, evictionMax - testCount);
+                    testObjs = (coldestFirst == null)?
+                            takeIdleObjsForEvictionTest(takeCount) : takeColdestIdleObjsForEvictionTest(takeCount, coldestFirst);
+                    testObjsInParallel(testObjs, chunkSize);
+
+                    testCount += testObjs.size();
+                    if(testObjs.size() < takeCount) {
+                        //no more objects need test
+                        break;
                     }
-        			
-        			try {
-                        if (_totalCount.get() >= _maxTotal) {
-                            //destroy it without validating
-                            removeAndDestroyObj(t.getObject());
-                        } else {
-                            isValid = _objFactory.validateObject(t.getObject());
-                            if(!isValid) {
-                                removeAndDestroyObj(t.getObject());
-
-                                final int curIdleCount = _idleCount.get();
-                                if(curIdleCount >= _maxIdle) {
-                                    //do not make new obj, release the very idle one.
-                                } else {
-                                    //make new obj
-                                    makeNewObjAndAddToIdle();
-                                }
-                            } else {
-                                //return valid obj to idle queue
-                                t.setLastEvictionTestTime(System.currentTimeMillis());
-                                enqueueOfIdle(t);
-                            }
-                        }
-        			} catch (Throwable e) {
-        				e.printStackTrace();
-        			}
-        		}
-    		} catch (InterruptedException e) {
-    			logDebug("EvictionTestThread loop end. _testQueue is cleared.");
-    		} catch (Throwable e) {
-                e.printStackTrace();
-            }
-
-            //test loop end
-            _testQueue.clear();
+                }
+
+                //make up idle queue if < idle target
+                makeNewObjsInBackground(getIdleTarget());
+    	    } catch (InterruptedException e) {
+    	        //closing
+    	    } catch (Throwable e) {
+                fireEvent(PoolEventType.ERROR, null, "Failed to run eviction", e);
+            }
     	}
 
-        private void checkIdleObjsForEviction() {
-        	//logDebug("checkIdleObjsForEviction() ----------");
-        	
-            final int evictionMax = (int) (_idleCount.get() * _maxRatioInEviction);
+        /**
+         * Current thread tests the first chunk, and the others are submitted to _validatorExecutor.
+         */
+        private void testObjsInParallel(List<IPooledObj<T>> testObjs, int chunkSize) throws InterruptedException {
+            final List<FutureTask<?>> futures = new ArrayList<FutureTask<?>>();
+            FutureTask<?> future;
+            for(int i = chunkSize; i < testObjs.size(); i += chunkSize) {
+                final List<IPooledObj<T>> chunk = testObjs.subList(i, Math.min(i + chunkSize, testObjs.size()));
+                future = new FutureTask<Void>(new Runnable() {
+                    @Override
+                    public void run() {
+                        testObjs(chunk);
+                    }
+                }, null);
+                _validatorExecutor.execute(future);
+                futures.add(future);
+            }
+
+            testObjs(testObjs.subList(0, Math.min(chunkSize, testObjs.size())));
+
+            for(FutureTask<?> chunkFuture : futures) {
+                //not started yet, e.g. the shared workers are all busy (maybe waiting like this), run it here
+                chunkFuture.run();
+                try {
+                    chunkFuture.get();
+                } catch (ExecutionException e) {
+                    fireEvent(PoolEventType.ERROR, null, "Failed to run eviction", e.getCause());
+                } catch (CancellationException e) {
+                    //closing
+                    return;
+                }
+            }
+        }
+
+    	private void testObjs(List<IPooledObj<T>> testObjs) {
+    	    if(_closingFlg.get()) {
+    	        //all objects are destroyed by close()
+    	        return;
+    	    }
+
+    	    final List<IPooledObj<T>> validateObjs = new ArrayList<IPooledObj<T>>(testObjs.size());
+    	    for(IPooledObj<T> t : testObjs) {
+                if (_totalCount.get() >= _maxTotal) {
+                    //destroy it without validating
+                    destroyValidatingObj(t, PooledObjState.EVICTED);
+                } else {
+                    validateObjs.add(t);
+                }
+    	    }
+    	    if(validateObjs.isEmpty()) {
+    	        return;
+    	    }
+
+    	    final boolean[] results = validateObjectsOfFactory(validateObjs);
+    	    for(int i = 0; i < results.length; i++) {
+    	        try {
+    	            afterTest(validateObjs.get(i), results[i]);
+    	        } catch (Throwable e) {
+    	            fireEvent(PoolEventType.ERROR, validateObjs.get(i).getObject(), "Failed to finish eviction test", e);
+    	        }
+    	    }
+    	}
+
+    	private void afterTest(IPooledObj<T> t, boolean isValid) {
+            if(!isValid) {
+                destroyValidatingObj(t, PooledObjState.INVALID);
+
+                final int curIdleCount = getIdleCount() + _pendingCreateCount.get();
+                if(curIdleCount >= _maxIdle) {
+                    //do not make new obj, release the very idle one.
+                } else {
+                    //make new obj
+                    makeNewObjInBackground();
+                }
+            } else {
+                //return valid obj to idle queue, it is not made hot by the test
+                t.setLastEvictionTestTime(System.currentTimeMillis());
+                enqueueOfIdle(t, PooledObjState.VALIDATING, true);
+            }
+    	}
+
+        /**
+         * Very idle objects are destroyed on the way.
+         * @return objects which are taken out of idle queue for eviction test, less than maxCount if
+         * there is no more object to test.
+         */
+        private List<IPooledObj<T>> takeIdleObjsForEvictionTest(int maxCount) {
             final long idleTimeMax = _timeBetweenEvictionRunsMillis * 3;
             final long curTime = System.currentTimeMillis();
             
-            int evictionAddCount = 0;
+            final List<IPooledObj<T>> testObjs = new ArrayList<IPooledObj<T>>(maxCount);
             IPooledObj<T> t;
-            while(true) {
-                t = dequeueOfIdle();
+            while(testObjs.size() < maxCount) {
+                t = dequeueOfIdle(PooledObjState.VALIDATING);
                 if(t == null) {
                     break;
                 }
 
                 //check very idle object
-                if(_idleCount.get() > _minIdle
+                if(getIdleCount() > getIdleTarget()
                 		&& (curTime - t.getLastReturnTime()) >= idleTimeMax
                 ) {
-                	removeAndDestroyObj(t.getObject());
+                	destroyValidatingObj(t, PooledObjState.EVICTED);
+                	continue;
                 }
                 
                 //check eviction time
                 if(isNeedEvictionTest(t)) {
-                    addObj(t);
-
-                    evictionAddCount ++;
-                    if(evictionAddCount >= evictionMax) {
-                        break;
-                    }
+                    testObjs.add(t);
                 } else {
+                    //tested recently, and so are the ones after it
+                    enqueueOfIdle(t, PooledObjState.VALIDATING, false);
                     break;
                 }
             }
 
-            //make up idle queue if < _minIdle
-            if(_idleCount.get() < _minIdle) {
-                final int makeupCount = _minIdle - _idleCount.get();
-                if(makeupCount > 0) {
-                    for(int i = 0; i < makeupCount; i++) {
-                        makeNewObjAndAddToIdle();
+            return testObjs;
+        }
+
+        /**
+         * LIFO mode. Same as takeIdleObjsForEvictionTest(), but scans from the coldest one, and the ones tested recently
+         * are skipped in place.
+         */
+        private List<IPooledObj<T>> takeColdestIdleObjsForEvictionTest(int maxCount, Iterator<IPooledObj<T>> coldestFirst) {
+            final long idleTimeMax = _timeBetweenEvictionRunsMillis * 3;
+            final long curTime = System.currentTimeMillis();
+
+            final List<IPooledObj<T>> testObjs = new ArrayList<IPooledObj<T>>(maxCount);
+            IPooledObj<T> t;
+            while(testObjs.size() < maxCount && coldestFirst.hasNext()) {
+                t = coldestFirst.next();
+                if(t.getState() != PooledObjState.IDLE) {
+                    //stale entry, the object has been claimed through thread local cache
+                    coldestFirst.remove();
+                    continue;
+                }
+
+                //check very idle object
+                if(getIdleCount() > getIdleTarget()
+                        && (curTime - t.getLastReturnTime()) >= idleTimeMax
+                ) {
+                    if(claimIdleObj(t, PooledObjState.EVICTED)) {
+                        coldestFirst.remove();
+                        removeAndDestroyObj(t.getObject());
                     }
+                    continue;
+                }
+
+                //check eviction time
+                if(isNeedEvictionTest(t) && claimIdleObj(t, PooledObjState.VALIDATING)) {
+                    coldestFirst.remove();
+                    testObjs.add(t);
                 }
             }
 
+            return testObjs;
+        }
+
+        /**
+         * Nothing is done if t has been claimed by forceDestroyObjs() of close meanwhile
+         * @param t VALIDATING, owned by current thread
+         * @param finalState EVICTED or INVALID
+         */
+        private void destroyValidatingObj(IPooledObj<T> t, PooledObjState finalState) {
+            if(t.compareAndSetState(PooledObjState.VALIDATING, finalState)) {
+                removeAndDestroyObj(t.getObject());
+            }
         }
 
         private boolean isNeedEvictionTest(IPooledObj<T> t) {
@@ -420,21 +2895,137 @@ public class GenericObjPool<T> implements IObjPool<T> {
 
     }
     
-    private void logDebug(String msg) {
-        System.err.println(
-        		(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss,SSS")).format(new Date()) + " DEBUG "
-        		+ _logMsgPrefix
-        		+ msg
-        );
+    /**
+     * Thread local cache of one thread
+     */
+    private static final class ThreadLocalCache<T> {
+        /**
+         * Idle objects returned by this thread, most recent one at the tail
+         */
+        final List<IPooledObj<T>> _idleObjs;
+
+        /**
+         * Objects this thread borrowed of _idleObjs, so that returning them needs no lookup in _allObjMap
+         */
+        final List<IPooledObj<T>> _borrowedObjs;
+
+        private final int _size;
+
+        ThreadLocalCache(int size) {
+            _size = size;
+            _idleObjs = new ArrayList<IPooledObj<T>>(size);
+            _borrowedObjs = new ArrayList<IPooledObj<T>>(size);
+        }
+
+        void addBorrowed(IPooledObj<T> t) {
+            if(_borrowedObjs.size() >= _size) {
+                //returned by other threads, or never returned
+                _borrowedObjs.remove(0);
+            }
+            _borrowedObjs.add(t);
+        }
+
+        /**
+         * @return null if obj is not borrowed of this cache, or not borrowed any more
+         */
+        IPooledObj<T> takeBorrowed(T obj) {
+            IPooledObj<T> t;
+            for(int i = _borrowedObjs.size() - 1; i >= 0; i--) {
+                t = _borrowedObjs.get(i);
+                if(t.getObject() == obj) {
+                    _borrowedObjs.remove(i);
+                    return (t.getState() == PooledObjState.ALLOCATED)? t : null;
+                }
+            }
+            return null;
+        }
     }
-    
-    private void logErr(String msg) {
-        System.err.println(
-        		(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss,SSS")).format(new Date()) + " ERROR "
-        		+ _logMsgPrefix
-        		+ msg
-        );
+
+    /**
+     * Holds the pooled wrapper, so that returning needs no lookup in _allObjMap.
+     */
+    private static class ObjLease<T> implements IObjLease<T> {
+        @SuppressWarnings("rawtypes")
+        private static final AtomicIntegerFieldUpdater<ObjLease> CLOSED_UPDATER =
+                AtomicIntegerFieldUpdater.newUpdater(ObjLease.class, "_closed");
+
+        private final GenericObjPool<T> _pool;
+        private final IPooledObj<T> _pooledObj;
+
+        private volatile int _closed = 0;
+
+        public ObjLease(GenericObjPool<T> pool, IPooledObj<T> pooledObj) {
+            _pool = pool;
+            _pooledObj = pooledObj;
+        }
+
+        @Override
+        public T getObject() {
+            return _pooledObj.getObject();
+        }
+
+        @Override
+        public void invalidate() {
+            if(CLOSED_UPDATER.compareAndSet(this, 0, 1)) {
+                _pool.assertNotClosed();
+                _pool.invalidatePooledObj(_pooledObj);
+            }
+        }
+
+        @Override
+        public void close() {
+            if(CLOSED_UPDATER.compareAndSet(this, 0, 1)) {
+                _pool.assertNotClosed();
+                _pool.returnPooledObj(_pooledObj);
+            }
+        }
     }
-    
-    
+
+    /**
+     * Shared by all warm-up tasks, each of them makes objects until initialSize ones are made (or tried).
+     */
+    private final class WarmUpTask implements Runnable {
+        private final AtomicInteger _remainingCount = new AtomicInteger(_initialSize);
+        private final AtomicInteger _failedCount = new AtomicInteger(0);
+        private final AtomicInteger _runningTaskCount;
+        private volatile Throwable _lastError;
+
+        public WarmUpTask(int taskCount) {
+            _runningTaskCount = new AtomicInteger(taskCount);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while(!_closingFlg.get() && _remainingCount.getAndDecrement() > 0) {
+                    try {
+                        makeNewObjAndAddToIdle();
+                    } catch (CreationBreakerOpenException e) {
+                        //the rest fail fast too
+                        _failedCount.addAndGet(1 + Math.max(0, _remainingCount.getAndSet(0)));
+                        _lastError = e;
+                    } catch (Throwable e) {
+                        _failedCount.incrementAndGet();
+                        _lastError = e;
+                        fireEvent(PoolEventType.FACTORY_EXCEPTION, null, "makeObject", e);
+                    }
+                }
+            } finally {
+                if(_runningTaskCount.decrementAndGet() == 0) {
+                    finish();
+                }
+            }
+        }
+
+        private void finish() {
+            if(_closingFlg.get()) {
+                _readyFuture.completeExceptionally(new RuntimeException("Pool is closing!"));
+            } else if(_failedCount.get() >= _initialSize) {
+                _readyFuture.completeExceptionally(_lastError);
+            } else {
+                _readyFuture.complete(null);
+            }
+        }
+    }
+
 }
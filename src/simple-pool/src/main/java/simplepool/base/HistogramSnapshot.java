@@ -0,0 +1,68 @@
+package simplepool.base;
+
+/**
+ * Immutable view of LatencyHistogram, all durations are in microseconds.
+ */
+public class HistogramSnapshot {
+    private final long _count;
+    private final long _meanMicros;
+    private final long _p50Micros;
+    private final long _p90Micros;
+    private final long _p99Micros;
+    private final long _p999Micros;
+    private final long _maxMicros;
+
+    public HistogramSnapshot(
+            long count, long meanMicros,
+            long p50Micros, long p90Micros, long p99Micros, long p999Micros,
+            long maxMicros
+    ) {
+        _count = count;
+        _meanMicros = meanMicros;
+        _p50Micros = p50Micros;
+        _p90Micros = p90Micros;
+        _p99Micros = p99Micros;
+        _p999Micros = p999Micros;
+        _maxMicros = maxMicros;
+    }
+
+    public long getCount() {
+        return _count;
+    }
+
+    public long getMeanMicros() {
+        return _meanMicros;
+    }
+
+    public long getP50Micros() {
+        return _p50Micros;
+    }
+
+    public long getP90Micros() {
+        return _p90Micros;
+    }
+
+    public long getP99Micros() {
+        return _p99Micros;
+    }
+
+    public long getP999Micros() {
+        return _p999Micros;
+    }
+
+    public long getMaxMicros() {
+        return _maxMicros;
+    }
+
+    @Override
+    public String toString() {
+        return "count:" + _count
+                + " mean:" + _meanMicros
+                + " p50:" + _p50Micros
+                + " p90:" + _p90Micros
+                + " p99:" + _p99Micros
+                + " p999:" + _p999Micros
+                + " max:" + _maxMicros
+                + "(us)";
+    }
+}
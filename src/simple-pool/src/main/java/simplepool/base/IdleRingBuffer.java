@@ -0,0 +1,134 @@
+package simplepool.base;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded MPMC FIFO queue on preallocated arrays (Dmitry Vyukov's algorithm), offer() and poll() never allocate.
+ * <br>
+ * Each slot has a sequence number, which tells whether the slot is ready for the producer or the consumer of
+ * the current round. Head and tail are padded, so producers and consumers do not invalidate each other's cache line.
+ */
+final class IdleRingBuffer<E> {
+
+    private final int _mask;
+    private final AtomicReferenceArray<E> _elements;
+    private final AtomicLongArray _sequences;
+
+    /**
+     * Next position to poll
+     */
+    private final PaddedAtomicLong _head = new PaddedAtomicLong();
+
+    /**
+     * Next position to offer
+     */
+    private final PaddedAtomicLong _tail = new PaddedAtomicLong();
+
+    /**
+     * @param minCapacity rounded up to power of 2
+     */
+    public IdleRingBuffer(int minCapacity) {
+        int capacity = 2;
+        while(capacity < minCapacity) {
+            capacity <<= 1;
+        }
+
+        _mask = capacity - 1;
+        _elements = new AtomicReferenceArray<E>(capacity);
+        _sequences = new AtomicLongArray(capacity);
+        for(int i = 0; i < capacity; i++) {
+            _sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @return false if full
+     */
+    public boolean offer(E e) {
+        long pos = _tail.get();
+        int index;
+        long diff;
+        while(true) {
+            index = (int) (pos & _mask);
+            diff = _sequences.get(index) - pos;
+            if(diff == 0) {
+                if(_tail.compareAndSet(pos, pos + 1)) {
+                    _elements.lazySet(index, e);
+                    //publish the element to the consumer of this round
+                    _sequences.lazySet(index, pos + 1);
+                    return true;
+                }
+                pos = _tail.get();
+            } else if(diff < 0) {
+                //the consumer of last round has not taken it yet
+                return false;
+            } else {
+                //taken by other producer
+                pos = _tail.get();
+            }
+        }
+    }
+
+    /**
+     * @return null if empty
+     */
+    public E poll() {
+        long pos = _head.get();
+        int index;
+        long diff;
+        E e;
+        while(true) {
+            index = (int) (pos & _mask);
+            diff = _sequences.get(index) - (pos + 1);
+            if(diff == 0) {
+                if(_head.compareAndSet(pos, pos + 1)) {
+                    e = _elements.get(index);
+                    _elements.lazySet(index, null);
+                    //free the slot for the producer of next round
+                    _sequences.lazySet(index, pos + _mask + 1);
+                    return e;
+                }
+                pos = _head.get();
+            } else if(diff < 0) {
+                //the producer of this round has not put it yet
+                return null;
+            } else {
+                //taken by other consumer
+                pos = _head.get();
+            }
+        }
+    }
+
+    public int size() {
+        final long size = _tail.get() - _head.get();
+        return (size < 0)? 0 : (int) Math.min(size, _mask + 1);
+    }
+
+    public void clear() {
+        while(poll() != null) {
+        }
+    }
+
+    /**
+     * Not an atomic snapshot, elements offered or polled meanwhile might be missed or included.
+     */
+    public void copyTo(Collection<? super E> c) {
+        E e;
+        for(int i = 0; i <= _mask; i++) {
+            e = _elements.get(i);
+            if(e != null) {
+                c.add(e);
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static final class PaddedAtomicLong extends AtomicLong {
+        //fill up the rest of the cache line after value
+        @SuppressWarnings("unused")
+        private volatile long _p1, _p2, _p3, _p4, _p5, _p6, _p7 = 7L;
+    }
+}
@@ -0,0 +1,616 @@
+package simplepool.base;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.ObjectName;
+
+import simplepool.base.abstracts.CreationBreakerState;
+import simplepool.base.abstracts.IKeyedObjFactory;
+import simplepool.base.abstracts.IKeyedObjPool;
+import simplepool.base.abstracts.IObjFactory;
+import simplepool.base.abstracts.IPooledObj;
+import simplepool.base.abstracts.PoolCloseReport;
+import simplepool.base.abstracts.PoolEventType;
+
+/**
+ * Pool of objects grouped by key, which is made of one GenericObjPool per key. The pools of all keys share
+ * one capacity (maxTotal), on top of maxTotalPerKey.
+ * <br>
+ * When the shared capacity runs out, an idle object of the coldest key (the least recently used one which has idle
+ * objects) is destroyed to make room for the key which needs a new one. The pool of a key unused for
+ * keyIdleTimeoutMillis is closed and removed, so that keys seen once do not stay forever.
+ */
+public class KeyedObjPool<K, T> implements IKeyedObjPool<K, T> {
+
+    private final KeyedPoolConfig _poolConfig;
+    private final IKeyedObjFactory<K, T> _objFactory;
+    private final SharedCapacity _sharedCapacity;
+
+    private final ConcurrentHashMap<K, KeyPool<T>> _keyPools = new ConcurrentHashMap<K, KeyPool<T>>();
+
+    /**
+     * Borrowers waiting for the shared capacity, the one waiting longest at the head. Capacity freed by any key is
+     * handed over to them (see handOverCapacity()), objects returned to their own key are handed over by its pool.
+     */
+    private final ConcurrentLinkedQueue<KeyWaiter<T>> _keyWaiters = new ConcurrentLinkedQueue<KeyWaiter<T>>();
+
+    private final long _keyIdleTimeoutMillis;
+    private final ScheduledFuture<?> _keyEvictionTaskFuture;
+
+    private final AtomicBoolean _closingFlg = new AtomicBoolean(false);
+
+    /**
+     * Shared by the pools of all keys, so the counts of removed keys are kept. Null if statsEnabled is false.
+     */
+    private final PoolStats _stats;
+    private final ObjectName _statsMBeanName;
+
+    /**
+     *
+     * @param poolConfig fields below are used: maxTotal, maxTotalPerKey, maxIdlePerKey, minIdlePerKey,
+     *                   keyIdleTimeoutMillis, and the others are the same as GenericObjPool.
+     * @param objFactory
+     */
+    public KeyedObjPool(
+            KeyedPoolConfig poolConfig,
+            IKeyedObjFactory<K, T> objFactory
+    ) {
+        _poolConfig = poolConfig;
+        _objFactory = objFactory;
+        _sharedCapacity = new SharedCapacity(poolConfig.getMaxTotal(), new Runnable() {
+            @Override
+            public void run() {
+                handOverCapacity();
+            }
+        });
+
+        _keyIdleTimeoutMillis = poolConfig.getKeyIdleTimeoutMillis();
+        if(_keyIdleTimeoutMillis > 0) {
+            //checked as often as the eviction of each key, but at least once per timeout
+            final long interval = (poolConfig.getTimeBetweenEvictionRunsMillis() > 0)?
+                    Math.min(_keyIdleTimeoutMillis, poolConfig.getTimeBetweenEvictionRunsMillis())
+                    : _keyIdleTimeoutMillis;
+            _keyEvictionTaskFuture = PoolScheduler.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        removeIdleKeyPools();
+                    } catch (Throwable e) {
+                        fireError("Failed to remove idle pools of keys", e);
+                    }
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        } else {
+            _keyEvictionTaskFuture = null;
+        }
+
+        if(poolConfig.isStatsEnabled()) {
+            _stats = new PoolStats(
+                    (poolConfig.getPoolName() == null)? "" : poolConfig.getPoolName(),
+                    this::getNumIdle, this::getNumActive, this::getNumWaiters, this::getCreationBreakerState
+            );
+            //one MBean for all keys
+            _statsMBeanName = registerStatsMBean();
+        } else {
+            _stats = null;
+            _statsMBeanName = null;
+        }
+    }
+
+    @Override
+    public T borrowObject(K key) {
+        try {
+            return borrow(key, false, 0);
+        } catch (InterruptedException e) {
+            //never happens without waiting
+            return null;
+        }
+    }
+
+    @Override
+    public T borrowObject(K key, long timeout, TimeUnit unit) throws InterruptedException {
+        return borrow(key, true, unit.toNanos(timeout));
+    }
+
+    @Override
+    public void returnObject(K key, T obj) {
+        //allowed while draining, the pool of the key checks it
+        KeyPool<T> keyPool = _keyPools.get(key);
+        if(keyPool != null) {
+            keyPool.touch();
+            keyPool._pool.returnObject(obj);
+            if(!_keyWaiters.isEmpty() && _sharedCapacity.isFull()) {
+                //idle now unless taken by a waiter of the same key, make room for the other keys
+                reclaimCapacityForWaiters();
+            }
+        }
+    }
+
+    @Override
+    public void invalidateObject(K key, T obj) {
+        KeyPool<T> keyPool = _keyPools.get(key);
+        if(keyPool != null) {
+            keyPool._pool.invalidateObject(obj);
+        }
+    }
+
+    @Override
+    public int getNumIdle() {
+        int num = 0;
+        for(KeyPool<T> keyPool : _keyPools.values()) {
+            num += keyPool._pool.getNumIdle();
+        }
+        return num;
+    }
+
+    @Override
+    public int getNumActive() {
+        int num = 0;
+        for(KeyPool<T> keyPool : _keyPools.values()) {
+            num += keyPool._pool.getNumActive();
+        }
+        return num;
+    }
+
+    @Override
+    public int getNumIdle(K key) {
+        KeyPool<T> keyPool = _keyPools.get(key);
+        return (keyPool == null)? 0 : keyPool._pool.getNumIdle();
+    }
+
+    @Override
+    public int getNumActive(K key) {
+        KeyPool<T> keyPool = _keyPools.get(key);
+        return (keyPool == null)? 0 : keyPool._pool.getNumActive();
+    }
+
+    @Override
+    public CreationBreakerState getCreationBreakerState(K key) {
+        KeyPool<T> keyPool = _keyPools.get(key);
+        return (keyPool == null)? CreationBreakerState.CLOSED : keyPool._pool.getCreationBreakerState();
+    }
+
+    /**
+     * Number of borrowers waiting for objects of any key
+     */
+    public int getNumWaiters() {
+        int num = 0;
+        for(KeyPool<T> keyPool : _keyPools.values()) {
+            num += keyPool._pool.getNumWaiters();
+        }
+        return num;
+    }
+
+    /**
+     * @return OPEN if the breaker of any key is open, HALF_OPEN if any is probing, otherwise CLOSED
+     */
+    public CreationBreakerState getCreationBreakerState() {
+        CreationBreakerState state = CreationBreakerState.CLOSED;
+        for(KeyPool<T> keyPool : _keyPools.values()) {
+            switch(keyPool._pool.getCreationBreakerState()) {
+                case OPEN:
+                    return CreationBreakerState.OPEN;
+                case HALF_OPEN:
+                    state = CreationBreakerState.HALF_OPEN;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * @return null if statsEnabled is false
+     */
+    public PoolStatsMXBean getStats() {
+        return _stats;
+    }
+
+    @Override
+    public void close() {
+        close(0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Pools of all keys stop borrowing at once, and then they are drained one by one until the same deadline.
+     */
+    @Override
+    public PoolCloseReport close(long drainTimeout, TimeUnit unit) {
+        final long deadlineNanos = System.nanoTime() + unit.toNanos(drainTimeout);
+        if(!_closingFlg.compareAndSet(false, true)) {
+            return null;
+        }
+        if(_keyEvictionTaskFuture != null) {
+            _keyEvictionTaskFuture.cancel(false);
+        }
+
+        final List<GenericObjPool<T>> closingPools = new ArrayList<GenericObjPool<T>>(_keyPools.size());
+        for(KeyPool<T> keyPool : _keyPools.values()) {
+            try {
+                if(keyPool._pool.beginClose()) {
+                    closingPools.add(keyPool._pool);
+                }
+            } catch (Throwable e) {
+                fireError("Failed to close pool of key", e);
+            }
+        }
+
+        PoolCloseReport report = new PoolCloseReport(0, 0, 0, 0);
+        for(GenericObjPool<T> keyPool : closingPools) {
+            try {
+                report = report.add(keyPool.drainAndClose(deadlineNanos));
+            } catch (Throwable e) {
+                fireError("Failed to close pool of key", e);
+            }
+        }
+        unregisterStatsMBean();
+        return report;
+    }
+
+    private ObjectName registerStatsMBean() {
+        try {
+            return _stats.registerMBean("KeyedObjPool");
+        } catch (Throwable e) {
+            fireError("Failed to register PoolStatsMXBean", e);
+            return null;
+        }
+    }
+
+    private void unregisterStatsMBean() {
+        if(_statsMBeanName == null) {
+            return;
+        }
+
+        try {
+            PoolStats.unregisterMBean(_statsMBeanName);
+        } catch (Throwable e) {
+            fireError("Failed to unregister PoolStatsMXBean", e);
+        }
+    }
+
+    private void fireError(String msg, Throwable e) {
+        _poolConfig.getEventListener().onEvent(
+                PoolEventType.ERROR,
+                (_poolConfig.getPoolName() == null)? "" : _poolConfig.getPoolName(),
+                null, msg, e
+        );
+    }
+
+    /**
+     * Close the pools of keys unused for keyIdleTimeoutMillis, their idle objects are destroyed.
+     */
+    private void removeIdleKeyPools() {
+        final long curTime = System.currentTimeMillis();
+        KeyPool<T> keyPool;
+        for(Map.Entry<K, KeyPool<T>> entry : _keyPools.entrySet()) {
+            if(_closingFlg.get()) {
+                return;
+            }
+
+            keyPool = entry.getValue();
+            if(curTime - keyPool._lastUseMillis >= _keyIdleTimeoutMillis && keyPool.retire()) {
+                _keyPools.remove(entry.getKey(), keyPool);
+                keyPool._pool.close();
+            }
+        }
+    }
+
+    /**
+     * Order of trying: idle of the key, make new one (destroying an idle one of the coldest key if the shared capacity
+     * is used up), and then wait in the pool of the key.
+     * <br>
+     * When waiting is allowed, new objects are made in background instead of on current thread.
+     */
+    private T borrow(K key, boolean wait, long timeoutNanos) throws InterruptedException {
+        final long deadline = System.nanoTime() + timeoutNanos;
+        KeyPool<T> holder;
+        while(!(holder = keyPoolOf(key)).enter()) {
+            //being retired, it is removed soon or kept if something turns out to be borrowed
+            Thread.yield();
+        }
+
+        try {
+            holder.touch();
+            return borrow(holder, wait, deadline);
+        } finally {
+            holder.exit();
+        }
+    }
+
+    private T borrow(KeyPool<T> holder, boolean wait, long deadline) throws InterruptedException {
+        final GenericObjPool<T> keyPool = holder._pool;
+        IPooledObj<T> t = keyPool.borrowIdlePooledObj();
+        if(t == null && !wait) {
+            t = borrowNew(keyPool);
+        }
+        if(t != null) {
+            return keyPool.activateBorrowedObj(t);
+        }
+
+        final long remaining = deadline - System.nanoTime();
+        if(!wait || remaining <= 0) {
+            return null;
+        }
+
+        KeyWaiter<T> waiter = null;
+        try {
+            if(!requestNewInBackground(keyPool)) {
+                //capacity freed by other keys from now on is handed over to the waiters
+                waiter = new KeyWaiter<T>(keyPool);
+                _keyWaiters.add(waiter);
+                handOverCapacity();
+            }
+
+            //the one made in background is handed over by the pool of the key, same as the returned ones
+            t = keyPool.waitForReturnedPooledObj(remaining, TimeUnit.NANOSECONDS);
+            return (t == null)? null : keyPool.activateBorrowedObj(t);
+        } finally {
+            if(waiter != null) {
+                _keyWaiters.remove(waiter);
+            }
+        }
+    }
+
+    private IPooledObj<T> borrowNew(GenericObjPool<T> keyPool) {
+        IPooledObj<T> t = keyPool.borrowNewPooledObj();
+        if(t == null && reclaimCapacityFor(keyPool)) {
+            t = keyPool.borrowNewPooledObj();
+        }
+
+        return t;
+    }
+
+    private boolean requestNewInBackground(GenericObjPool<T> keyPool) {
+        if(keyPool.requestNewObjInBackground()) {
+            return true;
+        }
+
+        return reclaimCapacityFor(keyPool) && keyPool.requestNewObjInBackground();
+    }
+
+    /**
+     * Called when the shared capacity is released. An object is made in background for the longest waiting borrower
+     * not served yet, and handed over to a waiter of its key once made.
+     */
+    private void handOverCapacity() {
+        for(KeyWaiter<T> waiter : _keyWaiters) {
+            if(_sharedCapacity.isFull()) {
+                return;
+            }
+            if(!waiter._served.compareAndSet(false, true)) {
+                continue;
+            }
+
+            try {
+                if(waiter._pool.requestNewObjInBackground()) {
+                    return;
+                }
+            } catch (RuntimeException e) {
+                //closing, runs on the releasing thread which must not fail
+            }
+            //its key is full, try next
+            waiter._served.set(false);
+        }
+    }
+
+    /**
+     * Destroy an idle object of the coldest key, for the longest waiting borrower not served yet.
+     * The capacity freed is handed over by handOverCapacity().
+     */
+    private void reclaimCapacityForWaiters() {
+        for(KeyWaiter<T> waiter : _keyWaiters) {
+            if(!waiter._served.get() && reclaimCapacityFor(waiter._pool)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Destroy an idle object of the coldest key (least recently used), if the shared capacity is the only limit
+     * for keyPool.
+     * @return false if nothing is destroyed
+     */
+    private boolean reclaimCapacityFor(GenericObjPool<T> keyPool) {
+        if(keyPool.isFull() || !_sharedCapacity.isFull()) {
+            return false;
+        }
+
+        List<KeyPool<T>> triedPools = null;
+        KeyPool<T> coldest;
+        while(true) {
+            coldest = null;
+            for(KeyPool<T> other : _keyPools.values()) {
+                if(other._pool == keyPool
+                        || other._pool.getNumIdle() == 0
+                        || (triedPools != null && triedPools.contains(other))
+                ) {
+                    continue;
+                }
+
+                if(coldest == null || other._lastUseMillis < coldest._lastUseMillis) {
+                    coldest = other;
+                }
+            }
+            if(coldest == null) {
+                return false;
+            }
+
+            if(coldest._pool.destroyIdleObj()) {
+                return true;
+            }
+            //the idle ones are in thread local caches or taken by others just now, try next
+            if(triedPools == null) {
+                triedPools = new ArrayList<KeyPool<T>>();
+            }
+            triedPools.add(coldest);
+        }
+    }
+
+    private KeyPool<T> keyPoolOf(final K key) {
+        assertNotClosing();
+
+        KeyPool<T> keyPool = _keyPools.get(key);
+        if(keyPool != null) {
+            return keyPool;
+        }
+
+        keyPool = _keyPools.computeIfAbsent(key, k -> {
+            final BasePoolConfig keyConfig = makeKeyConfig(k);
+            return new KeyPool<T>(new GenericObjPool<T>(
+                    keyConfig, new KeyObjFactory<K, T>(k, _objFactory), _sharedCapacity, null,
+                    CreationBreaker.newIfEnabled(keyConfig), _stats
+            ));
+        });
+        if(_closingFlg.get()) {
+            //made after close() iterated the pools
+            keyPool._pool.close();
+            assertNotClosing();
+        }
+        return keyPool;
+    }
+
+    private BasePoolConfig makeKeyConfig(K key) {
+        BasePoolConfig keyConfig = _poolConfig.copy();
+        keyConfig.setPoolName(
+                ((_poolConfig.getPoolName() == null)? "" : _poolConfig.getPoolName())
+                + "[" + key + "]"
+        );
+        keyConfig.setMaxTotal(_poolConfig.getMaxTotalPerKey());
+        keyConfig.setMaxIdle(_poolConfig.getMaxIdlePerKey());
+        keyConfig.setMinIdle(_poolConfig.getMinIdlePerKey());
+        //made inside computeIfAbsent(), warm-up must not hold the lock of the map
+        keyConfig.setAsyncWarmUp(true);
+        //priority borrows are only supported by GenericObjPool
+        keyConfig.setPriorityReservations(null);
+
+        return keyConfig;
+    }
+
+    private void assertNotClosing() {
+        if(_closingFlg.get()) {
+            throw new RuntimeException("Pool is closing!");
+        }
+    }
+
+    /**
+     * Pool of one key, and when it was used last
+     */
+    private static final class KeyPool<T> {
+        private final GenericObjPool<T> _pool;
+
+        /**
+         * Number of borrows going on (including the waiting ones), -1 once retired
+         */
+        private final AtomicInteger _borrowerCount = new AtomicInteger(0);
+
+        private volatile long _lastUseMillis = System.currentTimeMillis();
+
+        public KeyPool(GenericObjPool<T> pool) {
+            _pool = pool;
+        }
+
+        public void touch() {
+            final long curTime = System.currentTimeMillis();
+            //written once per millisecond at most, so that borrowers of a hot key do not share the cache line
+            if(_lastUseMillis != curTime) {
+                _lastUseMillis = curTime;
+            }
+        }
+
+        /**
+         * @return false if retired
+         */
+        public boolean enter() {
+            int count;
+            while((count = _borrowerCount.get()) >= 0) {
+                if(_borrowerCount.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public void exit() {
+            _borrowerCount.decrementAndGet();
+        }
+
+        /**
+         * Stop borrowing from the pool, if nobody is borrowing and nothing is borrowed.
+         * @return true if retired by this operation, the caller closes the pool
+         */
+        public boolean retire() {
+            if(_pool.getNumActive() > 0 || !_borrowerCount.compareAndSet(0, -1)) {
+                return false;
+            }
+            //checked after retired, since nothing is borrowed from now on
+            if(_pool.getNumActive() > 0) {
+                _borrowerCount.set(0);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Borrower waiting for the shared capacity
+     */
+    private static final class KeyWaiter<T> {
+        private final GenericObjPool<T> _pool;
+
+        /**
+         * Set once an object is requested for it, so that the capacity freed next goes to another waiter
+         */
+        private final AtomicBoolean _served = new AtomicBoolean(false);
+
+        public KeyWaiter(GenericObjPool<T> pool) {
+            _pool = pool;
+        }
+    }
+
+    /**
+     * Binds the key to IKeyedObjFactory, so that the pool of each key works with a plain IObjFactory.
+     */
+    private static class KeyObjFactory<K, T> implements IObjFactory<T> {
+        private final K _key;
+        private final IKeyedObjFactory<K, T> _keyedFactory;
+
+        public KeyObjFactory(K key, IKeyedObjFactory<K, T> keyedFactory) {
+            _key = key;
+            _keyedFactory = keyedFactory;
+        }
+
+        @Override
+        public T makeObject() {
+            return _keyedFactory.makeObject(_key);
+        }
+
+        @Override
+        public void destroyObject(T obj) {
+            _keyedFactory.destroyObject(_key, obj);
+        }
+
+        @Override
+        public boolean validateObject(T obj) {
+            return _keyedFactory.validateObject(_key, obj);
+        }
+
+        @Override
+        public void activateObject(T obj) {
+            _keyedFactory.activateObject(_key, obj);
+        }
+
+        @Override
+        public void passivateObject(T obj) {
+            _keyedFactory.passivateObject(_key, obj);
+        }
+    }
+}
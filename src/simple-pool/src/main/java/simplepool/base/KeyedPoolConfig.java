@@ -0,0 +1,53 @@
+package simplepool.base;
+
+/**
+ * Config of KeyedObjPool. maxTotal is the limit of all keys, maxIdle and minIdle are not used (see the per-key ones).
+ * The other fields are applied to the pool of each key.
+ */
+public class KeyedPoolConfig extends BasePoolConfig {
+
+	private int _maxTotalPerKey;
+
+	private int _maxIdlePerKey;
+
+	private int _minIdlePerKey;
+
+	/**
+	 * The pool of a key which has not been used (borrowed or returned) for this long, and has nothing borrowed,
+	 * is closed and removed. It is made again on the next borrow of the key. 0 to keep them forever.
+	 */
+	private long _keyIdleTimeoutMillis = 10 * 60 * 1000L;
+
+	public int getMaxTotalPerKey() {
+		return _maxTotalPerKey;
+	}
+
+	public void setMaxTotalPerKey(int maxTotalPerKey) {
+		_maxTotalPerKey = maxTotalPerKey;
+	}
+
+	public int getMaxIdlePerKey() {
+		return _maxIdlePerKey;
+	}
+
+	public void setMaxIdlePerKey(int maxIdlePerKey) {
+		_maxIdlePerKey = maxIdlePerKey;
+	}
+
+	public int getMinIdlePerKey() {
+		return _minIdlePerKey;
+	}
+
+	public void setMinIdlePerKey(int minIdlePerKey) {
+		_minIdlePerKey = minIdlePerKey;
+	}
+
+	public long getKeyIdleTimeoutMillis() {
+		return _keyIdleTimeoutMillis;
+	}
+
+	public void setKeyIdleTimeoutMillis(long keyIdleTimeoutMillis) {
+		_keyIdleTimeoutMillis = keyIdleTimeoutMillis;
+	}
+
+}
@@ -0,0 +1,98 @@
+package simplepool.base;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in nanoseconds, with 4 buckets in each power of 2 (relative error less than 25%).
+ * Recording allocates nothing in steady state, and buckets are LongAdder which are striped under contention.
+ */
+public class LatencyHistogram {
+    private final static int SUB_BUCKET_BITS = 2;
+    private final static int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private final static int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final LongAdder[] _buckets = new LongAdder[BUCKET_COUNT];
+    private final LongAdder _sum = new LongAdder();
+    private final LongAccumulator _max = new LongAccumulator(Math::max, 0);
+
+    public LatencyHistogram() {
+        for(int i = 0; i < BUCKET_COUNT; i++) {
+            _buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        if(nanos < 0) {
+            nanos = 0;
+        }
+
+        _buckets[indexOf(nanos)].increment();
+        _sum.add(nanos);
+        _max.accumulate(nanos);
+    }
+
+    public HistogramSnapshot snapshot() {
+        final long[] counts = new long[BUCKET_COUNT];
+        long count = 0;
+        for(int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = _buckets[i].sum();
+            count += counts[i];
+        }
+
+        return new HistogramSnapshot(
+                count,
+                (count == 0)? 0 : toMicros(_sum.sum() / count),
+                toMicros(percentileOf(counts, count, 0.50)),
+                toMicros(percentileOf(counts, count, 0.90)),
+                toMicros(percentileOf(counts, count, 0.99)),
+                toMicros(percentileOf(counts, count, 0.999)),
+                toMicros(_max.get())
+        );
+    }
+
+    private static long percentileOf(long[] counts, long count, double percentile) {
+        if(count == 0) {
+            return 0;
+        }
+
+        final long rank = (long) Math.ceil(count * percentile);
+        long accumulated = 0;
+        for(int i = 0; i < BUCKET_COUNT; i++) {
+            accumulated += counts[i];
+            if(accumulated >= rank) {
+                return upperBoundOf(i);
+            }
+        }
+
+        return upperBoundOf(BUCKET_COUNT - 1);
+    }
+
+    private static long toMicros(long nanos) {
+        return nanos / 1000L;
+    }
+
+    static int indexOf(long value) {
+        if(value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+
+        final int exp = 63 - Long.numberOfLeadingZeros(value);
+        final int sub = (int) (value >>> (exp - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return ((exp - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + sub;
+    }
+
+    /**
+     * @return max value which falls into the bucket
+     */
+    static long upperBoundOf(int index) {
+        if(index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+
+        final int exp = (index >>> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+        final int sub = index & (SUB_BUCKET_COUNT - 1);
+        //wraps to Long.MAX_VALUE for the last bucket
+        return (((long) (SUB_BUCKET_COUNT + sub + 1)) << (exp - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,62 @@
+package simplepool.base;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed number of slots holding the pooled objects, so that a scan over all of them reads a bounded array instead of
+ * iterating a hash map. add() and remove() search for a slot, they are only called on creation and destruction.
+ */
+final class ObjSlots<E> {
+
+    private final AtomicReferenceArray<E> _slots;
+
+    public ObjSlots(int capacity) {
+        _slots = new AtomicReferenceArray<E>(Math.max(1, capacity));
+    }
+
+    /**
+     * @return false if all slots are taken
+     */
+    public boolean add(E e) {
+        final int capacity = _slots.length();
+        final int start = ThreadLocalRandom.current().nextInt(capacity);
+        int index;
+        for(int i = 0; i < capacity; i++) {
+            index = (start + i) % capacity;
+            if(_slots.get(index) == null && _slots.compareAndSet(index, null, e)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return false if e is not in any slot
+     */
+    public boolean remove(E e) {
+        for(int i = 0; i < _slots.length(); i++) {
+            if(_slots.get(i) == e && _slots.compareAndSet(i, e, null)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void clear() {
+        for(int i = 0; i < _slots.length(); i++) {
+            _slots.set(i, null);
+        }
+    }
+
+    public int capacity() {
+        return _slots.length();
+    }
+
+    /**
+     * @return null if the slot is empty
+     */
+    public E get(int index) {
+        return _slots.get(index);
+    }
+}
@@ -0,0 +1,83 @@
+package simplepool.base;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Timer shared by all pools in the JVM, which runs eviction tests and timeouts of pending borrows.
+ * Number of threads is set by system property "simplepool.scheduler.threads" (default 2),
+ * so hundreds of pools do not need hundreds of mostly sleeping threads.
+ * <br>
+ * Background work of the pools (making objects, eviction and validation) runs on worker threads shared in the same way,
+ * "simplepool.worker.threads" (default max(4, number of processors)). Each pool bounds its own share by BoundedExecutor.
+ */
+final class PoolScheduler {
+
+    private final static int THREAD_COUNT = Math.max(1, Integer.getInteger("simplepool.scheduler.threads", 2));
+
+    private final static ScheduledThreadPoolExecutor _executor;
+    static {
+        _executor = new ScheduledThreadPoolExecutor(THREAD_COUNT, new DaemonThreadFactory("simplepool-scheduler-"));
+        //cancelled timeout tasks should not stay in the work queue until their delay elapses
+        _executor.setRemoveOnCancelPolicy(true);
+    }
+
+    private final static int WORKER_THREAD_COUNT = Math.max(1, Integer.getInteger(
+            "simplepool.worker.threads", Math.max(4, Runtime.getRuntime().availableProcessors())
+    ));
+
+    private final static ThreadPoolExecutor _workerExecutor;
+    static {
+        _workerExecutor = new ThreadPoolExecutor(
+                WORKER_THREAD_COUNT, WORKER_THREAD_COUNT,
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                PoolThreads.newWorkerThreadFactory("simplepool-worker-")
+        );
+        //only alive while there is background work
+        _workerExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    private PoolScheduler() {
+    }
+
+    /**
+     * @param maxParallelism max number of tasks running at once, all of them on the shared worker threads
+     */
+    public static BoundedExecutor newBoundedExecutor(int maxParallelism) {
+        return new BoundedExecutor(_workerExecutor, maxParallelism);
+    }
+
+    public static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return _executor.schedule(task, delay, unit);
+    }
+
+    /**
+     * The task is cancelled through the returned future, and it should never throw exception,
+     * otherwise the later runs are cancelled too.
+     */
+    public static ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long initialDelay, long delay, TimeUnit unit) {
+        return _executor.scheduleWithFixedDelay(task, initialDelay, delay, unit);
+    }
+
+    static class DaemonThreadFactory implements ThreadFactory {
+        private final String _namePrefix;
+        private final AtomicInteger _threadNum = new AtomicInteger(0);
+
+        public DaemonThreadFactory(String namePrefix) {
+            _namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, _namePrefix + _threadNum.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package simplepool.base;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import simplepool.base.abstracts.CreationBreakerState;
+
+/**
+ * Counters and histograms of a pool. Only enabled when BasePoolConfig.statsEnabled is true.
+ * <br>
+ * The stripes of StripedObjPool (and the pools of keys of KeyedObjPool) share one instance, which is registered
+ * once for the whole pool.
+ */
+public class PoolStats implements PoolStatsMXBean {
+
+    private final String _poolName;
+    private final IntSupplier _numIdle;
+    private final IntSupplier _numActive;
+    private final IntSupplier _numWaiters;
+    private final Supplier<CreationBreakerState> _creationBreakerState;
+
+    private final LongAdder _borrowCount = new LongAdder();
+    private final LongAdder _borrowMissCount = new LongAdder();
+    private final LongAdder _borrowNullCount = new LongAdder();
+    private final LongAdder _createdCount = new LongAdder();
+    private final LongAdder _destroyedCount = new LongAdder();
+    private final LongAdder _validationFailureCount = new LongAdder();
+    private final LongAdder _abandonedCount = new LongAdder();
+
+    private final LatencyHistogram _borrowWaitTime = new LatencyHistogram();
+    private final LatencyHistogram _holdTime = new LatencyHistogram();
+    private final LatencyHistogram _makeObjectTime = new LatencyHistogram();
+    private final LatencyHistogram _validateObjectTime = new LatencyHistogram();
+    private final LatencyHistogram _destroyObjectTime = new LatencyHistogram();
+
+    /**
+     * The suppliers read the pool which owns the stats, only after it is registered.
+     */
+    PoolStats(
+            String poolName,
+            IntSupplier numIdle,
+            IntSupplier numActive,
+            IntSupplier numWaiters,
+            Supplier<CreationBreakerState> creationBreakerState
+    ) {
+        _poolName = poolName;
+        _numIdle = numIdle;
+        _numActive = numActive;
+        _numWaiters = numWaiters;
+        _creationBreakerState = creationBreakerState;
+    }
+
+    /**
+     * Register in platform MBeanServer as simplepool:type=(type),name=(poolName)
+     */
+    ObjectName registerMBean(String type) throws JMException {
+        final ObjectName name = new ObjectName("simplepool:type=" + type + ",name=" + ObjectName.quote(_poolName));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        return name;
+    }
+
+    static void unregisterMBean(ObjectName name) throws JMException {
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    }
+
+    void recordBorrow(long waitNanos) {
+        _borrowCount.increment();
+        _borrowWaitTime.record(waitNanos);
+    }
+
+    void recordBorrowMiss() {
+        _borrowMissCount.increment();
+    }
+
+    void recordBorrowNull() {
+        _borrowNullCount.increment();
+    }
+
+    void recordHold(long holdMillis) {
+        _holdTime.record(holdMillis * 1000000L);
+    }
+
+    void recordMakeObject(long nanos) {
+        _createdCount.increment();
+        _makeObjectTime.record(nanos);
+    }
+
+    void recordValidateObject(long nanos, boolean valid) {
+        _validateObjectTime.record(nanos);
+        if(!valid) {
+            _validationFailureCount.increment();
+        }
+    }
+
+    void recordAbandoned() {
+        _abandonedCount.increment();
+    }
+
+    void recordDestroyObject(long nanos) {
+        _destroyedCount.increment();
+        _destroyObjectTime.record(nanos);
+    }
+
+    @Override
+    public String getPoolName() {
+        return _poolName;
+    }
+
+    @Override
+    public int getNumIdle() {
+        return _numIdle.getAsInt();
+    }
+
+    @Override
+    public int getNumActive() {
+        return _numActive.getAsInt();
+    }
+
+    @Override
+    public int getNumWaiters() {
+        return _numWaiters.getAsInt();
+    }
+
+    @Override
+    public CreationBreakerState getCreationBreakerState() {
+        return _creationBreakerState.get();
+    }
+
+    @Override
+    public long getBorrowCount() {
+        return _borrowCount.sum();
+    }
+
+    @Override
+    public long getBorrowMissCount() {
+        return _borrowMissCount.sum();
+    }
+
+    @Override
+    public long getBorrowNullCount() {
+        return _borrowNullCount.sum();
+    }
+
+    @Override
+    public long getCreatedCount() {
+        return _createdCount.sum();
+    }
+
+    @Override
+    public long getDestroyedCount() {
+        return _destroyedCount.sum();
+    }
+
+    @Override
+    public long getValidationFailureCount() {
+        return _validationFailureCount.sum();
+    }
+
+    @Override
+    public long getAbandonedCount() {
+        return _abandonedCount.sum();
+    }
+
+    @Override
+    public HistogramSnapshot getBorrowWaitTime() {
+        return _borrowWaitTime.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getHoldTime() {
+        return _holdTime.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getMakeObjectTime() {
+        return _makeObjectTime.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getValidateObjectTime() {
+        return _validateObjectTime.snapshot();
+    }
+
+    @Override
+    public HistogramSnapshot getDestroyObjectTime() {
+        return _destroyObjectTime.snapshot();
+    }
+}
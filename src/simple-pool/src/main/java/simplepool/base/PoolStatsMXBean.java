@@ -0,0 +1,74 @@
+package simplepool.base;
+
+import simplepool.base.abstracts.CreationBreakerState;
+
+/**
+ * Statistics of a pool, registered in platform MBeanServer as
+ * simplepool:type=(GenericObjPool, StripedObjPool or KeyedObjPool),name=(poolName)
+ * <br>
+ * StripedObjPool and KeyedObjPool register one for all of their stripes or keys.
+ */
+public interface PoolStatsMXBean {
+
+	String getPoolName();
+
+	int getNumIdle();
+
+	int getNumActive();
+
+	/**
+	 * Number of borrowers (threads and futures) waiting for objects
+	 * @return
+	 */
+	int getNumWaiters();
+
+	CreationBreakerState getCreationBreakerState();
+
+	long getBorrowCount();
+
+	/**
+	 * Number of borrows which found no idle object
+	 * @return
+	 */
+	long getBorrowMissCount();
+
+	/**
+	 * Number of borrows which got null (or future completed exceptionally)
+	 * @return
+	 */
+	long getBorrowNullCount();
+
+	long getCreatedCount();
+
+	long getDestroyedCount();
+
+	/**
+	 * Number of objects which failed validation, of testOnBorrow and the eviction test
+	 * @return
+	 */
+	long getValidationFailureCount();
+
+	/**
+	 * Number of objects which were found abandoned (borrowed longer than abandonedTimeoutMillis)
+	 * @return
+	 */
+	long getAbandonedCount();
+
+	/**
+	 * Time from calling borrow until getting the object
+	 * @return
+	 */
+	HistogramSnapshot getBorrowWaitTime();
+
+	/**
+	 * Time from borrowing until returning the object
+	 * @return
+	 */
+	HistogramSnapshot getHoldTime();
+
+	HistogramSnapshot getMakeObjectTime();
+
+	HistogramSnapshot getValidateObjectTime();
+
+	HistogramSnapshot getDestroyObjectTime();
+}
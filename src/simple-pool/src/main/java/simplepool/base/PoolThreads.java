@@ -0,0 +1,30 @@
+package simplepool.base;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Threads used by pools for background work (making objects, eviction and validation).
+ * <br>
+ * There is another version of this class in src/main/java21 (META-INF/versions/21 of the multi-release jar),
+ * which runs the background work on virtual threads.
+ */
+final class PoolThreads {
+
+    private PoolThreads() {
+    }
+
+    /**
+     * Daemon platform threads
+     */
+    public static ThreadFactory newWorkerThreadFactory(String namePrefix) {
+        return new PoolScheduler.DaemonThreadFactory(namePrefix);
+    }
+
+    /**
+     * Whether or not current thread keeps returned objects in thread local cache (BasePoolConfig.threadLocalCacheSize).
+     * Always true before JDK 21.
+     */
+    public static boolean isThreadLocalCacheUsable() {
+        return true;
+    }
+}
@@ -0,0 +1,66 @@
+package simplepool.base;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Capacity shared by several pools (e.g. per-key pools of KeyedObjPool), on top of maxTotal of each pool.
+ */
+final class SharedCapacity {
+
+    private final int _maxTotal;
+    private final AtomicInteger _totalCount = new AtomicInteger(0);
+
+    /**
+     * Called after capacity is released, on the releasing thread. Null if nobody listens.
+     */
+    private final Runnable _releaseListener;
+
+    public SharedCapacity(int maxTotal) {
+        this(maxTotal, null);
+    }
+
+    public SharedCapacity(int maxTotal, Runnable releaseListener) {
+        _maxTotal = maxTotal;
+        _releaseListener = releaseListener;
+    }
+
+    /**
+     * @return false if full
+     */
+    public boolean reserve() {
+        return reserve(1) == 1;
+    }
+
+    /**
+     * Reserve as many as possible, up to count.
+     * @return number reserved, 0 if full
+     */
+    public int reserve(int count) {
+        int cur;
+        int reserved;
+        while((cur = _totalCount.get()) < _maxTotal) {
+            reserved = Math.min(count, _maxTotal - cur);
+            if(_totalCount.compareAndSet(cur, cur + reserved)) {
+                return reserved;
+            }
+        }
+
+        return 0;
+    }
+
+    public void release(int count) {
+        _totalCount.addAndGet(-count);
+        if(_releaseListener != null) {
+            _releaseListener.run();
+        }
+    }
+
+    public boolean isFull() {
+        return _totalCount.get() >= _maxTotal;
+    }
+
+    public int getTotalCount() {
+        return _totalCount.get();
+    }
+
+}
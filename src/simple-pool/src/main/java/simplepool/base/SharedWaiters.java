@@ -0,0 +1,150 @@
+package simplepool.base;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import simplepool.base.abstracts.IPooledObj;
+
+/**
+ * Waiters shared by several pools (e.g. stripes of StripedObjPool). An object made or returned in any of the pools
+ * is handed over to the borrower who waits longest, whichever pool it belongs to.
+ */
+final class SharedWaiters<T> {
+
+    /**
+     * Idle object (not claimed yet) and the pool it belongs to
+     */
+    static final class Handoff<T> {
+
+        private final GenericObjPool<T> _pool;
+        private final IPooledObj<T> _pooledObj;
+
+        Handoff(GenericObjPool<T> pool, IPooledObj<T> pooledObj) {
+            _pool = pool;
+            _pooledObj = pooledObj;
+        }
+
+        public GenericObjPool<T> getPool() {
+            return _pool;
+        }
+
+        public IPooledObj<T> getPooledObj() {
+            return _pooledObj;
+        }
+    }
+
+    private final Handoff<T> _closingSignal = new Handoff<T>(null, null);
+
+    /**
+     * Waiters are consumers. Objects added while nobody is polling (see add()) stay in it until taken by poll().
+     */
+    private final LinkedTransferQueue<Handoff<T>> _handoffQueue = new LinkedTransferQueue<Handoff<T>>();
+
+    /**
+     * Counted before the waiter checks idle objects for the last time, so that no object is missed meanwhile
+     */
+    private final AtomicInteger _waiterCount = new AtomicInteger(0);
+
+    /**
+     * Used by the pools as their own async waiters, so that any of them completes the futures
+     */
+    private final ConcurrentLinkedQueue<CompletableFuture<T>> _asyncWaiters =
+            new ConcurrentLinkedQueue<CompletableFuture<T>>();
+    private final AtomicInteger _asyncWaiterCount = new AtomicInteger(0);
+
+    /**
+     * Used by the pools as their own batch waiters, so that a batch waits for the objects of all of them
+     */
+    private final BatchWaiters _batchWaiters = new BatchWaiters();
+
+    public void beginWait() {
+        _waiterCount.incrementAndGet();
+    }
+
+    public void endWait() {
+        _waiterCount.decrementAndGet();
+    }
+
+    public boolean hasWaiters() {
+        return _waiterCount.get() > 0;
+    }
+
+    public void addAsyncWaiter(CompletableFuture<T> future) {
+        _asyncWaiterCount.incrementAndGet();
+        _asyncWaiters.add(future);
+    }
+
+    /**
+     * @return false if it is taken by a pool already
+     */
+    public boolean removeAsyncWaiter(CompletableFuture<T> future) {
+        if(_asyncWaiters.remove(future)) {
+            _asyncWaiterCount.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    ConcurrentLinkedQueue<CompletableFuture<T>> getAsyncWaiters() {
+        return _asyncWaiters;
+    }
+
+    AtomicInteger getAsyncWaiterCount() {
+        return _asyncWaiterCount;
+    }
+
+    BatchWaiters getBatchWaiters() {
+        return _batchWaiters;
+    }
+
+    /**
+     * @param t IDLE and counted in idle count of pool
+     * @return true if it is handed over to a waiter directly
+     */
+    public boolean tryTransfer(GenericObjPool<T> pool, IPooledObj<T> t) {
+        return _handoffQueue.hasWaitingConsumer() && _handoffQueue.tryTransfer(new Handoff<T>(pool, t));
+    }
+
+    /**
+     * Enqueue an idle object for the waiters which are counted but not polling yet.
+     */
+    public void add(GenericObjPool<T> pool, IPooledObj<T> t) {
+        _handoffQueue.add(new Handoff<T>(pool, t));
+    }
+
+    /**
+     * @return null if nothing is enqueued
+     * @throws RuntimeException if closing
+     */
+    public Handoff<T> poll() {
+        return checkClosing(_handoffQueue.poll());
+    }
+
+    /**
+     * @return null if nothing is handed over after timeout
+     * @throws RuntimeException if closing
+     */
+    public Handoff<T> poll(long timeoutNanos) throws InterruptedException {
+        return checkClosing(_handoffQueue.poll(timeoutNanos, TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * Wake up all waiters, the current ones and the ones polling later.
+     */
+    public void close() {
+        _handoffQueue.add(_closingSignal);
+        _batchWaiters.close();
+    }
+
+    private Handoff<T> checkClosing(Handoff<T> h) {
+        if(h == _closingSignal) {
+            //passed on to the next waiter
+            _handoffQueue.add(_closingSignal);
+            throw new RuntimeException("Pool is closing!");
+        }
+        return h;
+    }
+}
@@ -0,0 +1,649 @@
+package simplepool.base;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import javax.management.ObjectName;
+
+import simplepool.base.abstracts.CreationBreakerState;
+import simplepool.base.abstracts.IObjFactory;
+import simplepool.base.abstracts.IObjLease;
+import simplepool.base.abstracts.IObjPool;
+import simplepool.base.abstracts.IPoolEventListener;
+import simplepool.base.abstracts.IPooledObj;
+import simplepool.base.abstracts.PoolCloseReport;
+import simplepool.base.abstracts.PoolEventType;
+
+/**
+ * Pool which is split into several stripes (GenericObjPool), to reduce contention on many-core machines.
+ * maxTotal, maxIdle and minIdle are split across the stripes, so the sum of them never exceeds
+ * the configured values.
+ * <br>
+ * Each thread borrows from its own stripe first. When that one is empty, the idle objects of the other stripes
+ * are taken before making a new one. Waiting borrowers wait for all stripes, an object made or returned in any stripe
+ * is handed over to the one who waits longest.
+ */
+public class StripedObjPool<T> implements IObjPool<T> {
+
+    private final GenericObjPool<T>[] _stripes;
+    private final SharedWaiters<T> _sharedWaiters = new SharedWaiters<T>();
+    private final BatchWaiters _batchWaiters = _sharedWaiters.getBatchWaiters();
+
+    private final String _poolName;
+    private final IPoolEventListener _eventListener;
+    private final int _maxTotal;
+    private final int _maxWaiters;
+    private final CompletableFuture<Void> _readyFuture;
+    private final CreationBreaker _creationBreaker;
+    private final AtomicInteger _waiterCount = new AtomicInteger(0);
+
+    /**
+     * Shared by all stripes, null if BasePoolConfig.statsEnabled is false
+     */
+    private final PoolStats _stats;
+    private final ObjectName _statsMBeanName;
+
+    private final StripeBorrower<T, T> _objBorrower;
+    private final StripeBorrower<T, IObjLease<T>> _leaseBorrower;
+
+    /**
+     * Number of stripes is Runtime.getRuntime().availableProcessors()
+     * @param poolConfig
+     * @param objFactory
+     */
+    public StripedObjPool(
+            BasePoolConfig poolConfig,
+            IObjFactory<T> objFactory
+    ) {
+        this(poolConfig, objFactory, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     *
+     * @param poolConfig
+     * @param objFactory
+     * @param stripeCount it is decreased to maxTotal if greater than that.
+     */
+    public StripedObjPool(
+            BasePoolConfig poolConfig,
+            IObjFactory<T> objFactory,
+            int stripeCount
+    ) {
+        final int count = Math.max(1, Math.min(stripeCount, poolConfig.getMaxTotal()));
+
+        _poolName = (poolConfig.getPoolName() == null)? "" : poolConfig.getPoolName();
+        _eventListener = poolConfig.getEventListener();
+        _maxTotal = poolConfig.getMaxTotal();
+        _maxWaiters = poolConfig.getMaxWaiters();
+
+        //generic array creation, the elements are all GenericObjPool<T>
+        @SuppressWarnings("unchecked")
+        final GenericObjPool<T>[] stripes = (GenericObjPool<T>[]) new GenericObjPool<?>[count];
+        _stripes = stripes;
+        _objBorrower = new StripeBorrower<T, T>() {
+            @Override
+            protected T activate(GenericObjPool<T> stripe, IPooledObj<T> t) {
+                return stripe.activateBorrowedObj(t);
+            }
+        };
+        _leaseBorrower = new StripeBorrower<T, IObjLease<T>>() {
+            @Override
+            protected IObjLease<T> activate(GenericObjPool<T> stripe, IPooledObj<T> t) {
+                return stripe.activateBorrowedLease(t);
+            }
+        };
+
+        //stripes warm up together, and the constructor waits for all of them unless asyncWarmUp is true
+        final CompletableFuture<?>[] readyFutures = new CompletableFuture<?>[count];
+        //stripes share one backend, so they share the breaker too
+        _creationBreaker = CreationBreaker.newIfEnabled(poolConfig);
+        _stats = poolConfig.isStatsEnabled()?
+                new PoolStats(
+                        _poolName, this::getNumIdle, this::getNumActive, this::getNumWaiters,
+                        this::getCreationBreakerState
+                ) : null;
+        for(int i = 0; i < count; i++) {
+            _stripes[i] = new GenericObjPool<T>(
+                    makeStripeConfig(poolConfig, i, count), objFactory, null, _sharedWaiters, _creationBreaker, _stats
+            );
+            readyFutures[i] = _stripes[i].getReadyFuture();
+        }
+        _readyFuture = CompletableFuture.allOf(readyFutures);
+        if(!poolConfig.isAsyncWarmUp()) {
+            try {
+                _readyFuture.join();
+            } catch (CompletionException e) {
+                //reported by events and readyFuture
+            }
+        }
+
+        //one MBean for all stripes, registered once they are all made
+        _statsMBeanName = (_stats != null)? registerStatsMBean() : null;
+    }
+
+    @Override
+    public CompletableFuture<Void> getReadyFuture() {
+        return _readyFuture.thenApply(Function.<Void>identity());
+    }
+
+    @Override
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        try {
+            _readyFuture.get(timeout, unit);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Warm-up failed", e.getCause());
+        }
+    }
+
+    @Override
+    public T borrowObject() {
+        try {
+            return borrow(_objBorrower, false, 0);
+        } catch (InterruptedException e) {
+            //never happens without waiting
+            return null;
+        }
+    }
+
+    @Override
+    public T borrowObject(long timeout, TimeUnit unit) throws InterruptedException {
+        return borrow(_objBorrower, true, unit.toNanos(timeout));
+    }
+
+    @Override
+    public IObjLease<T> borrowLease() {
+        try {
+            return borrow(_leaseBorrower, false, 0);
+        } catch (InterruptedException e) {
+            //never happens without waiting
+            return null;
+        }
+    }
+
+    @Override
+    public IObjLease<T> borrowLease(long timeout, TimeUnit unit) throws InterruptedException {
+        return borrow(_leaseBorrower, true, unit.toNanos(timeout));
+    }
+
+    /**
+     * Takes from all stripes, home stripe first. None of the objects is held while waiting, and the wait ends only when
+     * n objects could be taken from all stripes together.
+     */
+    @Override
+    public List<T> borrowObjects(int n, long timeout, TimeUnit unit) throws InterruptedException {
+        if(n <= 0) {
+            return new ArrayList<T>(0);
+        }
+        if(n > _maxTotal) {
+            return null;
+        }
+
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        final int home = homeStripeIndex();
+
+        final List<List<IPooledObj<T>>> stripeObjs = new ArrayList<List<IPooledObj<T>>>(_stripes.length);
+        for(int i = 0; i < _stripes.length; i++) {
+            stripeObjs.add(new ArrayList<IPooledObj<T>>());
+        }
+
+        boolean waiting = false;
+        try {
+            int total;
+            int index;
+            int size;
+            SharedWaiters.Handoff<T> h;
+            while(true) {
+                //the one got by waiting is already in the list of its stripe
+                total = 0;
+                for(List<IPooledObj<T>> ts : stripeObjs) {
+                    total += ts.size();
+                }
+                try {
+                    //enqueued for the waiters, they are invisible to takePooledObjs()
+                    while(total < n && (h = _sharedWaiters.poll()) != null) {
+                        if(claimHandedOver(stripeObjs, h)) {
+                            total++;
+                        }
+                    }
+                    for(int i = 0; i < _stripes.length && total < n; i++) {
+                        index = (home + i) % _stripes.length;
+                        size = stripeObjs.get(index).size();
+                        _stripes[index].takePooledObjs(stripeObjs.get(index), size + n - total);
+                        total += stripeObjs.get(index).size() - size;
+                    }
+                } catch (RuntimeException e) {
+                    putBackStripeObjs(stripeObjs);
+                    throw e;
+                }
+
+                if(total == n) {
+                    final List<T> objs = new ArrayList<T>(n);
+                    for(int i = 0; i < _stripes.length; i++) {
+                        if(!stripeObjs.get(i).isEmpty()) {
+                            objs.addAll(_stripes[i].activateBorrowedObjs(stripeObjs.get(i)));
+                        }
+                    }
+                    return objs;
+                }
+                putBackStripeObjs(stripeObjs);
+
+                if(!waiting) {
+                    waiting = true;
+                    _batchWaiters.beginWait();
+                    if(_waiterCount.incrementAndGet() > _maxWaiters) {
+                        return null;
+                    }
+                }
+
+                //wake up only when n objects could be taken from all stripes, not on each single one returned
+                if(!_batchWaiters.await(
+                        () -> getAvailableCount() >= n, deadline - System.nanoTime(), TimeUnit.NANOSECONDS
+                )) {
+                    return null;
+                }
+            }
+        } finally {
+            if(waiting) {
+                _batchWaiters.endWait();
+                _waiterCount.decrementAndGet();
+            }
+        }
+    }
+
+    @Override
+    public CompletableFuture<T> borrowAsync() {
+        return borrowAsync(0, null);
+    }
+
+    /**
+     * Only idle objects are taken on current thread. Otherwise the future waits for all stripes as one waiter,
+     * and at most one object is made in background for it.
+     */
+    @Override
+    public CompletableFuture<T> borrowAsync(long timeout, TimeUnit unit) {
+        final int home = homeStripeIndex();
+        T obj = borrowIdle(_objBorrower, home);
+        if(obj != null) {
+            return CompletableFuture.completedFuture(obj);
+        }
+
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        if(_creationBreaker != null && _creationBreaker.isRejecting() && getNumActive() == 0) {
+            //nothing to be returned either
+            future.completeExceptionally(new CreationBreakerOpenException(_poolName));
+            return future;
+        }
+        if(_waiterCount.incrementAndGet() > _maxWaiters) {
+            _waiterCount.decrementAndGet();
+            future.completeExceptionally(new RejectedExecutionException("Too many waiters"));
+            return future;
+        }
+        _sharedWaiters.addAsyncWaiter(future);
+        //the new one is handed over to the longest waiter, not necessarily this one
+        requestNewInBackground(home);
+
+        if(unit != null) {
+            final ScheduledFuture<?> timeoutTask = PoolScheduler.schedule(
+                    () -> future.completeExceptionally(new TimeoutException()),
+                    timeout, unit
+            );
+            future.whenComplete((o, e) -> timeoutTask.cancel(false));
+        }
+        future.whenComplete((o, e) -> {
+            _waiterCount.decrementAndGet();
+            //cancelled or timeout
+            if(e != null) {
+                _sharedWaiters.removeAsyncWaiter(future);
+            }
+        });
+
+        //objects returned (or enqueued for waiters) before this future was added
+        obj = borrowIdle(_objBorrower, home);
+        if(obj != null) {
+            if(_sharedWaiters.removeAsyncWaiter(future) && future.complete(obj)) {
+                return future;
+            }
+            //completed by a stripe meanwhile
+            returnObject(obj);
+        }
+        return future;
+    }
+
+    @Override
+    public void returnObject(T obj) {
+        final int home = homeStripeIndex();
+        for(int i = 0; i < _stripes.length; i++) {
+            //most objects are returned by the thread which borrowed them from its home stripe
+            if(_stripes[(home + i) % _stripes.length].tryReturnObject(obj)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Each stripe returns the objects belonging to it in one batch, home stripe first.
+     */
+    @Override
+    public void returnObjects(Collection<T> objs) {
+        final int home = homeStripeIndex();
+        Collection<T> rest = objs;
+        List<T> others;
+        for(int i = 0; i < _stripes.length && !rest.isEmpty(); i++) {
+            others = new ArrayList<T>();
+            _stripes[(home + i) % _stripes.length].returnOwnedObjects(rest, others);
+            rest = others;
+        }
+    }
+
+    @Override
+    public void invalidateObject(T obj) {
+        final int home = homeStripeIndex();
+        for(int i = 0; i < _stripes.length; i++) {
+            if(_stripes[(home + i) % _stripes.length].tryInvalidateObject(obj)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public int getNumIdle() {
+        int num = 0;
+        for(GenericObjPool<T> stripe : _stripes) {
+            num += stripe.getNumIdle();
+        }
+        return num;
+    }
+
+    @Override
+    public int getNumActive() {
+        int num = 0;
+        for(GenericObjPool<T> stripe : _stripes) {
+            num += stripe.getNumActive();
+        }
+        return num;
+    }
+
+    /**
+     * Number of borrowers (threads and futures) waiting for objects of any stripe
+     */
+    public int getNumWaiters() {
+        return _waiterCount.get();
+    }
+
+    @Override
+    public CreationBreakerState getCreationBreakerState() {
+        return (_creationBreaker == null)? CreationBreakerState.CLOSED : _creationBreaker.getState();
+    }
+
+    /**
+     * @return null if BasePoolConfig.statsEnabled is false
+     */
+    public PoolStatsMXBean getStats() {
+        return _stats;
+    }
+
+    public int getStripeCount() {
+        return _stripes.length;
+    }
+
+    @Override
+    public void close() {
+        close(0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * All stripes stop borrowing at once, and then they are drained one by one until the same deadline.
+     */
+    @Override
+    public PoolCloseReport close(long drainTimeout, TimeUnit unit) {
+        final long deadlineNanos = System.nanoTime() + unit.toNanos(drainTimeout);
+        final boolean[] closing = new boolean[_stripes.length];
+        boolean closedAlready = true;
+        for(int i = 0; i < _stripes.length; i++) {
+            try {
+                closing[i] = _stripes[i].beginClose();
+                closedAlready &= !closing[i];
+            } catch (Throwable e) {
+                _eventListener.onEvent(PoolEventType.ERROR, _poolName, null, "Failed to close stripe", e);
+            }
+        }
+        _sharedWaiters.close();
+        if(closedAlready) {
+            return null;
+        }
+
+        PoolCloseReport report = new PoolCloseReport(0, 0, 0, 0);
+        for(int i = 0; i < _stripes.length; i++) {
+            if(!closing[i]) {
+                continue;
+            }
+            try {
+                report = report.add(_stripes[i].drainAndClose(deadlineNanos));
+            } catch (Throwable e) {
+                _eventListener.onEvent(PoolEventType.ERROR, _poolName, null, "Failed to close stripe", e);
+            }
+        }
+        unregisterStatsMBean();
+        return report;
+    }
+
+    private ObjectName registerStatsMBean() {
+        try {
+            return _stats.registerMBean("StripedObjPool");
+        } catch (Throwable e) {
+            _eventListener.onEvent(PoolEventType.ERROR, _poolName, null, "Failed to register PoolStatsMXBean", e);
+            return null;
+        }
+    }
+
+    private void unregisterStatsMBean() {
+        if(_statsMBeanName == null) {
+            return;
+        }
+
+        try {
+            PoolStats.unregisterMBean(_statsMBeanName);
+        } catch (Throwable e) {
+            _eventListener.onEvent(PoolEventType.ERROR, _poolName, null, "Failed to unregister PoolStatsMXBean", e);
+        }
+    }
+
+    /**
+     * Order of trying: idle of home stripe, idle of other stripes, make new in home stripe,
+     * make new in other stripes, and then wait for all stripes.
+     * <br>
+     * When waiting is allowed, new objects are made in background instead of on current thread.
+     */
+    private <R> R borrow(StripeBorrower<T, R> borrower, boolean wait, long timeoutNanos) throws InterruptedException {
+        final long deadline = System.nanoTime() + timeoutNanos;
+        final int home = homeStripeIndex();
+
+        boolean waiting = false;
+        boolean newRequested = false;
+        try {
+            R r;
+            long remaining;
+            while(true) {
+                r = borrowIdle(borrower, home);
+                if(r == null) {
+                    if(!wait) {
+                        r = borrowNew(borrower, home);
+                    } else if(!newRequested) {
+                        newRequested = true;
+                        requestNewInBackground(home);
+                    }
+                }
+                if(r != null) {
+                    return r;
+                }
+
+                remaining = deadline - System.nanoTime();
+                if(!wait || remaining <= 0) {
+                    return null;
+                }
+
+                if(!waiting) {
+                    waiting = true;
+                    _sharedWaiters.beginWait();
+                    if(_waiterCount.incrementAndGet() > _maxWaiters) {
+                        return null;
+                    }
+                    //objects added before this waiter was counted
+                    continue;
+                }
+
+                r = borrower.claimHandedOver(_sharedWaiters.poll(remaining));
+                if(r != null) {
+                    return r;
+                }
+            }
+        } finally {
+            if(waiting) {
+                _sharedWaiters.endWait();
+                _waiterCount.decrementAndGet();
+            }
+        }
+    }
+
+    private <R> R borrowIdle(StripeBorrower<T, R> borrower, int home) {
+        R r;
+        //enqueued for the waiters, they are invisible to the stripes
+        SharedWaiters.Handoff<T> h;
+        while((h = _sharedWaiters.poll()) != null) {
+            r = borrower.claimHandedOver(h);
+            if(r != null) {
+                return r;
+            }
+        }
+
+        for(int i = 0; i < _stripes.length; i++) {
+            r = borrower.borrowIdle(_stripes[(home + i) % _stripes.length]);
+            if(r != null) {
+                return r;
+            }
+        }
+
+        return null;
+    }
+
+    private void requestNewInBackground(int home) {
+        for(int i = 0; i < _stripes.length; i++) {
+            if(_stripes[(home + i) % _stripes.length].requestNewObjInBackground()) {
+                return;
+            }
+        }
+    }
+
+    private <R> R borrowNew(StripeBorrower<T, R> borrower, int home) {
+        R r;
+        for(int i = 0; i < _stripes.length; i++) {
+            r = borrower.borrowNew(_stripes[(home + i) % _stripes.length]);
+            if(r != null) {
+                return r;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * @return false if it is taken by others, or expired or failed in testOnBorrow
+     */
+    private boolean claimHandedOver(List<List<IPooledObj<T>>> stripeObjs, SharedWaiters.Handoff<T> h) {
+        final IPooledObj<T> t = h.getPool().claimHandedOverPooledObj(h.getPooledObj());
+        if(t == null) {
+            return false;
+        }
+
+        for(int i = 0; i < _stripes.length; i++) {
+            if(_stripes[i] == h.getPool()) {
+                stripeObjs.get(i).add(t);
+                break;
+            }
+        }
+        return true;
+    }
+
+    private int getAvailableCount() {
+        int count = 0;
+        for(GenericObjPool<T> stripe : _stripes) {
+            count += stripe.getAvailableCount();
+        }
+        return count;
+    }
+
+    private void putBackStripeObjs(List<List<IPooledObj<T>>> stripeObjs) {
+        for(int i = 0; i < _stripes.length; i++) {
+            _stripes[i].putBackPooledObjs(stripeObjs.get(i));
+        }
+    }
+
+    private int homeStripeIndex() {
+        return (int) (Thread.currentThread().getId() % _stripes.length);
+    }
+
+    private static BasePoolConfig makeStripeConfig(BasePoolConfig poolConfig, int index, int count) {
+        BasePoolConfig stripeConfig = poolConfig.copy();
+        stripeConfig.setPoolName(
+                ((poolConfig.getPoolName() == null)? "" : poolConfig.getPoolName())
+                + "#" + index
+        );
+        stripeConfig.setMaxTotal(splitOf(poolConfig.getMaxTotal(), index, count));
+        stripeConfig.setMaxIdle(splitOf(poolConfig.getMaxIdle(), index, count));
+        stripeConfig.setMinIdle(splitOf(poolConfig.getMinIdle(), index, count));
+        stripeConfig.setWarmUpParallelism(Math.max(1, splitOf(poolConfig.getWarmUpParallelism(), index, count)));
+        stripeConfig.setAsyncWarmUp(true);
+        //priority borrows are only supported by GenericObjPool
+        stripeConfig.setPriorityReservations(null);
+        //not split, StripedObjPool counts the waiters of all stripes
+        stripeConfig.setMaxWaiters(Integer.MAX_VALUE);
+
+        return stripeConfig;
+    }
+
+    /**
+     * The remainder goes to the first stripes, so the sum of all parts is exactly equal to total.
+     */
+    private static int splitOf(int total, int index, int count) {
+        return total / count + ((index < total % count)? 1 : 0);
+    }
+
+    /**
+     * Borrows from one stripe, and activates the object as the result type.
+     */
+    private static abstract class StripeBorrower<T, R> {
+
+        public R borrowIdle(GenericObjPool<T> stripe) {
+            IPooledObj<T> t = stripe.borrowIdlePooledObj();
+            return (t == null)? null : activate(stripe, t);
+        }
+
+        public R borrowNew(GenericObjPool<T> stripe) {
+            IPooledObj<T> t = stripe.borrowNewPooledObj();
+            return (t == null)? null : activate(stripe, t);
+        }
+
+        /**
+         * @param h null if nothing is handed over
+         */
+        public R claimHandedOver(SharedWaiters.Handoff<T> h) {
+            IPooledObj<T> t = (h == null)? null : h.getPool().claimHandedOverPooledObj(h.getPooledObj());
+            return (t == null)? null : activate(h.getPool(), t);
+        }
+
+        protected abstract R activate(GenericObjPool<T> stripe, IPooledObj<T> t);
+    }
+}
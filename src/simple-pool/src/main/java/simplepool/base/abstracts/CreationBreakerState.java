@@ -0,0 +1,29 @@
+package simplepool.base.abstracts;
+
+/**
+ * State of the circuit breaker around object creation (BasePoolConfig.creationBreakerThreshold).
+ * <pre>
+ * CLOSED    --N consecutive failures--> OPEN
+ * OPEN      --backoff elapsed, one creation as probe--> HALF_OPEN
+ * HALF_OPEN --probe made--> CLOSED
+ *           --probe failed--> OPEN (backoff doubled)
+ * </pre>
+ */
+public enum CreationBreakerState {
+
+	/**
+	 * Objects are made as usual. Always this state if the breaker is disabled.
+	 */
+	CLOSED,
+
+	/**
+	 * Creation fails fast with CreationBreakerOpenException until the backoff elapses.
+	 */
+	OPEN,
+
+	/**
+	 * One probe creation is running, the others still fail fast.
+	 */
+	HALF_OPEN
+
+}
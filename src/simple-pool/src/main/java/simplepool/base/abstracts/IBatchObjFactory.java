@@ -0,0 +1,17 @@
+package simplepool.base.abstracts;
+
+import java.util.List;
+
+/**
+ * Optional extension of IObjFactory, for factories which can validate several objects in one call
+ * (e.g. one round-trip for many connections).
+ */
+public interface IBatchObjFactory<T> extends IObjFactory<T> {
+
+	/**
+	 * @param objs
+	 * @return results in the same order as objs
+	 */
+	boolean[] validateObjects(List<T> objs);
+
+}
@@ -0,0 +1,18 @@
+package simplepool.base.abstracts;
+
+/**
+ * Same as IObjFactory, but objects are made for a key (e.g. connections to one backend host).
+ */
+public interface IKeyedObjFactory<K, T> {
+
+	T makeObject(K key);
+	
+	void destroyObject(K key, T obj);
+	
+	boolean validateObject(K key, T obj);
+	
+	void activateObject(K key, T obj);
+	
+	void passivateObject(K key, T obj);
+	
+}
@@ -0,0 +1,72 @@
+package simplepool.base.abstracts;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of objects grouped by key. All public methods should be thread safe
+ */
+public interface IKeyedObjPool<K, T> {
+
+	/**
+	 * Take an idle object of the key, or make new one.
+	 * @return null if there is no idle object and no capacity left.
+	 */
+	T borrowObject(K key);
+
+	/**
+	 * Same as borrowObject(key), but wait until an object of the key is available.
+	 * @param timeout max time to wait
+	 * @param unit unit of timeout
+	 * @return null if there is no object available after timeout, or too many threads are waiting already.
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	T borrowObject(K key, long timeout, TimeUnit unit) throws InterruptedException;
+
+	/**
+	 * Return object to idle queue of the key
+	 * @param key
+	 * @param obj
+	 */
+	void returnObject(K key, T obj);
+
+	/**
+	 * assigned object will be disposed.
+	 * @param key
+	 * @param obj
+	 */
+	void invalidateObject(K key, T obj);
+
+	/**
+	 * Number of idle objects of all keys
+	 * @return
+	 */
+	int getNumIdle();
+
+	/**
+	 * Number of active objects of all keys
+	 * @return
+	 */
+	int getNumActive();
+
+	int getNumIdle(K key);
+
+	int getNumActive(K key);
+
+	/**
+	 * Each key has its own creation circuit breaker
+	 * @return CLOSED if the pool of the key is not made yet
+	 */
+	CreationBreakerState getCreationBreakerState(K key);
+
+	/**
+	 * After pool closed, all objects are disposed. Methods below will be thrown exception:
+	 * borrowObject(key), returnObject(key, obj), invalidateObject(key, obj)
+	 */
+	void close();
+
+	/**
+	 * Same as IObjPool.close(drainTimeout, unit), pools of all keys are drained until the same deadline.
+	 * @return null if the pool is closed already
+	 */
+	PoolCloseReport close(long drainTimeout, TimeUnit unit);
+}
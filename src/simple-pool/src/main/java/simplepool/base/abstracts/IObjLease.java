@@ -0,0 +1,32 @@
+package simplepool.base.abstracts;
+
+/**
+ * A borrowed object which knows its pooled wrapper, so that returning it needs no lookup in pool.
+ * Each lease can be closed (or invalidated) only once, the later calls are ignored.
+ * <br>
+ * Usage:
+ * <pre>
+ * try (IObjLease&lt;T&gt; lease = pool.borrowLease()) {
+ *     lease.getObject() ...
+ * }
+ * </pre>
+ */
+public interface IObjLease<T> extends AutoCloseable {
+
+	/**
+	 * The borrowed object, which should not be used after this lease is closed.
+	 * @return
+	 */
+	T getObject();
+
+	/**
+	 * Same as IObjPool.invalidateObject(obj)
+	 */
+	void invalidate();
+
+	/**
+	 * Same as IObjPool.returnObject(obj)
+	 */
+	@Override
+	void close();
+}
@@ -1,5 +1,10 @@
 package simplepool.base.abstracts;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
 /**
  * @author XingGu_Liu
  * 
@@ -13,13 +18,93 @@ public interface IObjPool<T> {
 	 * @return null if there is no idle object.
 	 */
 	T borrowObject();
+
+	/**
+	 * Take an object from idle queue, or wait until one is returned by other thread.
+	 * A returned object is handed over to the thread which has been waiting longest.
+	 * @param timeout max time to wait
+	 * @param unit unit of timeout
+	 * @return null if there is no idle object after timeout, or too many threads are waiting already.
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	T borrowObject(long timeout, TimeUnit unit) throws InterruptedException;
+
+	/**
+	 * Same as borrowObject(), but the object is wrapped in a lease which returns it on close().
+	 * @return null if there is no idle object.
+	 */
+	IObjLease<T> borrowLease();
+
+	/**
+	 * Same as borrowObject(timeout, unit), but the object is wrapped in a lease which returns it on close().
+	 * @return null if there is no idle object after timeout, or too many threads are waiting already.
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	IObjLease<T> borrowLease(long timeout, TimeUnit unit) throws InterruptedException;
+
+	/**
+	 * Borrow n objects at once, all or nothing. None of them is held while waiting, so that borrowers of batches
+	 * never block each other by holding a part of what they need.
+	 * @param n number of objects
+	 * @param timeout max time to wait
+	 * @param unit unit of timeout
+	 * @return null if n objects are not available after timeout, n is greater than maxTotal,
+	 * or too many threads are waiting already.
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	List<T> borrowObjects(int n, long timeout, TimeUnit unit) throws InterruptedException;
+
+	/**
+	 * Same as borrowAsync(timeout, unit), but never times out.
+	 * @return
+	 */
+	CompletableFuture<T> borrowAsync();
+
+	/**
+	 * Borrow without blocking current thread.
+	 * The future is completed at once if there is idle object, otherwise it is completed when an object is returned
+	 * (by the thread which returns it) or made. Cancelling the future gives up waiting.
+	 * @param timeout max time to wait
+	 * @param unit unit of timeout
+	 * @return future which is completed exceptionally with
+	 * <br>
+	 *      TimeoutException:           no object is available after timeout
+	 * <br>
+	 *      RejectedExecutionException: too many borrowers are waiting already
+	 * <br>
+	 *      RuntimeException:           pool is closing
+	 */
+	CompletableFuture<T> borrowAsync(long timeout, TimeUnit unit);
 	
+	/**
+	 * Completed when warm-up (making the initial minIdle objects) is finished. Borrowing works before that anyway,
+	 * the objects made so far are served.
+	 * @return future which is completed exceptionally if no object could be made, or the pool is closed during warm-up
+	 */
+	CompletableFuture<Void> getReadyFuture();
+
+	/**
+	 * Wait for the future of getReadyFuture()
+	 * @param timeout max time to wait
+	 * @param unit unit of timeout
+	 * @return false if warm-up is not finished after timeout
+	 * @throws InterruptedException if interrupted while waiting
+	 * @throws RuntimeException if warm-up failed
+	 */
+	boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException;
+
 	/**
 	 * Return object to idle queue
 	 * @param obj
 	 */
 	void returnObject(T obj);
 	
+	/**
+	 * Return objects to idle queue, same as calling returnObject(obj) for each of them.
+	 * @param objs
+	 */
+	void returnObjects(Collection<T> objs);
+	
 	/**
 	 * assigned object will be disposed, and a new one will be created as a replacement.
 	 * @param obj
@@ -37,10 +122,28 @@ public interface IObjPool<T> {
 	 * @return
 	 */
 	int getNumActive();
+
+	/**
+	 * State of the circuit breaker around object creation, always CLOSED if BasePoolConfig.creationBreakerThreshold is 0
+	 * @return
+	 */
+	CreationBreakerState getCreationBreakerState();
 	
 	/**
 	 * After pool closed, all objects are disposed. Methods below will be thrown exception:
 	 * borrowObject(), returnObject(obj), invalidateObject(obj)
 	 */
 	void close();
+
+	/**
+	 * Graceful close. New borrows are rejected at once, while borrowed objects can still be returned (or invalidated)
+	 * until drainTimeout. Idle objects, and the ones returned meanwhile, are destroyed in parallel
+	 * (BasePoolConfig.closeParallelism threads). Objects still borrowed after drainTimeout are destroyed anyway.
+	 * <br>
+	 * Returns once all objects are destroyed. close() is same as drainTimeout 0.
+	 * @param drainTimeout max time to wait for borrowed objects
+	 * @param unit unit of drainTimeout
+	 * @return null if the pool is closed already
+	 */
+	PoolCloseReport close(long drainTimeout, TimeUnit unit);
 }
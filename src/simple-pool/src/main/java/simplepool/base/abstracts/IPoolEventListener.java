@@ -0,0 +1,20 @@
+package simplepool.base.abstracts;
+
+/**
+ * Receives events of pools, set by BasePoolConfig.eventListener.
+ * <br>
+ * It is called on the thread where the event happens (often a borrower or returner),
+ * so it should be fast, never block and never throw.
+ */
+public interface IPoolEventListener {
+
+	/**
+	 * @param type
+	 * @param poolName "" if the pool has no name
+	 * @param obj the pooled object concerned, null if none
+	 * @param msg null if none
+	 * @param cause null if none
+	 */
+	void onEvent(PoolEventType type, String poolName, Object obj, String msg, Throwable cause);
+
+}
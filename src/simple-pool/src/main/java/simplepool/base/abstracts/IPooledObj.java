@@ -13,6 +13,25 @@ public interface IPooledObj<T> extends Comparable<IPooledObj<T>> {
 	long getLastEvictionTestTime();
 	void setLastEvictionTestTime(long time);
 	
+	/**
+	 * Time after which the object is retired, Long.MAX_VALUE if it never expires.
+	 */
+	long getExpireTime();
+	void setExpireTime(long time);
+	
+	/**
+	 * Where the object was borrowed last time, only captured for sampled borrows (see BasePoolConfig.borrowStackSampleRate).
+	 * @return null if not captured
+	 */
+	Throwable getBorrowStack();
+	void setBorrowStack(Throwable borrowStack);
+	
+	/**
+	 * Priority class of current borrow (see BasePoolConfig.priorityReservations), 0 while idle.
+	 */
+	int getBorrowPriority();
+	void setBorrowPriority(int priority);
+	
 	T getObject();
 	
 	/**
@@ -21,18 +40,11 @@ public interface IPooledObj<T> extends Comparable<IPooledObj<T>> {
 	 */
 	void setObject(T obj);
 
-    /**
-     *
-     * @return true: already returned to pool
-     */
-    boolean isReturned();
+	PooledObjState getState();
 
     /**
-     * Updating returned flag with true must be atomic operation.
-     * @return whether or not the new value is updated by this operation
-     * <br>
-     *      true:   new value is updated by this operation
-     *      false:  already be equal with newVal when this operation is executed.
+     * Must be atomic operation. The caller who changes the state wins the object.
+     * @return whether or not the state is changed from expect to update by this operation
      */
-	boolean setReturned(boolean newVal);
+	boolean compareAndSetState(PooledObjState expect, PooledObjState update);
 }
@@ -0,0 +1,59 @@
+package simplepool.base.abstracts;
+
+/**
+ * Result of IObjPool.close(drainTimeout, unit).
+ */
+public final class PoolCloseReport {
+
+	private final int _destroyedCount;
+	private final int _forceDestroyedCount;
+	private final int _failedCount;
+	private final long _elapsedMillis;
+
+	/**
+	 * @param destroyedCount objects destroyed while idle (including the ones returned while draining)
+	 * @param forceDestroyedCount objects still borrowed (or being validated) after drainTimeout, destroyed anyway
+	 * @param failedCount objects whose destroyObject() threw exception, included in the counts above
+	 * @param elapsedMillis time spent by close
+	 */
+	public PoolCloseReport(int destroyedCount, int forceDestroyedCount, int failedCount, long elapsedMillis) {
+		_destroyedCount = destroyedCount;
+		_forceDestroyedCount = forceDestroyedCount;
+		_failedCount = failedCount;
+		_elapsedMillis = elapsedMillis;
+	}
+
+	public int getDestroyedCount() {
+		return _destroyedCount;
+	}
+
+	public int getForceDestroyedCount() {
+		return _forceDestroyedCount;
+	}
+
+	public int getFailedCount() {
+		return _failedCount;
+	}
+
+	public long getElapsedMillis() {
+		return _elapsedMillis;
+	}
+
+	/**
+	 * Sum of the counts, used by pools made of sub pools (stripes or keys) which are closed together.
+	 */
+	public PoolCloseReport add(PoolCloseReport other) {
+		return new PoolCloseReport(
+				_destroyedCount + other._destroyedCount,
+				_forceDestroyedCount + other._forceDestroyedCount,
+				_failedCount + other._failedCount,
+				Math.max(_elapsedMillis, other._elapsedMillis)
+		);
+	}
+
+	@Override
+	public String toString() {
+		return "destroyed:" + _destroyedCount + " forceDestroyed:" + _forceDestroyedCount
+				+ " failed:" + _failedCount + " elapsedMillis:" + _elapsedMillis;
+	}
+}
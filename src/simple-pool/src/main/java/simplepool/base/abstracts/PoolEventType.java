@@ -0,0 +1,54 @@
+package simplepool.base.abstracts;
+
+/**
+ * Events reported by pools to IPoolEventListener.
+ */
+public enum PoolEventType {
+
+	/**
+	 * Object made by the factory.
+	 */
+	CREATE,
+
+	/**
+	 * Object destroyed by the factory.
+	 */
+	DESTROY,
+
+	/**
+	 * Object failed validation (eviction test or testOnBorrow). If the factory threw exception,
+	 * FACTORY_EXCEPTION is reported before this one.
+	 */
+	VALIDATE_FAIL,
+
+	/**
+	 * Borrower found no idle object.
+	 */
+	BORROW_MISS,
+
+	/**
+	 * Factory threw exception, msg is the name of the factory method.
+	 */
+	FACTORY_EXCEPTION,
+
+	/**
+	 * Object borrowed longer than abandonedTimeoutMillis, cause is the borrower's stack if captured.
+	 */
+	ABANDONED,
+
+	/**
+	 * Creation circuit breaker opened, msg tells the backoff.
+	 */
+	BREAKER_OPEN,
+
+	/**
+	 * Creation circuit breaker closed by a successful probe.
+	 */
+	BREAKER_CLOSE,
+
+	/**
+	 * Any other error of the pool itself.
+	 */
+	ERROR
+
+}
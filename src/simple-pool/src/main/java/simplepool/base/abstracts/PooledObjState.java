@@ -0,0 +1,42 @@
+package simplepool.base.abstracts;
+
+/**
+ * Life cycle of a pooled object. Each transition is one compare-and-set, and the thread which makes it owns the object.
+ * <pre>
+ * ALLOCATED  --return-->     IDLE
+ * IDLE       --borrow-->     ALLOCATED
+ * IDLE       --evict-->      VALIDATING --valid--> IDLE
+ *                                       --invalid--> INVALID
+ * IDLE/VALIDATING --evict--> EVICTED
+ * ALLOCATED  --invalidate--> INVALID
+ * </pre>
+ * New objects start as ALLOCATED, EVICTED and INVALID are final.
+ */
+public enum PooledObjState {
+
+	/**
+	 * In idle structures (or thread local caches), can be won by borrowers or the eviction test.
+	 */
+	IDLE,
+
+	/**
+	 * Borrowed, or just made and not yet added to idle.
+	 */
+	ALLOCATED,
+
+	/**
+	 * Taken out of idle by the eviction test.
+	 */
+	VALIDATING,
+
+	/**
+	 * Destroyed by the eviction test (idle for too long, or pool is full).
+	 */
+	EVICTED,
+
+	/**
+	 * Failed validation, or invalidated by the borrower.
+	 */
+	INVALID
+
+}
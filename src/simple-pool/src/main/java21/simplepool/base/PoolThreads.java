@@ -0,0 +1,30 @@
+package simplepool.base;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * JDK 21 version of PoolThreads, background work runs on virtual threads.
+ * <br>
+ * Waiting borrowers park through LinkedTransferQueue and CompletableFuture (LockSupport), and the pools hold
+ * no monitor while calling the factory, so neither borrowers nor workers pin their carrier threads.
+ */
+final class PoolThreads {
+
+    private PoolThreads() {
+    }
+
+    /**
+     * Virtual threads, the number of them is still limited by the executor (e.g. maxCreateThreads).
+     */
+    public static ThreadFactory newWorkerThreadFactory(String namePrefix) {
+        return Thread.ofVirtual().name(namePrefix, 1).factory();
+    }
+
+    /**
+     * Virtual threads are too many and too short-lived to keep objects in their caches,
+     * objects cached by them would only be found by stealOfThreadLocalCaches().
+     */
+    public static boolean isThreadLocalCacheUsable() {
+        return !Thread.currentThread().isVirtual();
+    }
+}
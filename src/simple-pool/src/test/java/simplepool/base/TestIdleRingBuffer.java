@@ -0,0 +1,151 @@
+package simplepool.base;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * In package simplepool.base, since IdleRingBuffer is not public
+ */
+public class TestIdleRingBuffer {
+
+	@Test
+	public void testFullAndEmpty() {
+		//rounded up to 4
+		IdleRingBuffer<Integer> ring = new IdleRingBuffer<Integer>(3);
+		Assert.assertNull(ring.poll());
+		Assert.assertEquals(0, ring.size());
+
+		for(int i = 0; i < 4; i++) {
+			Assert.assertTrue(ring.offer(i));
+		}
+		Assert.assertFalse(ring.offer(4));
+		Assert.assertEquals(4, ring.size());
+
+		for(int i = 0; i < 4; i++) {
+			Assert.assertEquals(Integer.valueOf(i), ring.poll());
+		}
+		Assert.assertNull(ring.poll());
+		Assert.assertEquals(0, ring.size());
+
+		Assert.assertTrue(ring.offer(5));
+		ring.clear();
+		Assert.assertNull(ring.poll());
+		Assert.assertEquals(0, ring.size());
+	}
+
+	@Test
+	public void testWrapAround() {
+		IdleRingBuffer<Integer> ring = new IdleRingBuffer<Integer>(4);
+		int next = 0;
+		int expected = 0;
+		//head and tail go round the slots many times, at different distances
+		for(int round = 0; round < 100; round++) {
+			while(ring.size() + round % 4 >= 4) {
+				Assert.assertEquals(Integer.valueOf(expected++), ring.poll());
+			}
+			for(int i = 0; i <= round % 4; i++) {
+				Assert.assertTrue(ring.offer(next++));
+			}
+			for(int i = 0; i < round % 3; i++) {
+				Assert.assertEquals(Integer.valueOf(expected++), ring.poll());
+			}
+		}
+
+		List<Integer> copied = new ArrayList<Integer>();
+		ring.copyTo(copied);
+		Assert.assertEquals(next - expected, copied.size());
+		while(expected < next) {
+			Assert.assertTrue(copied.contains(expected));
+			Assert.assertEquals(Integer.valueOf(expected++), ring.poll());
+		}
+		Assert.assertNull(ring.poll());
+	}
+
+	@Test
+	public void testConcurrentOfferAndPoll() throws Exception {
+		final int producerCount = 4;
+		final int consumerCount = 4;
+		final int countPerProducer = 100000;
+		final int total = producerCount * countPerProducer;
+		final IdleRingBuffer<Integer> ring = new IdleRingBuffer<Integer>(64);
+		//times each element is polled
+		final AtomicIntegerArray polled = new AtomicIntegerArray(total);
+		final CountDownLatch startLatch = new CountDownLatch(1);
+
+		ExecutorService executor = Executors.newFixedThreadPool(producerCount + consumerCount);
+		try {
+			List<Future<?>> producers = new ArrayList<Future<?>>();
+			for(int p = 0; p < producerCount; p++) {
+				final int first = p * countPerProducer;
+				producers.add(executor.submit(() -> {
+					startLatch.await();
+					for(int i = first; i < first + countPerProducer; i++) {
+						while(!ring.offer(i)) {
+							Thread.yield();
+						}
+					}
+					return null;
+				}));
+			}
+
+			List<Future<Integer>> consumers = new ArrayList<Future<Integer>>();
+			for(int c = 0; c < consumerCount; c++) {
+				consumers.add(executor.submit(() -> {
+					startLatch.await();
+					int count = 0;
+					Integer e;
+					//each producer's elements come out in the order offered
+					final int[] lastOfProducer = new int[producerCount];
+					Arrays.fill(lastOfProducer, -1);
+					while(true) {
+						e = ring.poll();
+						if(e == null) {
+							if(producersDone(producers) && ring.size() == 0) {
+								return count;
+							}
+							Thread.yield();
+							continue;
+						}
+						polled.incrementAndGet(e);
+						Assert.assertTrue(e > lastOfProducer[e / countPerProducer]);
+						lastOfProducer[e / countPerProducer] = e;
+						count++;
+					}
+				}));
+			}
+
+			startLatch.countDown();
+			int polledCount = 0;
+			for(Future<Integer> consumer : consumers) {
+				polledCount += consumer.get(60, TimeUnit.SECONDS);
+			}
+
+			Assert.assertEquals(total, polledCount);
+			for(int i = 0; i < total; i++) {
+				Assert.assertEquals("element " + i, 1, polled.get(i));
+			}
+			Assert.assertNull(ring.poll());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private static boolean producersDone(List<Future<?>> producers) {
+		for(Future<?> producer : producers) {
+			if(!producer.isDone()) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
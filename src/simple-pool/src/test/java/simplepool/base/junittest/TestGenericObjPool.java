@@ -1,19 +1,52 @@
 package simplepool.base.junittest;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
+import javax.management.ObjectName;
+
+import org.junit.Assert;
 import org.junit.Test;
 
+import simplepool.base.AsyncPoolEventLogger;
 import simplepool.base.BasePoolConfig;
+import simplepool.base.CreationBreakerOpenException;
 import simplepool.base.GenericObjPool;
+import simplepool.base.PoolStatsMXBean;
+import simplepool.base.abstracts.CreationBreakerState;
+import simplepool.base.abstracts.IBatchObjFactory;
 import simplepool.base.abstracts.IObjFactory;
+import simplepool.base.abstracts.IObjLease;
+import simplepool.base.abstracts.IPoolEventListener;
+import simplepool.base.abstracts.PoolCloseReport;
+import simplepool.base.abstracts.PoolEventType;
 
 public class TestGenericObjPool {
 	
@@ -105,6 +138,1527 @@ public class TestGenericObjPool {
 		}
 	}
 	
+	@Test
+	public void testBorrowWithTimeout() throws Exception {
+		BasePoolConfig poolConfig = new BasePoolConfig();
+		poolConfig.setPoolName("TestGenericObjPool2");
+		poolConfig.setMaxTotal(1);
+		poolConfig.setMaxIdle(1);
+		poolConfig.setMinIdle(0);
+		poolConfig.setTestWhileIdle(false);
+		poolConfig.setMaxWaiters(1);
+
+		final GenericObjPool<TestResource> pool = new GenericObjPool<TestResource>(
+				poolConfig, new SimpleTestResourceFactory());
+		try {
+			final TestResource resource = pool.borrowObject();
+			Assert.assertNotNull(resource);
+
+			//pool is exhausted
+			Assert.assertNull(pool.borrowObject(10, TimeUnit.MILLISECONDS));
+
+			final CountDownLatch waiterStarted = new CountDownLatch(1);
+			final AtomicReference<TestResource> waiterResult = new AtomicReference<TestResource>();
+			Thread waiter = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						waiterStarted.countDown();
+						waiterResult.set(pool.borrowObject(10, TimeUnit.SECONDS));
+					} catch (InterruptedException e) {
+						//end
+					}
+				}
+			});
+			waiter.start();
+			waiterStarted.await();
+			Thread.sleep(100);
+
+			//exceeds max waiters, so fails fast
+			long beginTime = System.currentTimeMillis();
+			Assert.assertNull(pool.borrowObject(10, TimeUnit.SECONDS));
+			Assert.assertTrue((System.currentTimeMillis() - beginTime) < 5000);
+
+			//handed over to the waiter
+			pool.returnObject(resource);
+			waiter.join(10 * 1000L);
+			Assert.assertSame(resource, waiterResult.get());
+			Assert.assertEquals(0, pool.getNumIdle());
+			Assert.assertEquals(1, pool.getNumActive());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testThreadLocalCache() throws Exception {
+		BasePoolConfig poolConfig = new BasePoolConfig();
+		poolConfig.setPoolName("TestGenericObjPool3");
+		poolConfig.setMaxTotal(2);
+		poolConfig.setMaxIdle(2);
+		poolConfig.setMinIdle(0);
+		poolConfig.setTestWhileIdle(false);
+		poolConfig.setThreadLocalCacheSize(4);
+
+		final GenericObjPool<TestResource> pool = new GenericObjPool<TestResource>(
+				poolConfig, new SimpleTestResourceFactory());
+		try {
+			final TestResource resource1 = pool.borrowObject();
+			final TestResource resource2 = pool.borrowObject();
+			pool.returnObject(resource1);
+			pool.returnObject(resource2);
+			Assert.assertEquals(2, pool.getNumIdle());
+
+			//the most recently returned one is reclaimed first
+			Assert.assertSame(resource2, pool.borrowObject());
+			Assert.assertEquals(1, pool.getNumIdle());
+
+			//other threads take the cached one when the shared queue is empty
+			final AtomicReference<TestResource> otherResult = new AtomicReference<TestResource>();
+			Thread other = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					otherResult.set(pool.borrowObject());
+				}
+			});
+			other.start();
+			other.join();
+			Assert.assertSame(resource1, otherResult.get());
+			Assert.assertEquals(0, pool.getNumIdle());
+			Assert.assertEquals(2, pool.getNumActive());
+
+			//the stale entry is skipped
+			Assert.assertNull(pool.borrowObject());
+
+			//counted on both paths, reclaiming its own one and stealing the other's
+			pool.returnObject(resource2);
+			Assert.assertEquals(1, pool.getNumIdle());
+			Assert.assertEquals(1, pool.getNumActive());
+			Assert.assertSame(resource2, pool.borrowObject());
+			pool.returnObject(resource2);
+			other = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					otherResult.set(pool.borrowObject());
+				}
+			});
+			other.start();
+			other.join();
+			Assert.assertSame(resource2, otherResult.get());
+			Assert.assertEquals(0, pool.getNumIdle());
+			Assert.assertEquals(2, pool.getNumActive());
+			pool.returnObject(resource1);
+			pool.returnObject(resource2);
+			Assert.assertEquals(2, pool.getNumIdle());
+			Assert.assertEquals(0, pool.getNumActive());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testBorrowLease() throws Exception {
+		BasePoolConfig poolConfig = new BasePoolConfig();
+		poolConfig.setPoolName("TestGenericObjPool4");
+		poolConfig.setMaxTotal(2);
+		poolConfig.setMaxIdle(2);
+		poolConfig.setMinIdle(0);
+		poolConfig.setTestWhileIdle(false);
+
+		final GenericObjPool<TestResource> pool = new GenericObjPool<TestResource>(
+				poolConfig, new SimpleTestResourceFactory());
+		try {
+			IObjLease<TestResource> lease = pool.borrowLease();
+			TestResource resource = lease.getObject();
+			Assert.assertEquals(1, pool.getNumActive());
+
+			lease.close();
+			//closed twice
+			lease.close();
+			Assert.assertEquals(0, pool.getNumActive());
+			Assert.assertEquals(1, pool.getNumIdle());
+
+			lease = pool.borrowLease(10, TimeUnit.MILLISECONDS);
+			Assert.assertSame(resource, lease.getObject());
+			lease.invalidate();
+			lease.close();
+			Assert.assertFalse(resource.isAlive());
+			Assert.assertEquals(0, pool.getNumActive());
+			//the replacement might have been made in background already
+			Assert.assertTrue(pool.getNumIdle() <= 1);
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testBorrowAsync() throws Exception {
+		BasePoolConfig poolConfig = new BasePoolConfig();
+		poolConfig.setPoolName("TestGenericObjPool5");
+		poolConfig.setMaxTotal(1);
+		poolConfig.setMaxIdle(1);
+		poolConfig.setMinIdle(0);
+		poolConfig.setTestWhileIdle(false);
+
+		final GenericObjPool<TestResource> pool = new GenericObjPool<TestResource>(
+				poolConfig, new SimpleTestResourceFactory());
+		CompletableFuture<TestResource> future;
+		try {
+			TestResource resource = pool.borrowAsync().get();
+			Assert.assertNotNull(resource);
+
+			//timeout
+			future = pool.borrowAsync(50, TimeUnit.MILLISECONDS);
+			try {
+				future.get();
+				Assert.fail();
+			} catch (ExecutionException e) {
+				Assert.assertTrue(e.getCause() instanceof TimeoutException);
+			}
+
+			//cancelled waiter is skipped
+			CompletableFuture<TestResource> cancelled = pool.borrowAsync();
+			future = pool.borrowAsync(10, TimeUnit.SECONDS);
+			cancelled.cancel(false);
+			Assert.assertFalse(future.isDone());
+
+			pool.returnObject(resource);
+			Assert.assertSame(resource, future.get(0, TimeUnit.MILLISECONDS));
+			Assert.assertEquals(1, pool.getNumActive());
+
+			future = pool.borrowAsync();
+		} finally {
+			pool.close();
+		}
+
+		//completed on close
+		Assert.assertTrue(future.isCompletedExceptionally());
+	}
+
+	@Test
+	public void testBackgroundCreation() throws Exception {
+		BasePoolConfig poolConfig = new BasePoolConfig();
+		poolConfig.setPoolName("TestGenericObjPool6");
+		poolConfig.setMaxTotal(4);
+		poolConfig.setMaxIdle(4);
+		poolConfig.setMinIdle(2);
+		poolConfig.setTestWhileIdle(false);
+		poolConfig.setMaxCreateThreads(4);
+
+		final AtomicInteger liveCount = new AtomicInteger(0);
+		final AtomicInteger maxLiveCount = new AtomicInteger(0);
+		final GenericObjPool<TestResource> pool = new GenericObjPool<TestResource>(
+				poolConfig,
+				new SimpleTestResourceFactory() {
+					@Override
+					public TestResource makeObject() {
+						int live = liveCount.incrementAndGet();
+						while(true) {
+							int max = maxLiveCount.get();
+							if(live <= max || maxLiveCount.compareAndSet(max, live)) {
+								break;
+							}
+						}
+						try {
+							Thread.sleep(20);
+						} catch (InterruptedException e) {
+							//end
+						}
+						return super.makeObject();
+					}
+
+					@Override
+					public void destroyObject(TestResource obj) {
+						liveCount.decrementAndGet();
+						super.destroyObject(obj);
+					}
+				});
+		try {
+			//concurrent misses never exceed maxTotal
+			ExecutorService threadPool = Executors.newFixedThreadPool(16);
+			for(int i = 0; i < 64; i++) {
+				threadPool.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							TestResource resource = pool.borrowObject(5, TimeUnit.SECONDS);
+							if(resource != null) {
+								Thread.sleep(5);
+								pool.returnObject(resource);
+							}
+						} catch (InterruptedException e) {
+							//end
+						}
+					}
+				});
+			}
+			threadPool.shutdown();
+			Assert.assertTrue(threadPool.awaitTermination(30, TimeUnit.SECONDS));
+			Assert.assertTrue(maxLiveCount.get() <= 4);
+
+			//invalidated one is replaced in background
+			TestResource resource = pool.borrowObject();
+			final int idleCount = pool.getNumIdle();
+			pool.invalidateObject(resource);
+			long beginTime = System.currentTimeMillis();
+			while(pool.getNumIdle() <= idleCount && (System.currentTimeMillis() - beginTime) < 5000) {
+				Thread.sleep(10);
+			}
+			Assert.assertEquals(idleCount + 1, pool.getNumIdle());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testSharedEvictionScheduler() throws Exception {
+		final int poolCount = 100;
+		final AtomicInteger validateCount = new AtomicInteger(0);
+		final IObjFactory<Object> factory = new IObjFactory<Object>() {
+			@Override
+			public Object makeObject() {
+				return new Object();
+			}
+
+			@Override
+			public void destroyObject(Object obj) {
+			}
+
+			@Override
+			public boolean validateObject(Object obj) {
+				validateCount.incrementAndGet();
+				return true;
+			}
+
+			@Override
+			public void activateObject(Object obj) {
+			}
+
+			@Override
+			public void passivateObject(Object obj) {
+			}
+		};
+
+		final int threadCountBefore = Thread.activeCount();
+		final GenericObjPool<?>[] pools = new GenericObjPool<?>[poolCount];
+		try {
+			for(int i = 0; i < poolCount; i++) {
+				BasePoolConfig poolConfig = new BasePoolConfig();
+				poolConfig.setPoolName("TestGenericObjPool8#" + i);
+				//idle objects of a full pool are destroyed without validating
+				poolConfig.setMaxTotal(2);
+				poolConfig.setMaxIdle(1);
+				poolConfig.setMinIdle(0);
+				poolConfig.setTestWhileIdle(true);
+				poolConfig.setTimeBetweenEvictionRunsMillis(50);
+
+				pools[i] = new GenericObjPool<Object>(poolConfig, factory);
+			}
+			//no thread per pool, only the threads of shared scheduler
+			Assert.assertTrue(Thread.activeCount() - threadCountBefore <= 2);
+
+			for(int i = 0; i < poolCount; i++) {
+				@SuppressWarnings("unchecked")
+				GenericObjPool<Object> pool = (GenericObjPool<Object>) pools[i];
+				pool.returnObject(pool.borrowObject());
+				//replaced in background
+				pool.invalidateObject(pool.borrowObject());
+			}
+
+			//every pool is tested by the shared scheduler
+			final long deadline = System.currentTimeMillis() + 5000;
+			while(validateCount.get() < poolCount && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			Assert.assertTrue(validateCount.get() >= poolCount);
+
+			//creation and eviction ran on the shared worker threads, not on threads of each pool
+			Assert.assertTrue(Thread.activeCount() - threadCountBefore < poolCount);
+			for(Thread thread : Thread.getAllStackTraces().keySet()) {
+				Assert.assertFalse(thread.getName(), thread.getName().startsWith("simplepool-creator-"));
+				Assert.assertFalse(thread.getName(), thread.getName().startsWith("simplepool-validator-"));
+			}
+		} finally {
+			for(GenericObjPool<?> pool : pools) {
+				if(pool != null) {
+					pool.close();
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testParallelBatchValidation() throws Exception {
+		final AtomicInteger concurrentCount = new AtomicInteger(0);
+		final AtomicInteger maxConcurrentCount = new AtomicInteger(0);
+		final AtomicInteger maxBatchSize = new AtomicInteger(0);
+		final IBatchObjFactory<Object> factory = new IBatchObjFactory<Object>() {
+			@Override
+			public boolean[] validateObjects(List<Object> objs) {
+				final int count = concurrentCount.incrementAndGet();
+				try {
+					maxConcurrentCount.accumulateAndGet(count, Math::max);
+					maxBatchSize.accumulateAndGet(objs.size(), Math::max);
+
+					//a slow round-trip for the whole batch
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+				} finally {
+					concurrentCount.decrementAndGet();
+				}
+
+				boolean[] results = new boolean[objs.size()];
+				Arrays.fill(results, true);
+				return results;
+			}
+
+			@Override
+			public Object makeObject() {
+				return new Object();
+			}
+
+			@Override
+			public void destroyObject(Object obj) {
+			}
+
+			@Override
+			public boolean validateObject(Object obj) {
+				return true;
+			}
+
+			@Override
+			public void activateObject(Object obj) {
+			}
+
+			@Override
+			public void passivateObject(Object obj) {
+			}
+		};
+
+		BasePoolConfig poolConfig = new BasePoolConfig();
+		poolConfig.setPoolName("TestGenericObjPool9");
+		poolConfig.setMaxTotal(100);
+		poolConfig.setMaxIdle(100);
+		poolConfig.setMinIdle(0);
+		poolConfig.setTestWhileIdle(true);
+		poolConfig.setTimeBetweenEvictionRunsMillis(200);
+		poolConfig.setValidationParallelism(4);
+		poolConfig.setValidationBatchSize(4);
+
+		final GenericObjPool<Object> pool = new GenericObjPool<Object>(poolConfig, factory);
+		try {
+			List<Object> borrowed = new ArrayList<Object>();
+			for(int i = 0; i < 64; i++) {
+				borrowed.add(pool.borrowObject());
+			}
+			for(Object obj : borrowed) {
+				pool.returnObject(obj);
+			}
+
+			//16 objects are tested in one run: 4 batches of 4 objects at the same time
+			final long deadline = System.currentTimeMillis() + 5000;
+			while(maxConcurrentCount.get() < 4 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			Assert.assertEquals(4, maxBatchSize.get());
+			Assert.assertEquals(4, maxConcurrentCount.get());
+
+			//most objects stay available while validating
+			Assert.assertTrue(pool.getNumIdle() >= 48);
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testLifo() throws Exception {
+		BasePoolConfig poolConfig = new BasePoolConfig();
+		poolConfig.setPoolName("TestGenericObjPool10");
+		poolConfig.setMaxTotal(5);
+		poolConfig.setMaxIdle(5);
+		poolConfig.setMinIdle(0);
+		poolConfig.setTestWhileIdle(true);
+		poolConfig.setTimeBetweenEvictionRunsMillis(100);
+		poolConfig.setLifo(true);
+
+		final GenericObjPool<TestResource> pool = new GenericObjPool<TestResource>(
+				poolConfig, new SimpleTestResourceFactory());
+		try {
+			TestResource[] resources = new TestResource[5];
+			for(int i = 0; i < resources.length; i++) {
+				resources[i] = pool.borrowObject();
+			}
+			for(int i = 0; i < resources.length; i++) {
+				pool.returnObject(resources[i]);
+			}
+
+			//most recently returned first
+			TestResource resource = pool.borrowObject();
+			Assert.assertSame(resources[4], resource);
+			pool.returnObject(resource);
+
+			//lightly loaded, the cold ones age out
+			final long deadline = System.currentTimeMillis() + 2000;
+			while(System.currentTimeMillis() < deadline) {
+				resource = pool.borrowObject();
+				Assert.assertNotNull(resource);
+				Thread.sleep(5);
+				pool.returnObject(resource);
+			}
+			Assert.assertTrue(pool.getNumIdle() <= 2);
+
+			//waiters still get the returned ones
+			final TestResource borrowed = pool.borrowObject();
+			while(pool.borrowObject() != null) {
+			}
+			final CountDownLatch waiting = new CountDownLatch(1);
+			final AtomicReference<TestResource> waited = new AtomicReference<TestResource>();
+			Thread waiter = new Thread() {
+				@Override
+				public void run() {
+					try {
+						waiting.countDown();
+						waited.set(pool.borrowObject(5, TimeUnit.SECONDS));
+					} catch (InterruptedException e) {
+					}
+				}
+			};
+			waiter.start();
+			waiting.await();
+			Thread.sleep(50);
+			pool.returnObject(borrowed);
+			waiter.join();
+			Assert.assertSame(borrowed, waited.get());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testStaleReturnAndInvalidate() throws Exception {
+		BasePoolConfig poolConfig = new BasePoolConfig();
+		poolConfig.setPoolName("TestGenericObjPool11");
+		poolConfig.setMaxTotal(2);
+		poolConfig.setMaxIdle(2);
+		poolConfig.setMinIdle(0);
+		poolConfig.setTestWhileIdle(false);
+
+		final GenericObjPool<TestResource> pool = new GenericObjPool<TestResource>(
+				poolConfig, new SimpleTestResourceFactory());
+		try {
+			TestResource resource = pool.borrowObject();
+			pool.returnObject(resource);
+			//returned twice
+			pool.returnObject(resource);
+			Assert.assertEquals(1, pool.getNumIdle());
+			Assert.assertEquals(0, pool.getNumActive());
+
+			//invalidating an idle one is ignored, so it is never handed out after being destroyed
+			pool.invalidateObject(resource);
+			Assert.assertEquals(1, pool.getNumIdle());
+			TestResource borrowed = pool.borrowObject();
+			Assert.assertSame(resource, borrowed);
+			Assert.assertTrue(borrowed.isAlive());
+
+			pool.invalidateObject(borrowed);
+			pool.invalidateObject(borrowed);
+			Assert.assertFalse(borrowed.isAlive());
+			Assert.assertEquals(0, pool.getNumActive());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testAdaptiveSizing() throws Exception {
+		BasePoolConfig poolConfig = new BasePoolConfig();
+		poolConfig.setPoolName("TestGenericObjPool12");
+		poolConfig.setMaxTotal(20);
+		poolConfig.setMaxIdle(10);
+		poolConfig.setMinIdle(1);
+		poolConfig.setTestWhileIdle(false);
+		poolConfig.setAdaptiveSizing(true);
+		poolConfig.setAdaptiveSizingIntervalMillis(50);
+
+		final GenericObjPool<TestResource> pool = new GenericObjPool<TestResource>(
+				poolConfig, new SimpleTestResourceFactory());
+		final AtomicBoolean stopFlg = new AtomicBoolean(false);
+		final ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			for(int i = 0; i < 8; i++) {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						while(!stopFlg.get()) {
+							try {
+								TestResource resource = pool.borrowObject(1, TimeUnit.SECONDS);
+								Thread.sleep(5);
+								if(resource != null) {
+									pool.returnObject(resource);
+								}
+							} catch (InterruptedException e) {
+								return;
+							}
+						}
+					}
+				});
+			}
+
+			//idle target rises with demand, but never above maxIdle
+			int maxIdleTarget = 0;
+			final long loadDeadline = System.currentTimeMillis() + 1000;
+			while(System.currentTimeMillis() < loadDeadline) {
+				maxIdleTarget = Math.max(maxIdleTarget, pool.getIdleTarget());
+				Thread.sleep(10);
+			}
+			Assert.assertTrue(maxIdleTarget > 1);
+			Assert.assertTrue(maxIdleTarget <= 10);
+
+			//demand drops, shrink toward minIdle
+			stopFlg.set(true);
+			executor.shutdown();
+			Assert.assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+			final long idleDeadline = System.currentTimeMillis() + 5000;
+			while(pool.getNumIdle() > 1 && System.currentTimeMillis() < idleDeadline) {
+				Thread.sleep(10);
+			}
+			Assert.assertEquals(1, pool.getIdleTarget());
+			Assert.assertEquals(1, pool.getNumIdle());
+		} finally {
+			stopFlg.set(true);
+			executor.shutdownNow();
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testTestOnBorrow() throws Exception {
+		BasePoolConfig poolConfig = new BasePoolConfig();
+		poolConfig.setPoolName("TestGenericObjPool13");
+		poolConfig.setMaxTotal(3);
+		poolConfig.setMaxIdle(3);
+		poolConfig.setMinIdle(0);
+		poolConfig.setTestWhileIdle(false);
+		poolConfig.setTestOnBorrow(true);
+		poolConfig.setTestOnBorrowIdleMillis(200);
+
+		final AtomicInteger validateCount = new AtomicInteger(0);
+		final GenericObjPool<TestResource> pool = new GenericObjPool<TestResource>(
+				poolConfig, new SimpleTestResourceFactory() {
+					@Override
+					public boolean validateObject(TestResource obj) {
+						validateCount.incrementAndGet();
+						return super.validateObject(obj);
+					}
+				});
+		try {
+			TestResource a = pool.borrowObject();
+			TestResource b = pool.borrowObject();
+			pool.returnObject(a);
+			pool.returnObject(b);
+
+			//returned recently, not validated
+			TestResource resource = pool.borrowObject();
+			Assert.assertSame(a, resource);
+			Assert.assertEquals(0, validateCount.get());
+			pool.returnObject(a);
+
+			//idle for a while, the dead one is destroyed and the next one is taken
+			b.release();
+			Thread.sleep(300);
+			resource = pool.borrowObject();
+			Assert.assertSame(a, resource);
+			Assert.assertEquals(2, validateCount.get());
+			Assert.assertEquals(0, pool.getNumIdle());
+			Assert.assertEquals(1, pool.getNumActive());
+
+			//tested just now
+			pool.returnObject(a);
+			Assert.assertSame(a, pool.borrowObject());
+			Assert.assertEquals(2, validateCount.get());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testAbandonedDetection() throws Exception {
+		BasePoolConfig poolConfig = new BasePoolConfig();
+		poolConfig.setPoolName("TestGenericObjPool14");
+		poolConfig.setMaxTotal(2);
+		poolConfig.setMaxIdle(2);
+		poolConfig.setMinIdle(0);
+		poolConfig.setTestWhileIdle(false);
+		poolConfig.setStatsEnabled(true);
+		poolConfig.setAbandonedTimeoutMillis(200);
+		poolConfig.setBorrowStackSampleRate(1.0);
+		poolConfig.setRemoveAbandoned(true);
+
+		final GenericObjPool<TestResource> pool = new GenericObjPool<TestResource>(
+				poolConfig, new SimpleTestResourceFactory());
+		try {
+			TestResource leaked = pool.borrowObject();
+			TestResource held = pool.borrowObject();
+			Assert.assertNull(pool.borrowObject());
+
+			//held is returned in time, the leaked one is reclaimed
+			Thread.sleep(100);
+			pool.returnObject(held);
+			Thread.sleep(400);
+			Assert.assertFalse(leaked.isAlive());
+			Assert.assertEquals(1, pool.getStats().getAbandonedCount());
+			Assert.assertEquals(0, pool.getNumActive());
+
+			//returning the reclaimed one later is ignored, and its capacity can be used again
+			pool.returnObject(leaked);
+			Assert.assertEquals(0, pool.getNumActive());
+			Assert.assertNotNull(pool.borrowObject());
+			Assert.assertNotNull(pool.borrowObject());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testAbandonedCheckSkipsClaimedObj() throws Exception {
+		BasePoolConfig poolConfig = new BasePoolConfig();
+		poolConfig.setPoolName("TestGenericObjPool23");
+		poolConfig.setMaxTotal(1);
+		poolConfig.setMaxIdle(1);
+		poolConfig.setMinIdle(1);
+		poolConfig.setTestWhileIdle(false);
+		poolConfig.setTestOnBorrow(true);
+		poolConfig.setTestOnBorrowIdleMillis(0);
+		poolConfig.setAbandonedTimeoutMillis(200);
+		poolConfig.setRemoveAbandoned(true);
+
+		final GenericObjPool<TestResource> pool = new GenericObjPool<TestResource>(
+				poolConfig, new SimpleTestResourceFactory() {
+					@Override
+					public boolean validateObject(TestResource obj) {
+						try {
+							Thread.sleep(150);
+						} catch (InterruptedException e) {
+							//ignore
+						}
+						return super.validateObject(obj);
+					}
+				});
+		try {
+			//never borrowed, and older than abandonedTimeout when it is claimed
+			Thread.sleep(300);
+			TestResource obj = pool.borrowObject();
+			Assert.assertNotNull(obj);
+			Assert.assertTrue(obj.isAlive());
+			Assert.assertEquals(1, pool.getNumActive());
+			pool.returnObject(obj);
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testMaxLifetime() throws Exception {
+		BasePoolConfig poolConfig = new BasePoolConfig();
+		poolConfig.setPoolName("TestGenericObjPool15");
+		poolConfig.setMaxTotal(4);
+		poolConfig.setMaxIdle(2);
+		poolConfig.setMinIdle(2);
+		poolConfig.setTestWhileIdle(false);
+		poolConfig.setMaxLifetimeMillis(1000);
+		poolConfig.setMaxLifetimeJitter(0.2);
+
+		final AtomicInteger destroyCount = new AtomicInteger(0);
+		final GenericObjPool<TestResource> pool = new GenericObjPool<TestResource>(
+				poolConfig, new SimpleTestResourceFactory() {
+					@Override
+					public void destroyObject(TestResource obj) {
+						destroyCount.incrementAndGet();
+						super.destroyObject(obj);
+					}
+				});
+		try {
+			TestResource resource = pool.borrowObject();
+			//replenished in background
+			Thread.sleep(100);
+			Assert.assertEquals(2, pool.getNumIdle());
+
+			//the idle ones expire within [800ms, 1000ms] and are replaced in background
+			Thread.sleep(1200);
+			Assert.assertEquals(2, destroyCount.get());
+			Assert.assertEquals(2, pool.getNumIdle());
+			Assert.assertTrue(resource.isAlive());
+
+			//the borrowed one is retired when returned
+			pool.returnObject(resource);
+			Assert.assertFalse(resource.isAlive());
+			Assert.assertEquals(3, destroyCount.get());
+			Assert.assertEquals(0, pool.getNumActive());
+			Assert.assertEquals(2, pool.getNumIdle());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testBatchBorrow() throws Exception {
+		BasePoolConfig poolConfig = new BasePoolConfig();
+		poolConfig.setPoolName("TestGenericObjPool16");
+		poolConfig.setMaxTotal(4);
+		poolConfig.setMaxIdle(4);
+		poolConfig.setMinIdle(0);
+		poolConfig.setTestWhileIdle(false);
+
+		final GenericObjPool<TestResource> pool = new GenericObjPool<TestResource>(
+				poolConfig, new SimpleTestResourceFactory());
+		try {
+			Assert.assertNull(pool.borrowObjects(5, 0, TimeUnit.MILLISECONDS));
+
+			final List<TestResource> first = pool.borrowObjects(3, 0, TimeUnit.MILLISECONDS);
+			Assert.assertEquals(3, first.size());
+			Assert.assertEquals(3, pool.getNumActive());
+
+			//all or nothing, the one made for it is given back
+			Assert.assertNull(pool.borrowObjects(2, 50, TimeUnit.MILLISECONDS));
+			Assert.assertEquals(3, pool.getNumActive());
+			Assert.assertEquals(1, pool.getNumIdle());
+
+			//waits until the first batch is returned
+			Thread returner = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						Thread.sleep(100);
+					} catch (InterruptedException e) {
+					}
+					pool.returnObjects(first);
+				}
+			});
+			returner.start();
+			final List<TestResource> all = pool.borrowObjects(4, 2, TimeUnit.SECONDS);
+			returner.join();
+			Assert.assertNotNull(all);
+			Assert.assertEquals(4, all.size());
+			Assert.assertTrue(all.containsAll(first));
+			Assert.assertEquals(4, pool.getNumActive());
+			Assert.assertEquals(0, pool.getNumIdle());
+
+			pool.returnObjects(all);
+			Assert.assertEquals(0, pool.getNumActive());
+			Assert.assertEquals(4, pool.getNumIdle());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testBatchBorrowWaitsWithoutSpinning() throws Exception {
+		final AtomicInteger missCount = new AtomicInteger(0);
+		BasePoolConfig poolConfig = new BasePoolConfig();
+		poolConfig.setPoolName("TestGenericObjPool28");
+		poolConfig.setMaxTotal(4);
+		poolConfig.setMaxIdle(4);
+		poolConfig.setMinIdle(0);
+		poolConfig.setTestWhileIdle(false);
+		poolConfig.setEventListener(new IPoolEventListener() {
+			@Override
+			public void onEvent(PoolEventType type, String poolName, Object obj, String msg, Throwable cause) {
+				if(type == PoolEventType.BORROW_MISS) {
+					missCount.incrementAndGet();
+				}
+			}
+		});
+
+		final GenericObjPool<TestResource> pool = new GenericObjPool<TestResource>(
+				poolConfig, new SimpleTestResourceFactory());
+		try {
+			final TestResource held = pool.borrowObject();
+			final int missesBefore = missCount.get();
+			//3 of 4 could be taken, the batch must wait without taking its own put back objects again
+			final AtomicLong cpuNanos = new AtomicLong();
+			final AtomicReference<List<TestResource>> result = new AtomicReference<List<TestResource>>();
+			Thread borrower = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					long start = ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
+					try {
+						result.set(pool.borrowObjects(4, 500, TimeUnit.MILLISECONDS));
+					} catch (InterruptedException e) {
+					}
+					cpuNanos.set(ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime() - start);
+				}
+			});
+			borrower.start();
+			borrower.join();
+			Assert.assertNull(result.get());
+			Assert.assertEquals(missesBefore + 1, missCount.get());
+			Assert.assertTrue("cpu " + cpuNanos.get(), cpuNanos.get() < TimeUnit.MILLISECONDS.toNanos(200));
+			Assert.assertEquals(1, pool.getNumActive());
+
+			//returning the held one completes the waiting batch
+			Thread returner = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						Thread.sleep(100);
+					} catch (InterruptedException e) {
+					}
+					pool.returnObject(held);
+				}
+			});
+			returner.start();
+			List<TestResource> all = pool.borrowObjects(4, 2, TimeUnit.SECONDS);
+			returner.join();
+			Assert.assertNotNull(all);
+			Assert.assertEquals(4, all.size());
+			Assert.assertEquals(missesBefore + 2, missCount.get());
+			pool.returnObjects(all);
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testEventListener() throws Exception {
+		final Map<PoolEventType, AtomicInteger> eventCounts = new ConcurrentHashMap<PoolEventType, AtomicInteger>();
+		for(PoolEventType type : PoolEventType.values()) {
+			eventCounts.put(type, new AtomicInteger(0));
+		}
+
+		BasePoolConfig poolConfig = new BasePoolConfig();
+		poolConfig.setPoolName("TestGenericObjPool17");
+		poolConfig.setMaxTotal(2);
+		poolConfig.setMaxIdle(2);
+		poolConfig.setMinIdle(0);
+		poolConfig.setTestWhileIdle(false);
+		poolConfig.setTestOnBorrow(true);
+		poolConfig.setTestOnBorrowIdleMillis(0);
+		poolConfig.setEventListener(new IPoolEventListener() {
+			@Override
+			public void onEvent(PoolEventType type, String poolName, Object obj, String msg, Throwable cause) {
+				Assert.assertEquals("TestGenericObjPool17", poolName);
+				eventCounts.get(type).incrementAndGet();
+			}
+		});
+
+		final GenericObjPool<TestResource> pool = new GenericObjPool<TestResource>(
+				poolConfig, new SimpleTestResourceFactory() {
+					@Override
+					public void activateObject(TestResource obj) {
+						throw new IllegalStateException("activateObject failed");
+					}
+				});
+		try {
+			//made on current thread, activation failure is reported but the object is still borrowed
+			TestResource resource = pool.borrowObject();
+			Assert.assertNotNull(resource);
+			Assert.assertEquals(1, eventCounts.get(PoolEventType.BORROW_MISS).get());
+			Assert.assertEquals(1, eventCounts.get(PoolEventType.CREATE).get());
+			Assert.assertEquals(1, eventCounts.get(PoolEventType.FACTORY_EXCEPTION).get());
+
+			//fails testOnBorrow, and the replacement is made on current thread
+			pool.returnObject(resource);
+			resource.release();
+			Assert.assertNotNull(pool.borrowObject());
+			Assert.assertEquals(1, eventCounts.get(PoolEventType.VALIDATE_FAIL).get());
+			Assert.assertEquals(1, eventCounts.get(PoolEventType.DESTROY).get());
+			Assert.assertEquals(2, eventCounts.get(PoolEventType.CREATE).get());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testEventLoggerDropsWhenFull() throws Exception {
+		//the writer thread is blocked by the stream, so the queue fills up
+		final CountDownLatch writeLatch = new CountDownLatch(1);
+		final ByteArrayOutputStream written = new ByteArrayOutputStream();
+		final AsyncPoolEventLogger logger = new AsyncPoolEventLogger(4, new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				try {
+					writeLatch.await();
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				written.write(b);
+			}
+		}, true), EnumSet.allOf(PoolEventType.class));
+		try {
+			final long beginNanos = System.nanoTime();
+			for(int i = 0; i < 100; i++) {
+				logger.onEvent(PoolEventType.ERROR, "TestGenericObjPool18", null, "event" + i, null);
+			}
+			Assert.assertTrue(System.nanoTime() - beginNanos < TimeUnit.SECONDS.toNanos(1));
+			//at most one being written and 4 in the queue
+			Assert.assertTrue(logger.getDroppedCount() >= 95);
+
+			writeLatch.countDown();
+			Thread.sleep(200);
+			Assert.assertTrue(written.toString().contains("events dropped"));
+		} finally {
+			writeLatch.countDown();
+			logger.close();
+		}
+	}
+
+	@Test
+	public void testEventLoggerBlocksWhenIdle() throws Exception {
+		final Set<Thread> oldThreads = Thread.getAllStackTraces().keySet();
+		final ByteArrayOutputStream written = new ByteArrayOutputStream();
+		final AsyncPoolEventLogger logger = new AsyncPoolEventLogger(
+				16, new PrintStream(written, true), EnumSet.allOf(PoolEventType.class));
+		Thread writer = null;
+		for(Thread thread : Thread.getAllStackTraces().keySet()) {
+			if(!oldThreads.contains(thread) && thread.getName().startsWith("simplepool-event-logger-")) {
+				writer = thread;
+			}
+		}
+		Assert.assertNotNull(writer);
+
+		logger.onEvent(PoolEventType.ERROR, "TestGenericObjPool27", null, "event1", null);
+		Thread.sleep(100);
+		Assert.assertTrue(written.toString().contains("event1"));
+		//waits for the next event without timeout, instead of waking up periodically
+		Assert.assertEquals(Thread.State.WAITING, writer.getState());
+
+		//the ones published before close are written
+		logger.onEvent(PoolEventType.ERROR, "TestGenericObjPool27", null, "event2", null);
+		logger.close();
+		writer.join(1000);
+		Assert.assertFalse(writer.isAlive());
+		Assert.assertTrue(written.toString().contains("event2"));
+	}
+
+	@Test
+	public void testCloseWithDrainTimeout() throws Exception {
+		BasePoolConfig poolConfig = new BasePoolConfig();
+		poolConfig.setPoolName("TestGenericObjPool19");
+		poolConfig.setMaxTotal(4);
+		poolConfig.setMaxIdle(4);
+		poolConfig.setMinIdle(0);
+		poolConfig.setTestWhileIdle(false);
+		final AtomicInteger destroyCount = new AtomicInteger(0);
+		poolConfig.setEventListener(new IPoolEventListener() {
+			@Override
+			public void onEvent(PoolEventType type, String poolName, Object obj, String msg, Throwable cause) {
+				if(type == PoolEventType.DESTROY) {
+					destroyCount.incrementAndGet();
+				}
+			}
+		});
+
+		final GenericObjPool<TestResource> pool = new GenericObjPool<TestResource>(
+				poolConfig, new SimpleTestResourceFactory());
+		final TestResource returned = pool.borrowObject();
+		final TestResource kept = pool.borrowObject();
+		pool.returnObject(pool.borrowObject());
+
+		final AtomicBoolean borrowRejected = new AtomicBoolean(false);
+		Thread borrower = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(100);
+					try {
+						pool.borrowObject();
+					} catch (RuntimeException e) {
+						borrowRejected.set(true);
+					}
+					//returning is still allowed while draining
+					pool.returnObject(returned);
+				} catch (InterruptedException e) {
+					//ignore
+				}
+			}
+		});
+		borrower.start();
+
+		PoolCloseReport report = pool.close(500, TimeUnit.MILLISECONDS);
+		borrower.join();
+		Assert.assertTrue(borrowRejected.get());
+		Assert.assertEquals(2, report.getDestroyedCount());
+		Assert.assertEquals(1, report.getForceDestroyedCount());
+		Assert.assertEquals(0, report.getFailedCount());
+		Assert.assertTrue(report.getElapsedMillis() >= 400);
+		Assert.assertEquals(3, destroyCount.get());
+		Assert.assertEquals(0, pool.getNumActive());
+		Assert.assertNull(pool.close(0, TimeUnit.MILLISECONDS));
+
+		try {
+			pool.returnObject(kept);
+			Assert.fail();
+		} catch (RuntimeException e) {
+			//closed
+		}
+	}
+
+	@Test
+	public void testForceDestroyWhileTesting() throws Exception {
+		BasePoolConfig poolConfig = new BasePoolConfig();
+		poolConfig.setPoolName("TestGenericObjPool24");
+		poolConfig.setMaxTotal(1);
+		poolConfig.setMaxIdle(1);
+		poolConfig.setMinIdle(1);
+		poolConfig.setTestWhileIdle(false);
+		poolConfig.setTestOnBorrow(true);
+		poolConfig.setTestOnBorrowIdleMillis(0);
+
+		final Map<TestResource, AtomicInteger> destroyCounts = new ConcurrentHashMap<TestResource, AtomicInteger>();
+		final GenericObjPool<TestResource> pool = new GenericObjPool<TestResource>(
+				poolConfig, new SimpleTestResourceFactory() {
+					@Override
+					public boolean validateObject(TestResource obj) {
+						try {
+							Thread.sleep(300);
+						} catch (InterruptedException e) {
+							//ignore
+						}
+						return false;
+					}
+
+					@Override
+					public void destroyObject(TestResource obj) {
+						destroyCounts.putIfAbsent(obj, new AtomicInteger(0));
+						destroyCounts.get(obj).incrementAndGet();
+						super.destroyObject(obj);
+					}
+				});
+
+		final Thread borrower = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					pool.borrowObject();
+				} catch (RuntimeException e) {
+					//closing
+				}
+			}
+		});
+		borrower.start();
+		Thread.sleep(100);
+
+		//the one being tested is destroyed by close, and the failed test must not destroy it again
+		PoolCloseReport report = pool.close(0, TimeUnit.MILLISECONDS);
+		Assert.assertEquals(1, report.getForceDestroyedCount());
+		borrower.join();
+		Thread.sleep(100);
+		Assert.assertFalse(destroyCounts.isEmpty());
+		for(AtomicInteger count : destroyCounts.values()) {
+			Assert.assertEquals(1, count.get());
+		}
+	}
+
+	@Test
+	public void testAsyncWarmUp() throws Exception {
+		BasePoolConfig poolConfig = new BasePoolConfig();
+		poolConfig.setPoolName("TestGenericObjPool20");
+		poolConfig.setMaxTotal(8);
+		poolConfig.setMaxIdle(8);
+		poolConfig.setMinIdle(8);
+		poolConfig.setTestWhileIdle(false);
+		poolConfig.setWarmUpParallelism(4);
+		poolConfig.setAsyncWarmUp(true);
+
+		final long beginMillis = System.currentTimeMillis();
+		final GenericObjPool<TestResource> pool = new GenericObjPool<TestResource>(
+				poolConfig, new SimpleTestResourceFactory() {
+					@Override
+					public TestResource makeObject() {
+						try {
+							Thread.sleep(50);
+						} catch (InterruptedException e) {
+							//ignore
+						}
+						return super.makeObject();
+					}
+				});
+		try {
+			//8 * 50ms one after another
+			Assert.assertTrue(System.currentTimeMillis() - beginMillis < 100);
+			Assert.assertFalse(pool.getReadyFuture().isDone());
+
+			//served before warm-up is finished
+			TestResource obj = pool.borrowObject(1, TimeUnit.SECONDS);
+			Assert.assertNotNull(obj);
+			pool.returnObject(obj);
+
+			Assert.assertTrue(pool.awaitReady(2, TimeUnit.SECONDS));
+			Assert.assertTrue(System.currentTimeMillis() - beginMillis < 350);
+			//the one made in background for the borrower above may still be in progress
+			Thread.sleep(100);
+			Assert.assertEquals(8, pool.getNumIdle());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testCreationBreaker() throws Exception {
+		BasePoolConfig poolConfig = new BasePoolConfig();
+		poolConfig.setPoolName("TestGenericObjPool21");
+		poolConfig.setMaxTotal(4);
+		poolConfig.setMaxIdle(4);
+		poolConfig.setMinIdle(0);
+		poolConfig.setTestWhileIdle(false);
+		poolConfig.setCreationBreakerThreshold(3);
+		poolConfig.setCreationBreakerOpenMillis(100);
+
+		final AtomicBoolean backendDown = new AtomicBoolean(true);
+		final AtomicInteger makeCount = new AtomicInteger(0);
+		final GenericObjPool<TestResource> pool = new GenericObjPool<TestResource>(
+				poolConfig, new SimpleTestResourceFactory() {
+					@Override
+					public TestResource makeObject() {
+						makeCount.incrementAndGet();
+						if(backendDown.get()) {
+							throw new RuntimeException("connect timeout");
+						}
+						return super.makeObject();
+					}
+				});
+		try {
+			for(int i = 0; i < 3; i++) {
+				try {
+					pool.borrowObject();
+					Assert.fail();
+				} catch (RuntimeException e) {
+					Assert.assertFalse(e instanceof CreationBreakerOpenException);
+				}
+			}
+			Assert.assertEquals(CreationBreakerState.OPEN, pool.getCreationBreakerState());
+
+			//fail fast without calling the factory, waiters too since nothing is borrowed
+			final long beginNanos = System.nanoTime();
+			try {
+				pool.borrowObject();
+				Assert.fail();
+			} catch (CreationBreakerOpenException e) {
+			}
+			try {
+				pool.borrowObject(1, TimeUnit.SECONDS);
+				Assert.fail();
+			} catch (CreationBreakerOpenException e) {
+			}
+			Assert.assertTrue(System.nanoTime() - beginNanos < TimeUnit.MILLISECONDS.toNanos(100));
+			Assert.assertEquals(3, makeCount.get());
+
+			//failed probe opens it again with doubled backoff
+			Thread.sleep(150);
+			try {
+				pool.borrowObject();
+				Assert.fail();
+			} catch (RuntimeException e) {
+				Assert.assertFalse(e instanceof CreationBreakerOpenException);
+			}
+			Assert.assertEquals(4, makeCount.get());
+			Assert.assertEquals(CreationBreakerState.OPEN, pool.getCreationBreakerState());
+
+			backendDown.set(false);
+			Thread.sleep(100);
+			try {
+				pool.borrowObject();
+				Assert.fail();
+			} catch (CreationBreakerOpenException e) {
+			}
+
+			Thread.sleep(150);
+			TestResource obj = pool.borrowObject();
+			Assert.assertNotNull(obj);
+			Assert.assertEquals(CreationBreakerState.CLOSED, pool.getCreationBreakerState());
+			pool.returnObject(obj);
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testCreationBreakerWithError() throws Exception {
+		BasePoolConfig poolConfig = new BasePoolConfig();
+		poolConfig.setPoolName("TestGenericObjPool26");
+		poolConfig.setMaxTotal(1);
+		poolConfig.setMaxIdle(1);
+		poolConfig.setMinIdle(0);
+		poolConfig.setTestWhileIdle(false);
+		poolConfig.setCreationBreakerThreshold(1);
+		poolConfig.setCreationBreakerOpenMillis(50);
+
+		final AtomicBoolean backendDown = new AtomicBoolean(true);
+		final GenericObjPool<TestResource> pool = new GenericObjPool<TestResource>(
+				poolConfig, new SimpleTestResourceFactory() {
+					@Override
+					public TestResource makeObject() {
+						if(backendDown.get()) {
+							throw new Error("native driver failed");
+						}
+						return super.makeObject();
+					}
+				});
+		try {
+			try {
+				pool.borrowObject();
+				Assert.fail();
+			} catch (Error e) {
+			}
+			Assert.assertEquals(CreationBreakerState.OPEN, pool.getCreationBreakerState());
+
+			//the failed probe opens it again instead of leaving it HALF_OPEN
+			Thread.sleep(80);
+			try {
+				pool.borrowObject();
+				Assert.fail();
+			} catch (Error e) {
+			}
+			Assert.assertEquals(CreationBreakerState.OPEN, pool.getCreationBreakerState());
+
+			//no capacity is leaked by the failures, so the only slot is still there
+			backendDown.set(false);
+			Thread.sleep(150);
+			TestResource obj = pool.borrowObject();
+			Assert.assertNotNull(obj);
+			Assert.assertEquals(CreationBreakerState.CLOSED, pool.getCreationBreakerState());
+			pool.returnObject(obj);
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testPriorityBorrow() throws Exception {
+		BasePoolConfig poolConfig = new BasePoolConfig();
+		poolConfig.setPoolName("TestGenericObjPool22");
+		poolConfig.setMaxTotal(4);
+		poolConfig.setMaxIdle(4);
+		poolConfig.setMinIdle(0);
+		poolConfig.setTestWhileIdle(false);
+		//half of the pool is kept for class 0
+		poolConfig.setPriorityReservations(0.5, 0);
+
+		final GenericObjPool<TestResource> pool = new GenericObjPool<TestResource>(
+				poolConfig, new SimpleTestResourceFactory());
+		try {
+			TestResource low1 = pool.borrowObject(1);
+			TestResource low2 = pool.borrowObject(1);
+			Assert.assertNotNull(low1);
+			Assert.assertNotNull(low2);
+			Assert.assertNull(pool.borrowObject(1));
+			Assert.assertNull(pool.borrowObject(1, 20, TimeUnit.MILLISECONDS));
+
+			TestResource high1 = pool.borrowObject(0);
+			Assert.assertNotNull(high1);
+			Assert.assertNotNull(pool.borrowObject());
+			Assert.assertNull(pool.borrowObject(0));
+
+			//the low one waits longer, but the high one is served first
+			final AtomicReference<TestResource> lowResult = new AtomicReference<TestResource>();
+			final AtomicReference<TestResource> highResult = new AtomicReference<TestResource>();
+			Thread lowWaiter = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						lowResult.set(pool.borrowObject(1, 2, TimeUnit.SECONDS));
+					} catch (InterruptedException e) {
+						//ignore
+					}
+				}
+			});
+			Thread highWaiter = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						highResult.set(pool.borrowObject(0, 2, TimeUnit.SECONDS));
+					} catch (InterruptedException e) {
+						//ignore
+					}
+				}
+			});
+			lowWaiter.start();
+			Thread.sleep(50);
+			highWaiter.start();
+			Thread.sleep(50);
+
+			pool.returnObject(low1);
+			highWaiter.join(1000);
+			Assert.assertSame(low1, highResult.get());
+			Assert.assertNull(lowResult.get());
+
+			//class 0 holds its reservation, so the low one is admitted
+			pool.returnObject(high1);
+			lowWaiter.join(1000);
+			Assert.assertSame(high1, lowResult.get());
+
+			try {
+				pool.borrowObject(2);
+				Assert.fail();
+			} catch (IllegalArgumentException e) {
+			}
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testPriorityReleasedOnceOnConcurrentReturns() throws Exception {
+		BasePoolConfig poolConfig = new BasePoolConfig();
+		poolConfig.setPoolName("TestGenericObjPool29");
+		poolConfig.setMaxTotal(4);
+		poolConfig.setMaxIdle(4);
+		poolConfig.setMinIdle(0);
+		poolConfig.setTestWhileIdle(false);
+		//half of the pool is kept for class 0
+		poolConfig.setPriorityReservations(0.5, 0);
+
+		final int returnerCount = 4;
+		final GenericObjPool<TestResource> pool = new GenericObjPool<TestResource>(
+				poolConfig, new SimpleTestResourceFactory());
+		ExecutorService executor = Executors.newFixedThreadPool(returnerCount);
+		try {
+			final TestResource held = pool.borrowObject(0);
+			for(int i = 0; i < 500; i++) {
+				final TestResource high = pool.borrowObject(0);
+				Assert.assertNotNull(high);
+				//the same object returned by several threads at once, only one of them counts
+				final CyclicBarrier barrier = new CyclicBarrier(returnerCount);
+				List<Future<?>> returners = new ArrayList<Future<?>>();
+				for(int j = 0; j < returnerCount; j++) {
+					returners.add(executor.submit(() -> {
+						barrier.await();
+						pool.returnObject(high);
+						return null;
+					}));
+				}
+				for(Future<?> returner : returners) {
+					returner.get();
+				}
+			}
+
+			//class 0 still holds one of its 2 reserved, so 2 of the other 3 are admitted for class 1
+			Assert.assertNotNull(pool.borrowObject(1));
+			Assert.assertNotNull(pool.borrowObject(1));
+			Assert.assertNull(pool.borrowObject(1));
+			pool.returnObject(held);
+		} finally {
+			executor.shutdownNow();
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testPriorityBatchAndAsync() throws Exception {
+		BasePoolConfig poolConfig = new BasePoolConfig();
+		poolConfig.setPoolName("TestGenericObjPool25");
+		poolConfig.setMaxTotal(4);
+		poolConfig.setMaxIdle(4);
+		poolConfig.setMinIdle(0);
+		poolConfig.setTestWhileIdle(false);
+		//half of the pool is kept for class 0
+		poolConfig.setPriorityReservations(0.5, 0);
+
+		final GenericObjPool<TestResource> pool = new GenericObjPool<TestResource>(
+				poolConfig, new SimpleTestResourceFactory());
+		try {
+			//a batch of class 1 would eat the reservation
+			Assert.assertNull(pool.borrowObjects(1, 3, 20, TimeUnit.MILLISECONDS));
+			List<TestResource> lows = pool.borrowObjects(1, 2, 20, TimeUnit.MILLISECONDS);
+			Assert.assertNotNull(lows);
+			Assert.assertEquals(2, lows.size());
+
+			CompletableFuture<TestResource> lowFuture = pool.borrowAsync(1, 2, TimeUnit.SECONDS);
+			Assert.assertFalse(lowFuture.isDone());
+			List<TestResource> highs = pool.borrowObjects(0, 2, 20, TimeUnit.MILLISECONDS);
+			Assert.assertNotNull(highs);
+			Assert.assertFalse(lowFuture.isDone());
+
+			//class 0 holds its reservation, so the returned object goes to the low one at once
+			pool.returnObject(lows.get(0));
+			Assert.assertSame(lows.get(0), lowFuture.get(100, TimeUnit.MILLISECONDS));
+
+			//a blocked waiter is handed the returned object, no polling
+			final AtomicReference<TestResource> highResult = new AtomicReference<TestResource>();
+			final AtomicLong waitedMillis = new AtomicLong();
+			Thread highWaiter = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						long start = System.currentTimeMillis();
+						highResult.set(pool.borrowObject(0, 2, TimeUnit.SECONDS));
+						waitedMillis.set(System.currentTimeMillis() - start);
+					} catch (InterruptedException e) {
+						//ignore
+					}
+				}
+			});
+			highWaiter.start();
+			Thread.sleep(100);
+			pool.returnObject(highs.get(0));
+			highWaiter.join(1000);
+			Assert.assertSame(highs.get(0), highResult.get());
+			Assert.assertTrue(waitedMillis.get() < 1000);
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testStats() throws Exception {
+		BasePoolConfig poolConfig = new BasePoolConfig();
+		poolConfig.setPoolName("TestGenericObjPool7");
+		poolConfig.setMaxTotal(1);
+		poolConfig.setMaxIdle(1);
+		poolConfig.setMinIdle(0);
+		poolConfig.setTestWhileIdle(false);
+		poolConfig.setStatsEnabled(true);
+
+		final GenericObjPool<TestResource> pool = new GenericObjPool<TestResource>(
+				poolConfig, new SimpleTestResourceFactory());
+		final ObjectName name = new ObjectName("simplepool:type=GenericObjPool,name=\"TestGenericObjPool7\"");
+		try {
+			TestResource resource = pool.borrowObject();
+			Assert.assertNull(pool.borrowObject());
+			pool.returnObject(resource);
+			resource = pool.borrowObject();
+			pool.invalidateObject(resource);
+
+			PoolStatsMXBean stats = pool.getStats();
+			Assert.assertEquals(2, stats.getBorrowCount());
+			Assert.assertEquals(2, stats.getBorrowMissCount());
+			Assert.assertEquals(1, stats.getBorrowNullCount());
+			Assert.assertEquals(1, stats.getDestroyedCount());
+			Assert.assertEquals(2, stats.getBorrowWaitTime().getCount());
+			Assert.assertEquals(1, stats.getHoldTime().getCount());
+
+			Assert.assertEquals(2L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "BorrowCount"));
+		} finally {
+			pool.close();
+		}
+		Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+	}
+
+	private static class SimpleTestResourceFactory implements IObjFactory<TestResource> {
+		@Override
+		public TestResource makeObject() {
+			return new TestResource();
+		}
+
+		@Override
+		public void destroyObject(TestResource obj) {
+			obj.release();
+		}
+
+		@Override
+		public boolean validateObject(TestResource obj) {
+			return obj.isAlive();
+		}
+
+		@Override
+		public void activateObject(TestResource obj) {
+		}
+
+		@Override
+		public void passivateObject(TestResource obj) {
+		}
+	}
+
 	private static class TestThread implements Runnable {
 		
 		private final GenericObjPool<TestResource> _pool;
@@ -0,0 +1,275 @@
+package simplepool.base.junittest;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import simplepool.base.KeyedObjPool;
+import simplepool.base.KeyedPoolConfig;
+import simplepool.base.abstracts.IKeyedObjFactory;
+
+public class TestKeyedObjPool {
+
+	@Test
+	public void testReclaimIdleOfColdKey() throws Exception {
+		KeyedPoolConfig poolConfig = new KeyedPoolConfig();
+		poolConfig.setPoolName("TestKeyedObjPool1");
+		poolConfig.setMaxTotal(4);
+		poolConfig.setMaxTotalPerKey(3);
+		poolConfig.setMaxIdlePerKey(3);
+		poolConfig.setMinIdlePerKey(0);
+		poolConfig.setTestWhileIdle(false);
+
+		final AtomicInteger liveCount = new AtomicInteger(0);
+		final KeyedObjPool<String, String> pool = new KeyedObjPool<String, String>(
+				poolConfig, new CountingFactory(liveCount));
+		try {
+			List<String> borrowed = new ArrayList<String>();
+			for(int i = 0; i < 3; i++) {
+				borrowed.add(pool.borrowObject("a"));
+			}
+			//per-key limit
+			Assert.assertNull(pool.borrowObject("a"));
+			for(String obj : borrowed) {
+				Assert.assertTrue(obj.startsWith("a"));
+				pool.returnObject("a", obj);
+			}
+			Assert.assertEquals(3, pool.getNumIdle("a"));
+
+			//global limit is reached, idle ones of "a" are destroyed to make room for "b"
+			borrowed.clear();
+			for(int i = 0; i < 3; i++) {
+				borrowed.add(pool.borrowObject("b"));
+			}
+			Assert.assertEquals(1, pool.getNumIdle("a"));
+			Assert.assertEquals(3, pool.getNumActive("b"));
+			Assert.assertEquals(4, liveCount.get());
+
+			Assert.assertNotNull(pool.borrowObject("c"));
+			Assert.assertEquals(0, pool.getNumIdle("a"));
+			//nothing left to reclaim
+			Assert.assertNull(pool.borrowObject("c"));
+			Assert.assertNull(pool.borrowObject("c", 20, TimeUnit.MILLISECONDS));
+
+			//idle one returned to "b" is reclaimed for the waiter of "c"
+			pool.returnObject("b", borrowed.get(0));
+			String obj = pool.borrowObject("c", 2, TimeUnit.SECONDS);
+			Assert.assertNotNull(obj);
+			Assert.assertTrue(obj.startsWith("c"));
+			Assert.assertEquals(4, liveCount.get());
+			Assert.assertEquals(4, pool.getNumActive());
+		} finally {
+			pool.close();
+		}
+		Assert.assertEquals(0, liveCount.get());
+	}
+
+	@Test
+	public void testReclaimOfLeastRecentlyUsedKey() throws Exception {
+		KeyedPoolConfig poolConfig = new KeyedPoolConfig();
+		poolConfig.setPoolName("TestKeyedObjPool2");
+		poolConfig.setMaxTotal(3);
+		poolConfig.setMaxTotalPerKey(3);
+		poolConfig.setMaxIdlePerKey(3);
+		poolConfig.setMinIdlePerKey(0);
+		poolConfig.setTestWhileIdle(false);
+
+		final AtomicInteger liveCount = new AtomicInteger(0);
+		final KeyedObjPool<String, String> pool = new KeyedObjPool<String, String>(
+				poolConfig, new CountingFactory(liveCount));
+		try {
+			pool.returnObject("a", pool.borrowObject("a"));
+			Thread.sleep(20);
+			String b1 = pool.borrowObject("b");
+			String b2 = pool.borrowObject("b");
+			pool.returnObject("b", b1);
+			pool.returnObject("b", b2);
+
+			//"b" has more idle objects, but "a" is the one not used for longer
+			Assert.assertNotNull(pool.borrowObject("c"));
+			Assert.assertEquals(0, pool.getNumIdle("a"));
+			Assert.assertEquals(2, pool.getNumIdle("b"));
+			Assert.assertEquals(3, liveCount.get());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testWaiterServedByCapacityOfOtherKeys() throws Exception {
+		KeyedPoolConfig poolConfig = new KeyedPoolConfig();
+		poolConfig.setPoolName("TestKeyedObjPool4");
+		poolConfig.setMaxTotal(2);
+		poolConfig.setMaxTotalPerKey(2);
+		poolConfig.setMaxIdlePerKey(2);
+		poolConfig.setMinIdlePerKey(0);
+		poolConfig.setTestWhileIdle(false);
+
+		final AtomicInteger liveCount = new AtomicInteger(0);
+		final KeyedObjPool<String, String> pool = new KeyedObjPool<String, String>(
+				poolConfig, new CountingFactory(liveCount));
+		try {
+			final String a1 = pool.borrowObject("a");
+			final String a2 = pool.borrowObject("a");
+
+			//capacity freed by invalidating is handed over to the waiter of "b"
+			Thread invalidator = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						Thread.sleep(100);
+					} catch (InterruptedException e) {
+					}
+					pool.invalidateObject("a", a1);
+				}
+			});
+			long start = System.nanoTime();
+			invalidator.start();
+			String b = pool.borrowObject("b", 5, TimeUnit.SECONDS);
+			invalidator.join();
+			Assert.assertNotNull(b);
+			Assert.assertTrue(b.startsWith("b"));
+			Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+
+			//idle one returned to "a" is reclaimed for the waiter of "c"
+			Thread returner = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						Thread.sleep(100);
+					} catch (InterruptedException e) {
+					}
+					pool.returnObject("a", a2);
+				}
+			});
+			start = System.nanoTime();
+			returner.start();
+			String c = pool.borrowObject("c", 5, TimeUnit.SECONDS);
+			returner.join();
+			Assert.assertNotNull(c);
+			Assert.assertTrue(c.startsWith("c"));
+			Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+			Assert.assertEquals(0, pool.getNumIdle("a"));
+			Assert.assertEquals(2, liveCount.get());
+		} finally {
+			pool.close();
+		}
+		Assert.assertEquals(0, liveCount.get());
+	}
+
+	@Test
+	public void testRemoveIdleKeys() throws Exception {
+		KeyedPoolConfig poolConfig = new KeyedPoolConfig();
+		poolConfig.setPoolName("TestKeyedObjPool3");
+		poolConfig.setMaxTotal(4);
+		poolConfig.setMaxTotalPerKey(2);
+		poolConfig.setMaxIdlePerKey(2);
+		poolConfig.setMinIdlePerKey(0);
+		poolConfig.setTestWhileIdle(false);
+		poolConfig.setKeyIdleTimeoutMillis(100);
+
+		final AtomicInteger liveCount = new AtomicInteger(0);
+		final KeyedObjPool<String, String> pool = new KeyedObjPool<String, String>(
+				poolConfig, new CountingFactory(liveCount));
+		try {
+			pool.returnObject("a", pool.borrowObject("a"));
+			String b = pool.borrowObject("b");
+			Assert.assertEquals(2, liveCount.get());
+
+			//"a" is closed with its idle object, "b" is kept since its object is still borrowed
+			Thread.sleep(400);
+			Assert.assertEquals(1, liveCount.get());
+			Assert.assertEquals(0, pool.getNumIdle("a"));
+			Assert.assertEquals(1, pool.getNumActive("b"));
+
+			pool.returnObject("b", b);
+			Assert.assertEquals(1, pool.getNumIdle("b"));
+
+			//made again on next borrow
+			String a = pool.borrowObject("a");
+			Assert.assertNotNull(a);
+			pool.returnObject("a", a);
+			Assert.assertEquals(1, pool.getNumIdle("a"));
+		} finally {
+			pool.close();
+		}
+		Assert.assertEquals(0, liveCount.get());
+	}
+
+	@Test
+	public void testStatsOfAllKeys() throws Exception {
+		KeyedPoolConfig poolConfig = new KeyedPoolConfig();
+		poolConfig.setPoolName("TestKeyedObjPool5");
+		poolConfig.setMaxTotal(4);
+		poolConfig.setMaxTotalPerKey(2);
+		poolConfig.setMaxIdlePerKey(2);
+		poolConfig.setMinIdlePerKey(0);
+		poolConfig.setTestWhileIdle(false);
+		poolConfig.setStatsEnabled(true);
+
+		final KeyedObjPool<String, String> pool = new KeyedObjPool<String, String>(
+				poolConfig, new CountingFactory(new AtomicInteger(0)));
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final ObjectName name = new ObjectName("simplepool:type=KeyedObjPool,name=\"TestKeyedObjPool5\"");
+		try {
+			String a = pool.borrowObject("a");
+			String b = pool.borrowObject("b");
+			//one MBean for the whole pool, none per key
+			Assert.assertTrue(server.isRegistered(name));
+			Assert.assertFalse(server.isRegistered(
+					new ObjectName("simplepool:type=GenericObjPool,name=\"TestKeyedObjPool5[a]\"")));
+
+			Assert.assertEquals(2L, server.getAttribute(name, "CreatedCount"));
+			Assert.assertEquals(2, server.getAttribute(name, "NumActive"));
+			pool.returnObject("a", a);
+			pool.invalidateObject("b", b);
+			Assert.assertEquals(1, pool.getStats().getNumIdle());
+			Assert.assertEquals(1L, pool.getStats().getDestroyedCount());
+		} finally {
+			pool.close();
+		}
+		Assert.assertFalse(server.isRegistered(name));
+	}
+
+	private static class CountingFactory implements IKeyedObjFactory<String, String> {
+		private final AtomicInteger _liveCount;
+		private final AtomicInteger _seq = new AtomicInteger(0);
+
+		public CountingFactory(AtomicInteger liveCount) {
+			_liveCount = liveCount;
+		}
+
+		@Override
+		public String makeObject(String key) {
+			_liveCount.incrementAndGet();
+			return key + _seq.incrementAndGet();
+		}
+
+		@Override
+		public void destroyObject(String key, String obj) {
+			_liveCount.decrementAndGet();
+		}
+
+		@Override
+		public boolean validateObject(String key, String obj) {
+			return true;
+		}
+
+		@Override
+		public void activateObject(String key, String obj) {
+		}
+
+		@Override
+		public void passivateObject(String key, String obj) {
+		}
+	}
+
+}
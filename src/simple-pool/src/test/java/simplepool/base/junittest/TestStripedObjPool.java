@@ -0,0 +1,302 @@
+package simplepool.base.junittest;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import simplepool.base.BasePoolConfig;
+import simplepool.base.StripedObjPool;
+import simplepool.base.abstracts.IObjFactory;
+
+public class TestStripedObjPool {
+
+	@Test
+	public void testMaxTotalAcrossStripes() throws Exception {
+		BasePoolConfig poolConfig = new BasePoolConfig();
+		poolConfig.setPoolName("TestStripedObjPool1");
+		poolConfig.setMaxTotal(5);
+		poolConfig.setMaxIdle(5);
+		poolConfig.setMinIdle(0);
+		poolConfig.setTestWhileIdle(false);
+
+		final AtomicInteger makeCount = new AtomicInteger(0);
+		final StripedObjPool<Object> pool = new StripedObjPool<Object>(
+				poolConfig, new CountingFactory(makeCount), 3);
+		try {
+			Assert.assertEquals(3, pool.getStripeCount());
+
+			//home stripe is exhausted first, the others are used after that
+			List<Object> borrowed = new ArrayList<Object>();
+			for(int i = 0; i < 5; i++) {
+				Object obj = pool.borrowObject();
+				Assert.assertNotNull(obj);
+				borrowed.add(obj);
+			}
+			Assert.assertNull(pool.borrowObject());
+			Assert.assertNull(pool.borrowObject(20, TimeUnit.MILLISECONDS));
+			Assert.assertEquals(5, pool.getNumActive());
+			Assert.assertEquals(5, makeCount.get());
+
+			for(Object obj : borrowed) {
+				pool.returnObject(obj);
+			}
+			Assert.assertEquals(0, pool.getNumActive());
+			Assert.assertEquals(5, pool.getNumIdle());
+
+			//idle objects of other stripes are taken before making new ones
+			for(int i = 0; i < 5; i++) {
+				Assert.assertNotNull(pool.borrowObject());
+			}
+			Assert.assertEquals(5, makeCount.get());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testBatchBorrowAcrossStripes() throws Exception {
+		BasePoolConfig poolConfig = new BasePoolConfig();
+		poolConfig.setPoolName("TestStripedObjPool2");
+		poolConfig.setMaxTotal(5);
+		poolConfig.setMaxIdle(5);
+		poolConfig.setMinIdle(0);
+		poolConfig.setTestWhileIdle(false);
+
+		final AtomicInteger makeCount = new AtomicInteger(0);
+		final StripedObjPool<Object> pool = new StripedObjPool<Object>(
+				poolConfig, new CountingFactory(makeCount), 3);
+		try {
+			Assert.assertNull(pool.borrowObjects(6, 0, TimeUnit.MILLISECONDS));
+
+			//more than any stripe holds
+			List<Object> borrowed = pool.borrowObjects(5, 0, TimeUnit.MILLISECONDS);
+			Assert.assertEquals(5, borrowed.size());
+			Assert.assertEquals(5, pool.getNumActive());
+			Assert.assertNull(pool.borrowObjects(1, 20, TimeUnit.MILLISECONDS));
+
+			pool.returnObjects(borrowed);
+			Assert.assertEquals(0, pool.getNumActive());
+			Assert.assertEquals(5, pool.getNumIdle());
+
+			Assert.assertEquals(5, pool.borrowObjects(5, 0, TimeUnit.MILLISECONDS).size());
+			Assert.assertEquals(5, makeCount.get());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testBatchBorrowWaitsWithoutSpinning() throws Exception {
+		BasePoolConfig poolConfig = new BasePoolConfig();
+		poolConfig.setPoolName("TestStripedObjPool5");
+		poolConfig.setMaxTotal(6);
+		poolConfig.setMaxIdle(6);
+		poolConfig.setMinIdle(0);
+		poolConfig.setTestWhileIdle(false);
+
+		final StripedObjPool<Object> pool = new StripedObjPool<Object>(
+				poolConfig, new CountingFactory(new AtomicInteger(0)), 3);
+		try {
+			final Object held = pool.borrowObject();
+			final AtomicLong cpuNanos = new AtomicLong();
+			final AtomicReference<List<Object>> result = new AtomicReference<List<Object>>();
+			Thread borrower = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					long start = ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime();
+					try {
+						result.set(pool.borrowObjects(6, 500, TimeUnit.MILLISECONDS));
+					} catch (InterruptedException e) {
+					}
+					cpuNanos.set(ManagementFactory.getThreadMXBean().getCurrentThreadCpuTime() - start);
+				}
+			});
+			borrower.start();
+			borrower.join();
+			Assert.assertNull(result.get());
+			Assert.assertTrue("cpu " + cpuNanos.get(), cpuNanos.get() < TimeUnit.MILLISECONDS.toNanos(200));
+			Assert.assertEquals(1, pool.getNumActive());
+
+			Thread returner = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						Thread.sleep(100);
+					} catch (InterruptedException e) {
+					}
+					pool.returnObject(held);
+				}
+			});
+			returner.start();
+			List<Object> all = pool.borrowObjects(6, 2, TimeUnit.SECONDS);
+			returner.join();
+			Assert.assertNotNull(all);
+			Assert.assertEquals(6, all.size());
+			pool.returnObjects(all);
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testWaitAcrossStripes() throws Exception {
+		BasePoolConfig poolConfig = new BasePoolConfig();
+		poolConfig.setPoolName("TestStripedObjPool3");
+		poolConfig.setMaxTotal(3);
+		poolConfig.setMaxIdle(3);
+		poolConfig.setMinIdle(0);
+		poolConfig.setTestWhileIdle(false);
+
+		final StripedObjPool<Object> pool = new StripedObjPool<Object>(
+				poolConfig, new CountingFactory(new AtomicInteger(0)), 3);
+		try {
+			final List<Object> borrowed = pool.borrowObjects(3, 0, TimeUnit.MILLISECONDS);
+			Assert.assertEquals(3, borrowed.size());
+
+			//waiters wait for all stripes, whichever is their home stripe
+			final List<Future<Object>> waiters = new ArrayList<Future<Object>>();
+			final ExecutorService executor = Executors.newFixedThreadPool(4);
+			for(int i = 0; i < 3; i++) {
+				waiters.add(executor.submit(() -> pool.borrowObject(5, TimeUnit.SECONDS)));
+			}
+			Thread.sleep(50);
+			final long begin = System.currentTimeMillis();
+			for(Object obj : borrowed) {
+				pool.returnObject(obj);
+			}
+			for(Future<Object> waiter : waiters) {
+				Assert.assertNotNull(waiter.get(1, TimeUnit.SECONDS));
+			}
+			Assert.assertTrue(System.currentTimeMillis() - begin < 1000);
+			Assert.assertEquals(3, pool.getNumActive());
+
+			//close wakes up the waiters
+			final Future<Object> waiter = executor.submit(() -> pool.borrowObject(5, TimeUnit.SECONDS));
+			Thread.sleep(50);
+			pool.close();
+			try {
+				waiter.get(1, TimeUnit.SECONDS);
+				Assert.fail();
+			} catch (ExecutionException e) {
+				Assert.assertTrue(e.getCause() instanceof RuntimeException);
+			}
+			executor.shutdown();
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testBorrowAsyncAcrossStripes() throws Exception {
+		BasePoolConfig poolConfig = new BasePoolConfig();
+		poolConfig.setPoolName("TestStripedObjPool4");
+		poolConfig.setMaxTotal(4);
+		poolConfig.setMaxIdle(4);
+		poolConfig.setMinIdle(0);
+		poolConfig.setTestWhileIdle(false);
+
+		final AtomicInteger makeCount = new AtomicInteger(0);
+		final StripedObjPool<Object> pool = new StripedObjPool<Object>(
+				poolConfig, new CountingFactory(makeCount), 4);
+		try {
+			//one waiter, so only one object is made for it in background
+			final Object first = pool.borrowAsync(1, TimeUnit.SECONDS).get(1, TimeUnit.SECONDS);
+			Assert.assertNotNull(first);
+			Thread.sleep(50);
+			Assert.assertEquals(1, makeCount.get());
+
+			final List<Object> others = pool.borrowObjects(3, 0, TimeUnit.MILLISECONDS);
+			Assert.assertEquals(3, others.size());
+
+			//pool is full, the future is completed by the stripe which the object is returned to
+			final CompletableFuture<Object> future = pool.borrowAsync(1, TimeUnit.SECONDS);
+			Thread.sleep(50);
+			Assert.assertFalse(future.isDone());
+			pool.returnObject(others.get(2));
+			Assert.assertSame(others.get(2), future.get(1, TimeUnit.SECONDS));
+			Assert.assertEquals(4, pool.getNumActive());
+			Assert.assertEquals(4, makeCount.get());
+		} finally {
+			pool.close();
+		}
+	}
+
+	@Test
+	public void testStatsOfAllStripes() throws Exception {
+		BasePoolConfig poolConfig = new BasePoolConfig();
+		poolConfig.setPoolName("TestStripedObjPool6");
+		poolConfig.setMaxTotal(4);
+		poolConfig.setMaxIdle(4);
+		poolConfig.setMinIdle(0);
+		poolConfig.setTestWhileIdle(false);
+		poolConfig.setStatsEnabled(true);
+
+		final StripedObjPool<Object> pool = new StripedObjPool<Object>(
+				poolConfig, new CountingFactory(new AtomicInteger(0)), 2);
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		final ObjectName name = new ObjectName("simplepool:type=StripedObjPool,name=\"TestStripedObjPool6\"");
+		try {
+			//one MBean for the whole pool, none per stripe
+			Assert.assertTrue(server.isRegistered(name));
+			Assert.assertFalse(server.isRegistered(
+					new ObjectName("simplepool:type=GenericObjPool,name=\"TestStripedObjPool6#0\"")));
+
+			List<Object> borrowed = pool.borrowObjects(4, 0, TimeUnit.MILLISECONDS);
+			Assert.assertEquals(4L, server.getAttribute(name, "CreatedCount"));
+			Assert.assertEquals(4, server.getAttribute(name, "NumActive"));
+			Assert.assertEquals("TestStripedObjPool6", pool.getStats().getPoolName());
+			pool.returnObjects(borrowed);
+			Assert.assertEquals(4, pool.getStats().getNumIdle());
+		} finally {
+			pool.close();
+		}
+		Assert.assertFalse(server.isRegistered(name));
+	}
+
+	private static class CountingFactory implements IObjFactory<Object> {
+		private final AtomicInteger _makeCount;
+
+		public CountingFactory(AtomicInteger makeCount) {
+			_makeCount = makeCount;
+		}
+
+		@Override
+		public Object makeObject() {
+			_makeCount.incrementAndGet();
+			return new Object();
+		}
+
+		@Override
+		public void destroyObject(Object obj) {
+		}
+
+		@Override
+		public boolean validateObject(Object obj) {
+			return true;
+		}
+
+		@Override
+		public void activateObject(Object obj) {
+		}
+
+		@Override
+		public void passivateObject(Object obj) {
+		}
+	}
+
+}